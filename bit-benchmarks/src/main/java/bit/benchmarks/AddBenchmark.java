@@ -0,0 +1,39 @@
+package bit.benchmarks;
+
+import bit.utils.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// The hashing side of `bit add .`: the walk -> hash -> sink pipeline over the
+// whole synthetic tree, either from an empty index (every file is read and
+// hashed) or from the staged index (every file is a stat cache hit).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AddBenchmark {
+
+    @Param({"1", "4"})
+    public int jobs;
+
+    @Benchmark
+    public void hashAll(SyntheticRepo repo, Blackhole blackhole) throws IOException {
+        run(repo, Index.load(repo.bitDir.resolve("missing-index")), blackhole);
+    }
+
+    @Benchmark
+    public void unchanged(SyntheticRepo repo, Blackhole blackhole) throws IOException {
+        run(repo, Index.load(repo.indexPath), blackhole);
+    }
+
+    private void run(SyntheticRepo repo, Index index, Blackhole blackhole) throws IOException {
+        new HashPipeline(jobs, index).run(
+                out -> WorkTree.walk(repo.work, IgnoreRules.NONE, out),
+                (file, entry) -> blackhole.consume(entry));
+    }
+}
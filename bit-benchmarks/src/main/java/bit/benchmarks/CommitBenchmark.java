@@ -0,0 +1,48 @@
+package bit.benchmarks;
+
+import bit.utils.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// `bit save` after staging one file: build the trees from the index, write
+// the commit, move the branch (with its reflog line) and update the
+// commit-graph. Every invocation adds a commit on top of the last one.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommitBenchmark {
+
+    private Index index;
+    private Index.Entry[] variants;
+    private History history;
+    private int count;
+
+    @Setup(Level.Trial)
+    public void prepare(SyntheticRepo repo) throws IOException {
+        index = Index.load(repo.indexPath);
+        history = new History(repo.store, repo.bitDir.resolve("commit-graph"));
+
+        // Alternate one file between two contents so each commit has a new tree
+        Index.Entry entry = index.entries().get(0);
+        String otherBlob = repo.store.write(ObjectStore.BLOB, "changed\n".getBytes());
+        variants = new Index.Entry[] {entry, new Index.Entry(entry.path(), otherBlob, entry.stat())};
+    }
+
+    @Benchmark
+    public String commit(SyntheticRepo repo) throws IOException {
+        index.put(variants[++count % 2]);
+        String tree = TreeBuilder.write(repo.store, index);
+
+        String parent = repo.refs.head();
+        String id = Commit.create(List.of(parent), tree, "commit " + count).write(repo.store);
+        repo.refs.update(Refs.DEFAULT_BRANCH, id, "commit: commit " + count);
+        history.record(List.of(id));
+        return id;
+    }
+}
@@ -0,0 +1,77 @@
+package bit.benchmarks;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+// Compares two JMH JSON result files benchmark by benchmark:
+//   java -cp benchmarks.jar bit.benchmarks.CompareResults before.json after.json [--threshold=10]
+// Prints the score change of every benchmark present in both and exits with
+// status 1 if any got slower by more than the threshold percentage.
+public class CompareResults {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: CompareResults <before.json> <after.json> [--threshold=PERCENT]");
+            return;
+        }
+        double threshold = 10;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--threshold=")) {
+                threshold = Double.parseDouble(args[i].substring("--threshold=".length()));
+            }
+        }
+
+        Map<String, JSONObject> before = load(Paths.get(args[0]));
+        Map<String, JSONObject> after = load(Paths.get(args[1]));
+
+        int regressions = 0;
+        for (Map.Entry<String, JSONObject> entry : after.entrySet()) {
+            JSONObject old = before.get(entry.getKey());
+            if (old == null) continue;
+
+            JSONObject oldMetric = old.getJSONObject("primaryMetric");
+            JSONObject newMetric = entry.getValue().getJSONObject("primaryMetric");
+            double oldScore = oldMetric.getDouble("score");
+            double newScore = newMetric.getDouble("score");
+            double change = oldScore == 0 ? 0 : (newScore - oldScore) / oldScore * 100;
+
+            // For throughput higher is better, for time modes lower is better
+            boolean higherIsBetter = entry.getValue().getString("mode").equals("thrpt");
+            boolean regressed = higherIsBetter ? change < -threshold : change > threshold;
+            if (regressed) regressions++;
+
+            System.out.printf("%s %-70s %12.3f -> %12.3f %s  %+7.1f%%%n", regressed ? "⚠️ " : "  ",
+                    entry.getKey(), oldScore, newScore, newMetric.getString("scoreUnit"), change);
+        }
+
+        if (regressions > 0) {
+            System.out.println("\n❌ " + regressions + " benchmark(s) regressed by more than " + threshold + "%");
+            System.exit(1);
+        }
+        System.out.println("\n✅ No regressions above " + threshold + "%");
+    }
+
+    // Results keyed by benchmark name plus its parameters
+    private static Map<String, JSONObject> load(Path file) throws IOException {
+        Map<String, JSONObject> results = new LinkedHashMap<>();
+        JSONArray array = new JSONArray(Files.readString(file));
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject result = array.getJSONObject(i);
+            StringBuilder key = new StringBuilder(result.getString("benchmark").replace("bit.benchmarks.", ""));
+            JSONObject params = result.optJSONObject("params");
+            if (params != null) {
+                for (String name : new TreeSet<>(params.keySet())) {
+                    key.append(" ").append(name).append("=").append(params.get(name));
+                }
+            }
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,42 @@
+package bit.benchmarks;
+
+import bit.utils.FileHasher;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// FileHasher.hashFile on one file, from a small source file to a large asset
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileHasherBenchmark {
+
+    @Param({"4096", "1048576", "67108864"})
+    public int size;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void create() throws IOException {
+        file = Files.createTempFile(Paths.get(""), "bit-bench-", ".bin");
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        Files.write(file, data);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public String hashFile() throws IOException {
+        return FileHasher.hashFile(file);
+    }
+}
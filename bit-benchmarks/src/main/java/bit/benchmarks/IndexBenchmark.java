@@ -0,0 +1,41 @@
+package bit.benchmarks;
+
+import bit.utils.Index;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Loading the binary index: reading it into memory and looking up a few
+// paths (what most commands do), decoding every entry, and writing it back.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexBenchmark {
+
+    private static final int LOOKUPS = 100;
+
+    @Benchmark
+    public int loadAndLookup(SyntheticRepo repo) throws IOException {
+        Index index = Index.load(repo.indexPath);
+        int found = 0;
+        int step = Math.max(1, repo.paths.size() / LOOKUPS);
+        for (int i = 0; i < repo.paths.size(); i += step) {
+            if (index.get(repo.paths.get(i)) != null) found++;
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int loadAll(SyntheticRepo repo) throws IOException {
+        return Index.load(repo.indexPath).entries().size();
+    }
+
+    @Benchmark
+    public void save(SyntheticRepo repo) throws IOException {
+        Index.load(repo.indexPath).save();
+    }
+}
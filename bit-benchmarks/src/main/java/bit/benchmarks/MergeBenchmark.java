@@ -0,0 +1,85 @@
+package bit.benchmarks;
+
+import bit.utils.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The pieces of `bit merge`: a line-level three-way merge of one file edited
+// on both sides, and finding the merge base of two branches that forked
+// `history` commits back, with and without the commit-graph.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeBenchmark {
+
+    @Param({"10000"})
+    public int lines;
+
+    @Param({"1000"})
+    public int history;
+
+    private byte[] base;
+    private byte[] ours;
+    private byte[] theirs;
+
+    private String oursTip;
+    private String theirsTip;
+
+    @Setup(Level.Trial)
+    public void prepare(SyntheticRepo repo) throws IOException {
+        // Both sides edit every hundredth line, fifty lines apart, so the merge is clean
+        StringBuilder baseText = new StringBuilder();
+        StringBuilder oursText = new StringBuilder();
+        StringBuilder theirsText = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            String line = "line " + i + " of the merged file\n";
+            baseText.append(line);
+            oursText.append(i % 100 == 0 ? "ours " + line : line);
+            theirsText.append(i % 100 == 50 ? "theirs " + line : line);
+        }
+        base = baseText.toString().getBytes(StandardCharsets.UTF_8);
+        ours = oursText.toString().getBytes(StandardCharsets.UTF_8);
+        theirs = theirsText.toString().getBytes(StandardCharsets.UTF_8);
+
+        // A linear history that forks into two branches of ten commits each
+        String fork = chain(repo, repo.headCommit, history, "main");
+        oursTip = chain(repo, fork, 10, "ours");
+        theirsTip = chain(repo, fork, 10, "theirs");
+        History.rebuild(repo.store, List.of(oursTip, theirsTip), graphPath(repo));
+    }
+
+    private static String chain(SyntheticRepo repo, String parent, int count, String label) throws IOException {
+        String id = parent;
+        for (int i = 0; i < count; i++) {
+            id = Commit.create(List.of(id), repo.headTree, label + " " + i).write(repo.store);
+        }
+        return id;
+    }
+
+    private static Path graphPath(SyntheticRepo repo) {
+        return repo.bitDir.resolve("commit-graph");
+    }
+
+    @Benchmark
+    public Diff3.Result diff3() {
+        return Diff3.merge(base, ours, theirs, "ours", "theirs");
+    }
+
+    @Benchmark
+    public String mergeBaseWithGraph(SyntheticRepo repo) throws IOException {
+        return new History(repo.store, graphPath(repo)).mergeBase(oursTip, theirsTip);
+    }
+
+    @Benchmark
+    public String mergeBaseWithoutGraph(SyntheticRepo repo) throws IOException {
+        return new History(repo.store, repo.bitDir.resolve("no-commit-graph")).mergeBase(oursTip, theirsTip);
+    }
+}
@@ -0,0 +1,109 @@
+package bit.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Writes a synthetic working tree: `files` text files spread over a directory
+// tree `depth` levels deep with `fanout` subdirectories per level. File sizes
+// follow a log-normal distribution around `medianSize`, so most files are
+// small and a few are large, like a real source tree. The same spec and seed
+// always produce the same tree.
+//
+// Standalone use, e.g. to try the CLI on a big tree:
+//   java -cp benchmarks.jar bit.benchmarks.RepoGenerator <dir> --files=10000 --depth=4
+public class RepoGenerator {
+
+    public record Spec(int files, int depth, int fanout, int medianSize, long seed) {
+        public static Spec of(int files, int depth, int medianSize) {
+            return new Spec(files, depth, 8, medianSize, 42);
+        }
+    }
+
+    private static final String[] WORDS = {
+            "commit", "tree", "blob", "index", "merge", "stage", "hash", "object", "branch", "remote",
+            "public", "static", "void", "return", "final", "class", "import", "new", "if", "else",
+            "for", "while", "try", "catch", "throw", "string", "list", "map", "path", "file",
+    };
+
+    private RepoGenerator() {
+    }
+
+    // Returns the generated files relative to `root`, in creation order
+    public static List<Path> generate(Path root, Spec spec) throws IOException {
+        Random random = new Random(spec.seed());
+        List<Path> created = new ArrayList<>(spec.files());
+        for (int i = 0; i < spec.files(); i++) {
+            Path relative = pathFor(i, spec);
+            Path file = root.resolve(relative);
+            Files.createDirectories(file.getParent());
+            writeText(file, sizeFor(random, spec), random);
+            created.add(relative);
+        }
+        return created;
+    }
+
+    // File i goes into the directory named by its low base-`fanout` digits,
+    // which spreads files evenly over every directory at the deepest level
+    static Path pathFor(int i, Spec spec) {
+        StringBuilder path = new StringBuilder();
+        int rest = i;
+        for (int level = 0; level < spec.depth(); level++) {
+            path.append("d").append(rest % spec.fanout()).append("/");
+            rest /= spec.fanout();
+        }
+        return Paths.get(path.append("file").append(i).append(".txt").toString());
+    }
+
+    private static int sizeFor(Random random, Spec spec) {
+        double size = spec.medianSize() * Math.exp(random.nextGaussian());
+        return (int) Math.min(size, spec.medianSize() * 64L);
+    }
+
+    // Lines of random words, so diffs and merges see realistic text
+    public static void writeText(Path file, int size, Random random) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            int written = 0;
+            while (written < size) {
+                StringBuilder line = new StringBuilder();
+                int words = 3 + random.nextInt(8);
+                for (int w = 0; w < words; w++) {
+                    if (w > 0) line.append(' ');
+                    line.append(WORDS[random.nextInt(WORDS.length)]);
+                }
+                line.append('\n');
+                out.write(line.toString());
+                written += line.length();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: RepoGenerator <dir> [--files=N] [--depth=N] [--fanout=N] [--size=BYTES] [--seed=N]");
+            return;
+        }
+        int files = 10_000;
+        int depth = 4;
+        int fanout = 8;
+        int size = 4096;
+        long seed = 42;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--files=")) files = Integer.parseInt(value);
+            else if (arg.startsWith("--depth=")) depth = Integer.parseInt(value);
+            else if (arg.startsWith("--fanout=")) fanout = Integer.parseInt(value);
+            else if (arg.startsWith("--size=")) size = Integer.parseInt(value);
+            else if (arg.startsWith("--seed=")) seed = Long.parseLong(value);
+        }
+
+        Path root = Paths.get(args[0]);
+        generate(root, new Spec(files, depth, fanout, size, seed));
+        System.out.println("Generated " + files + " files under " + root);
+    }
+}
@@ -0,0 +1,102 @@
+package bit.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Wall-clock time of one `bit status` process in a small repository, which is
+// almost all JVM startup:
+//   plain  - java -jar bit.jar
+//   cds    - the same with the AppCDS archive built by `mvn package`
+//   daemon - the client forwarding to a running `bit daemon`
+// The jar and archive default to the ones under bit/target; run from the
+// repository root or set -Dbit.jar and -Dbit.archive (e.g. via -jvmArgs).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StartupBenchmark {
+
+    @Param({"plain", "cds", "daemon"})
+    public String launch;
+
+    private Path jar;
+    private Path archive;
+    private Path repo;
+    private Process daemon;
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException, InterruptedException {
+        jar = Paths.get(System.getProperty("bit.jar", "bit/target/bit-1.0-SNAPSHOT.jar")).toAbsolutePath();
+        archive = Paths.get(System.getProperty("bit.archive", "bit/target/bit.jsa")).toAbsolutePath();
+        if (!Files.exists(jar) || (launch.equals("cds") && !Files.exists(archive))) {
+            throw new IllegalStateException("Build bit first (mvn package): " + jar);
+        }
+
+        repo = Files.createTempDirectory("bit-startup-");
+        RepoGenerator.generate(repo, RepoGenerator.Spec.of(100, 2, 1024));
+        run("init");
+        run("add", ".");
+        run("commit", "initial");
+
+        if (launch.equals("daemon")) {
+            daemon = new ProcessBuilder(command("daemon")).directory(repo.toFile())
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            Path socket = repo.resolve(".bit/daemon.sock");
+            for (int i = 0; i < 100 && !Files.exists(socket); i++) {
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException, InterruptedException {
+        if (daemon != null) {
+            run("daemon", "stop");
+            daemon.waitFor(5, TimeUnit.SECONDS);
+            daemon.destroy();
+        }
+        try (Stream<Path> walk = Files.walk(repo)) {
+            for (Path path : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public int status() throws IOException, InterruptedException {
+        return run("status");
+    }
+
+    private int run(String... args) throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(command(args)).directory(repo.toFile())
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD);
+        if (!launch.equals("daemon")) builder.environment().put("BIT_NO_DAEMON", "1");
+        return builder.start().waitFor();
+    }
+
+    private List<String> command(String... args) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (launch.equals("cds")) {
+            command.add("-XX:SharedArchiveFile=" + archive);
+            command.add("-Xlog:cds=off");
+            command.add("-Xlog:cds+dynamic=off");
+        }
+        command.add("-jar");
+        command.add(jar.toString());
+        command.addAll(List.of(args));
+        return command;
+    }
+}
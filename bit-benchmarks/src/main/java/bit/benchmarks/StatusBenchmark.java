@@ -0,0 +1,53 @@
+package bit.benchmarks;
+
+import bit.utils.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The two halves of `bit status` on a clean synthetic tree: the staged diff of
+// the index against HEAD, and the full working-tree scan that compares every
+// file with its index entry (stat data first, hashing only on a mismatch).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatusBenchmark {
+
+    @Benchmark
+    public List<TreeDiff.Change> stagedWithCacheTree(SyntheticRepo repo) throws IOException {
+        return TreeBuilder.diffIndex(repo.store, Index.load(repo.indexPath), repo.headTree);
+    }
+
+    @Benchmark
+    public List<TreeDiff.Change> stagedWithoutCacheTree(SyntheticRepo repo) throws IOException {
+        return TreeBuilder.diffIndex(repo.store, Index.load(repo.plainIndexPath), repo.headTree);
+    }
+
+    @Benchmark
+    public List<String> scanWorkTree(SyntheticRepo repo) throws IOException {
+        Index index = Index.load(repo.indexPath);
+        List<String> files = new ArrayList<>();
+        WorkTree.walk(repo.work, IgnoreRules.NONE, file -> files.add(Index.toIndexPath(file)));
+
+        List<String> modified = new ArrayList<>();
+        for (String path : files) {
+            Index.Entry entry = index.get(path);
+            if (entry == null) {
+                modified.add(path);
+                continue;
+            }
+            FileStat stat = FileStat.of(Paths.get(path));
+            if (!index.isUpToDate(entry, stat) && !entry.id().equals(FileHasher.hashFile(Paths.get(path)))) {
+                modified.add(path);
+            }
+        }
+        return modified;
+    }
+}
@@ -0,0 +1,97 @@
+package bit.benchmarks;
+
+import bit.utils.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// A generated repository shared by the benchmarks: a working tree under
+// <base>/work, every file staged into <base>/.bit and committed once.
+//
+// Bit works with paths relative to the current directory, so <base> is a temp
+// directory relative to where the benchmarks run, and index paths look like
+// "bit-bench-123/work/d0/d1/file9.txt".
+@State(Scope.Benchmark)
+public class SyntheticRepo {
+
+    @Param({"1000", "10000"})
+    public int files;
+
+    @Param({"4"})
+    public int depth;
+
+    @Param({"4096"})
+    public int medianSize;
+
+    public Path base;
+    public Path work;
+    public Path bitDir;
+    public ObjectStore store;
+    public Refs refs;
+
+    // The staged index with its cache-tree, and a copy saved before any tree was built
+    public Path indexPath;
+    public Path plainIndexPath;
+
+    public List<String> paths;
+    public String headTree;
+    public String headCommit;
+
+    @Setup(Level.Trial)
+    public void create() throws IOException {
+        base = Files.createTempDirectory(Paths.get(""), "bit-bench-");
+        work = base.resolve("work");
+        bitDir = base.resolve(".bit");
+        Files.createDirectories(bitDir.resolve("refs/heads"));
+
+        paths = new ArrayList<>(files);
+        for (Path file : RepoGenerator.generate(work, RepoGenerator.Spec.of(files, depth, medianSize))) {
+            paths.add(Index.toIndexPath(work.resolve(file)));
+        }
+
+        store = new ObjectStore(bitDir.resolve("objects"));
+        refs = new Refs(bitDir);
+        indexPath = bitDir.resolve("index");
+        plainIndexPath = bitDir.resolve("index.plain");
+
+        Index index = Index.load(indexPath);
+        stage(store, index, work);
+        index.save();
+        Files.copy(indexPath, plainIndexPath);
+
+        headTree = TreeBuilder.write(store, index);
+        index.save();
+        headCommit = Commit.create(List.of(), headTree, "initial").write(store);
+        refs.update(Refs.DEFAULT_BRANCH, headCommit, "commit (initial): initial");
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        store.closePacks();
+        try (Stream<Path> walk = Files.walk(base)) {
+            for (Path path : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    // What `bit add <dir>` does: hash every file on the pipeline, store new
+    // blobs and record the entries
+    public static void stage(ObjectStore store, Index index, Path dir) throws IOException {
+        List<Index.Entry> staged = new ArrayList<>();
+        new HashPipeline(HashPipeline.defaultJobs(), index).run(
+                out -> WorkTree.walk(dir, IgnoreRules.NONE, out),
+                (file, entry) -> {
+                    store.writeBlob(file, entry.id());
+                    staged.add(entry);
+                });
+        for (Index.Entry entry : staged) {
+            index.put(entry);
+        }
+    }
+}
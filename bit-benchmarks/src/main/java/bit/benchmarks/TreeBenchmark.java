@@ -0,0 +1,69 @@
+package bit.benchmarks;
+
+import bit.utils.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+// Tree objects on the synthetic repo: reading a commit's whole tree with a
+// warm object cache and without, building trees from the index with and
+// without the cache-tree, and diffing two trees that differ in one percent of
+// their files.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeBenchmark {
+
+    private String changedTree;
+    private Index.Entry changedEntry;
+
+    @Setup(Level.Trial)
+    public void prepare(SyntheticRepo repo) throws IOException {
+        Index index = Index.load(repo.indexPath);
+        List<Index.Entry> entries = index.entries();
+        String otherBlob = repo.store.write(ObjectStore.BLOB, "changed\n".getBytes());
+        for (int i = 0; i < entries.size(); i += 100) {
+            Index.Entry entry = entries.get(i);
+            index.put(new Index.Entry(entry.path(), otherBlob, entry.stat()));
+        }
+        changedTree = TreeBuilder.write(repo.store, index);
+
+        Index.Entry last = entries.get(entries.size() - 1);
+        changedEntry = new Index.Entry(last.path(), otherBlob, last.stat());
+    }
+
+    // Every tree after the first run comes from the store's object cache
+    @Benchmark
+    public SortedMap<String, String> readTree(SyntheticRepo repo) throws IOException {
+        return Tree.flatten(repo.store, repo.headTree);
+    }
+
+    // A new store per call starts with an empty cache, like a one-shot command
+    @Benchmark
+    public SortedMap<String, String> readTreeUncached(SyntheticRepo repo) throws IOException {
+        return Tree.flatten(new ObjectStore(repo.bitDir.resolve("objects")), repo.headTree);
+    }
+
+    @Benchmark
+    public String writeAllTrees(SyntheticRepo repo) throws IOException {
+        return TreeBuilder.write(repo.store, Index.load(repo.plainIndexPath));
+    }
+
+    @Benchmark
+    public String writeAfterOneChange(SyntheticRepo repo) throws IOException {
+        Index index = Index.load(repo.indexPath);
+        index.put(changedEntry);
+        return TreeBuilder.write(repo.store, index);
+    }
+
+    @Benchmark
+    public List<TreeDiff.Change> diffTrees(SyntheticRepo repo) throws IOException {
+        return TreeDiff.diff(repo.store, repo.headTree, changedTree);
+    }
+}
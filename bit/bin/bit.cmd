@@ -0,0 +1,15 @@
+@echo off
+rem Launcher for the bit CLI that starts the JVM from the AppCDS archive that
+rem `mvn package` writes next to the jar (target\bit.jsa). Set BIT_JAR to run
+rem a jar from somewhere else; without an archive this run records one.
+setlocal
+if "%BIT_JAR%"=="" set "BIT_JAR=%~dp0..\target\bit-1.0-SNAPSHOT.jar"
+for %%J in ("%BIT_JAR%") do set "ARCHIVE=%%~dpJbit.jsa"
+
+if exist "%ARCHIVE%" (
+    set "CDS=-XX:SharedArchiveFile=%ARCHIVE%"
+) else (
+    set "CDS=-XX:ArchiveClassesAtExit=%ARCHIVE%"
+)
+
+java %CDS% -Xshare:auto -Xlog:cds=off -Xlog:cds+dynamic=off %JAVA_OPTS% -jar "%BIT_JAR%" %*
@@ -1,20 +1,33 @@
 package bit;
 
 import bit.commands.*;
+import bit.utils.Daemon;
+import bit.utils.Events;
+import bit.utils.Metrics;
 import java.util.*;
+import java.util.function.Supplier;
 
 public class Bit {
-    private static final Map<String, RunnableCommand> commands = Map.ofEntries(
-        Map.entry("init", new InitCommand()),
-        Map.entry("add", new AddCommand()),
-        Map.entry("commit", new CommitCommand()),
-        Map.entry("status", new StatusCommand()),
-        Map.entry("remote", new RemoteCommand()),
-        Map.entry("push", new PushCommand()),
-        Map.entry("merge", new MergeCommand()),
-        Map.entry("undo", new UndoCommand()),
-        Map.entry("pull", new PullCommand()
-)
+    // Each command is only constructed, and its classes only loaded, when it is
+    // run: `bit status` never touches the HTTP client or the JSON library
+    private static final Map<String, Supplier<RunnableCommand>> commands = Map.ofEntries(
+        Map.entry("init", () -> new InitCommand()),
+        Map.entry("add", () -> new AddCommand()),
+        Map.entry("commit", () -> new CommitCommand()),
+        Map.entry("status", () -> new StatusCommand()),
+        Map.entry("diff", () -> new DiffCommand()),
+        Map.entry("log", () -> new LogCommand()),
+        Map.entry("remote", () -> new RemoteCommand()),
+        Map.entry("push", () -> new PushCommand()),
+        Map.entry("merge", () -> new MergeCommand()),
+        Map.entry("switch", () -> new CheckoutCommand()),
+        Map.entry("checkout", () -> new CheckoutCommand()),
+        Map.entry("undo", () -> new UndoCommand()),
+        Map.entry("repack", () -> new RepackCommand()),
+        Map.entry("gc", () -> new GcCommand()),
+        Map.entry("watch", () -> new WatchCommand()),
+        Map.entry("pull", () -> new PullCommand()),
+        Map.entry("daemon", () -> new DaemonCommand(Bit::run, Bit::isReadOnly))
     );
 
     private static final Map<String, String> aliases = Map.ofEntries(
@@ -26,19 +39,60 @@ public class Bit {
         Map.entry("revert", "undo")
     );
 
+    // Commands that only read the repository; the daemon runs these side by side
+    private static final Set<String> readOnly = Set.of("status", "diff", "log");
+
+    // Never forwarded to a daemon: they manage it, run forever or create the repository
+    private static final Set<String> local = Set.of("daemon", "watch", "init");
+
     public static void main(String[] args) {
+        if (args.length > 0 && !local.contains(aliases.getOrDefault(args[0], args[0])) && Daemon.forward(args)) {
+            return;
+        }
+        run(args);
+    }
+
+    public static void run(String[] args) {
         if (args.length == 0) {
             System.out.println("Usage: bit <command> [args]");
             return;
         }
 
         String command = aliases.getOrDefault(args[0], args[0]);
-        RunnableCommand runnable = commands.get(command);
-
-        if (runnable != null) {
- runnable.run(Arrays.copyOfRange(args, 1, args.length));
-        } else {
+        Supplier<RunnableCommand> factory = commands.get(command);
+        if (factory == null) {
             System.out.println("❌ Unknown command: " + args[0]);
+            return;
+        }
+
+        // --stats (or --stats=json) works with every command and prints its
+        // counters and phase timings to stderr once it finishes
+        List<String> rest = new ArrayList<>();
+        String stats = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--stats") || args[i].equals("--stats=json")) {
+                stats = args[i];
+            } else {
+                rest.add(args[i]);
+            }
         }
+
+        Metrics metrics = Metrics.begin(command);
+        Events.Command event = new Events.Command();
+        event.begin();
+        try {
+            factory.get().run(rest.toArray(new String[0]));
+        } finally {
+            event.name = command;
+            event.commit();
+            Metrics.end();
+            if (stats != null) {
+                System.err.println(metrics.report(stats.equals("--stats=json")));
+            }
+        }
+    }
+
+    private static boolean isReadOnly(String[] args) {
+        return args.length > 0 && readOnly.contains(aliases.getOrDefault(args[0], args[0]));
     }
 }
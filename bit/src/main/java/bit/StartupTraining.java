@@ -0,0 +1,58 @@
+package bit;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// Training run for the AppCDS archive built by `mvn package`. It runs the
+// everyday commands once, in-process, in a scratch repository in the current
+// directory (target/cds-training), so the JVM can record every class they
+// load in target/bit.jsa. Commands started through bin/bit then map those
+// classes from the archive instead of loading and verifying them again.
+public class StartupTraining {
+
+    private static final String DIRECTORY = "cds-training";
+
+    public static void main(String[] args) throws IOException {
+        Path here = Paths.get("").toAbsolutePath();
+        if (!here.getFileName().toString().equals(DIRECTORY)) {
+            System.out.println("❌ Run the training from a directory named " + DIRECTORY + ".");
+            return;
+        }
+        clear(here); // left over from the previous build
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream(), true));
+        try {
+            Files.createDirectories(Paths.get("src/main"));
+            Files.writeString(Paths.get("src/main/App.java"), "class App {}\n");
+            Files.writeString(Paths.get("README.md"), "# training\n");
+            Files.writeString(Paths.get(".bitignore"), "*.log\nbuild/\n");
+
+            Bit.run(new String[] {"init"});
+            Bit.run(new String[] {"add", "."});
+            Bit.run(new String[] {"commit", "first"});
+            Files.writeString(Paths.get("README.md"), "# training\nmore\n");
+            Bit.run(new String[] {"status"});
+            Bit.run(new String[] {"add", "README.md"});
+            Bit.run(new String[] {"commit", "second"});
+            Bit.run(new String[] {"status"});
+            Bit.run(new String[] {"undo", "commit"});
+            Bit.run(new String[] {"repack"});
+        } finally {
+            System.setOut(console);
+        }
+        console.println("✅ Startup training finished.");
+    }
+
+    private static void clear(Path dir) throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                if (!path.equals(dir)) Files.delete(path);
+            }
+        }
+    }
+}
@@ -2,108 +2,87 @@ package bit.commands;
 
 import java.io.*;
 import java.nio.file.*;
-import java.security.*;
 import java.util.*;
-import java.util.stream.Collectors;
 
-public class AddCommand implements RunnableCommand {
+import bit.utils.HashPipeline;
+import bit.utils.IgnoreRules;
+import bit.utils.Index;
+import bit.utils.ObjectStore;
+import bit.utils.WorkTree;
 
-    private Set<PathMatcher> ignoreMatchers;
+public class AddCommand implements RunnableCommand {
 
     @Override
     public void run(String[] args) {
         try {
-            loadIgnorePatterns();
-
-            List<Path> filesToAdd = new ArrayList<>();
-
-            if (args.length == 0 || (args.length == 1 && args[0].equals("."))) {
-                // Add all files recursively
-                Files.walk(Paths.get("."))
-                        .filter(Files::isRegularFile)
-                        .filter(path -> !isIgnored(path))
-                        .filter(path -> !path.startsWith(".bit")) // Don't add internal files
-                        .forEach(filesToAdd::add);
-            } else {
-                // Add specific files
-                for (String fileArg : args) {
-                    Path path = Paths.get(fileArg);
-                    if (Files.isRegularFile(path) && !isIgnored(path)) {
-                        filesToAdd.add(path);
-                    }
+            IgnoreRules ignore = IgnoreRules.load();
+
+            int jobs = HashPipeline.defaultJobs();
+            List<String> targets = new ArrayList<>();
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].startsWith("--jobs=")) {
+                    jobs = Integer.parseInt(args[i].substring("--jobs=".length()));
+                } else if (args[i].equals("--jobs") && i + 1 < args.length) {
+                    jobs = Integer.parseInt(args[++i]);
+                } else {
+                    targets.add(args[i]);
                 }
             }
 
             // Prepare .bit structure
-            Files.createDirectories(Paths.get(".bit/objects"));
-            Path indexPath = Paths.get(".bit/index");
-            if (!Files.exists(indexPath)) {
-                Files.createFile(indexPath);
-            }
-
-            try (BufferedWriter indexWriter = Files.newBufferedWriter(indexPath, StandardOpenOption.APPEND)) {
-                for (Path file : filesToAdd) {
-                    byte[] content = Files.readAllBytes(file);
-                    String hash = hash(content);
-
-                    Path objectPath = Paths.get(".bit/objects", hash);
-                    Files.write(objectPath, content); // Save object file
+            ObjectStore store = ObjectStore.open();
+            Index index = Index.load();
+            List<Index.Entry> staged = new ArrayList<>();
+
+            HashPipeline pipeline = new HashPipeline(jobs, index);
+            pipeline.run(out -> {
+                if (targets.isEmpty() || (targets.size() == 1 && targets.get(0).equals("."))) {
+                    // Add all files recursively, skipping ignored directories entirely
+                    WorkTree.walk(Paths.get("."), ignore, out);
+                } else {
+                    // Add specific files or directories
+                    for (String fileArg : targets) {
+                        WorkTree.walk(Paths.get(fileArg), ignore, out);
+                    }
+                }
+            }, (file, entry) -> {
+                store.writeBlob(file, entry.id()); // Save object file unless it already exists
 
-                    String filePath = file.toString().replace("\\", "/"); // Normalize path
+                staged.add(entry);
+                System.out.println("➕ Staged: " + entry.path());
+            });
 
-                    indexWriter.write(hash + " " + filePath);
-                    indexWriter.newLine();
+            for (Index.Entry entry : staged) {
+                index.put(entry);
+            }
 
-                    System.out.println("➕ Staged: " + filePath);
+            // Tracked files under the targets that no longer exist are staged as deletions
+            List<String> removed = new ArrayList<>();
+            for (Index.Entry entry : index.entries()) {
+                if (isUnder(entry.path(), targets) && !Files.exists(Paths.get(entry.path()), LinkOption.NOFOLLOW_LINKS)) {
+                    removed.add(entry.path());
                 }
             }
-
-        } catch (IOException e) {
-            System.out.println("❌ Error while adding files: " + e.getMessage());
-        }
-    }
-
-    private String hash(byte[] content) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-1");
-            byte[] hashed = digest.digest(content);
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hashed) {
-                sb.append(String.format("%02x", b));
+            for (String path : removed) {
+                index.remove(path);
+                System.out.println("➖ Removed: " + path);
             }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-1 not available");
-        }
-    }
-
-    private void loadIgnorePatterns() {
-        ignoreMatchers = new HashSet<>();
-        Path ignorePath = Paths.get(".bitignore");
+            index.save();
 
-        if (!Files.exists(ignorePath)) return;
-
-        try {
-            List<String> patterns = Files.readAllLines(ignorePath).stream()
-                    .map(String::trim)
-                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
-                    .collect(Collectors.toList());
-
-            for (String pattern : patterns) {
-                String glob = "glob:" + pattern;
-                ignoreMatchers.add(FileSystems.getDefault().getPathMatcher(glob));
-            }
+        } catch (NumberFormatException e) {
+            System.out.println("❌ Invalid --jobs value: " + e.getMessage());
+        } catch (IllegalStateException e) {
+            System.out.println("❌ " + e.getMessage());
         } catch (IOException e) {
-            System.out.println("⚠️ Failed to read .bitignore: " + e.getMessage());
+            System.out.println("❌ Error while adding files: " + e.getMessage());
         }
     }
 
-    private boolean isIgnored(Path path) {
-        Path relativePath = Paths.get("").toAbsolutePath().relativize(path.toAbsolutePath());
-        for (PathMatcher matcher : ignoreMatchers) {
-            if (matcher.matches(relativePath)) {
-                return true;
-            }
+    private static boolean isUnder(String path, List<String> targets) {
+        if (targets.isEmpty()) return true;
+        for (String target : targets) {
+            String prefix = Index.toIndexPath(Paths.get(target));
+            if (prefix.isEmpty() || path.equals(prefix) || path.startsWith(prefix + "/")) return true;
         }
         return false;
     }
@@ -0,0 +1,256 @@
+package bit.commands;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import bit.utils.Commit;
+import bit.utils.FileHasher;
+import bit.utils.FileStat;
+import bit.utils.HashPipeline;
+import bit.utils.Index;
+import bit.utils.Metrics;
+import bit.utils.ObjectStore;
+import bit.utils.Refs;
+import bit.utils.Revisions;
+import bit.utils.TreeBuilder;
+import bit.utils.TreeDiff;
+import bit.utils.WorkTree;
+
+// bit switch <branch>
+// bit switch -c <new branch> [<start>]      (bit checkout [-b] works the same)
+//
+// Makes a branch the current one and brings the index and working tree to
+// its commit. Only paths whose blob differs between the current commit and
+// the target are touched: TreeDiff skips identical subtrees unread, so
+// switching between branches of a huge tree costs only what differs. Local
+// changes on any of those paths stop the switch before anything is written;
+// changes elsewhere are carried over, as in Git.
+//
+// The new files are first streamed out of the object store into temp files
+// under .bit, in parallel, created with the permissions their tree mode asks
+// for. Only when all of them exist are they renamed into
+// place, then the index is saved and HEAD moved last, so a failure while
+// reading objects leaves the working tree, index and HEAD as they were.
+public class CheckoutCommand implements RunnableCommand {
+
+    private final ObjectStore store = ObjectStore.open();
+    private final Refs refs = Refs.open();
+
+    @Override
+    public void run(String[] args) {
+        boolean create = false;
+        List<String> names = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("-c") || arg.equals("--create") || arg.equals("-b")) {
+                create = true;
+            } else {
+                names.add(arg);
+            }
+        }
+        if (names.isEmpty() || names.size() > (create ? 2 : 1)) {
+            System.out.println("Usage: bit switch [-c] <branch> [<start>]");
+            return;
+        }
+        String branch = names.get(0);
+
+        ExecutorService pool = Executors.newFixedThreadPool(HashPipeline.defaultJobs());
+        try {
+            if (refs.mergeHead() != null) {
+                System.out.println("❌ A merge is in progress. Finish it with `bit stage` and `bit save` first.");
+                return;
+            }
+
+            // Step 1: Work out the commit to switch to
+            String current = refs.head();
+            String target;
+            if (create) {
+                if (!isValidBranchName(branch)) {
+                    System.out.println("❌ Invalid branch name: " + branch);
+                    return;
+                }
+                if (refs.branchExists(branch)) {
+                    System.out.println("❌ Branch '" + branch + "' already exists.");
+                    return;
+                }
+                String start = names.size() > 1 ? names.get(1) : "HEAD";
+                target = Revisions.resolve(refs, store, start);
+                if (target == null && !(start.equals("HEAD") && current == null)) {
+                    System.out.println("❌ Unknown revision: " + start);
+                    return;
+                }
+            } else {
+                if (!refs.branchExists(branch)) {
+                    System.out.println("❌ Branch '" + branch + "' does not exist. Use `bit switch -c " + branch + "` to create it.");
+                    return;
+                }
+                if (branch.equals(refs.currentBranch())) {
+                    System.out.println("✅ Already on '" + branch + "'.");
+                    return;
+                }
+                target = refs.resolve(branch);
+            }
+
+            // Step 2: Find the files that differ between the two commits
+            List<TreeDiff.Change> changes = target == null ? List.of()
+                    : TreeDiff.diff(store, Commit.treeOf(store, current), Commit.treeOf(store, target));
+            Index index = Index.load();
+
+            // Step 3: Refuse if that would lose local changes
+            List<String> dirty = blocked(pool, index, changes);
+            if (!dirty.isEmpty()) {
+                System.out.println("❌ Your local changes would be overwritten by switching to '" + branch + "':");
+                dirty.forEach(path -> System.out.println("   ~ " + path));
+                System.out.println("Save or undo them first.");
+                return;
+            }
+
+            // Step 4: Write the new content aside, then move everything into place
+            Map<String, Path> written = prepare(pool, changes);
+            Map<String, TreeDiff.Change> byPath = TreeDiff.byPath(changes);
+            int removed = 0;
+            for (TreeDiff.Change change : changes) {
+                if (change.newId() == null) {
+                    Path file = Paths.get(change.path());
+                    if (Files.deleteIfExists(file)) removed++;
+                    removeEmptyParents(file);
+                    index.remove(change.path());
+                }
+            }
+            for (Map.Entry<String, Path> file : written.entrySet()) {
+                Path path = Paths.get(file.getKey());
+                Path parent = path.toAbsolutePath().getParent();
+                Files.createDirectories(parent);
+                Files.move(file.getValue(), path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                index.put(new Index.Entry(file.getKey(), byPath.get(file.getKey()).newId(), FileStat.of(path)));
+            }
+            Metrics.count("checkout.files.written", written.size());
+            Metrics.count("checkout.files.removed", removed);
+
+            // Step 5: Index, then HEAD
+            if (create && target != null) {
+                refs.update(branch, target, "branch: Created from " + (names.size() > 1 ? names.get(1) : "HEAD"));
+            }
+            TreeBuilder.write(store, index);
+            index.save();
+            refs.setHead(branch);
+
+            System.out.println("✅ Switched to " + (create ? "a new " : "") + "branch '" + branch + "' ("
+                    + written.size() + " files written, " + removed + " removed).");
+        } catch (IOException e) {
+            System.out.println("❌ Switch failed: " + e.getMessage());
+        } catch (ExecutionException e) {
+            System.out.println("❌ Switch failed: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Switch interrupted.");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Paths whose staged or working copy matches neither side of the change
+    private static List<String> blocked(ExecutorService pool, Index index, List<TreeDiff.Change> changes)
+            throws InterruptedException, ExecutionException {
+        Set<String> removals = new HashSet<>();
+        for (TreeDiff.Change change : changes) {
+            if (change.newId() == null) removals.add(change.path());
+        }
+        List<Future<Boolean>> checks = new ArrayList<>();
+        for (TreeDiff.Change change : changes) {
+            checks.add(pool.submit(() -> canReplace(index, change, removals)));
+        }
+        List<String> dirty = new ArrayList<>();
+        for (int i = 0; i < changes.size(); i++) {
+            if (!checks.get(i).get()) dirty.add(changes.get(i).path());
+        }
+        return dirty;
+    }
+
+    private static boolean canReplace(Index index, TreeDiff.Change change, Set<String> removals) throws IOException {
+        Index.Entry entry = index.get(change.path());
+        String staged = entry != null ? entry.id() : null;
+        if (!Objects.equals(staged, change.oldId()) && !Objects.equals(staged, change.newId())) {
+            return false; // a staged change
+        }
+
+        Path file = Paths.get(change.path());
+        if (!Files.exists(file, LinkOption.NOFOLLOW_LINKS)) return true;
+        if (Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+            return isRemovedEntirely(file, removals); // a directory becoming a file
+        }
+        if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) return false;
+        if (entry != null && index.isUpToDate(entry, FileStat.of(file))) return true;
+        String id = FileHasher.hashFile(file);
+        return id.equals(change.oldId()) || id.equals(change.newId());
+    }
+
+    // True if the switch removes every file in the directory, leaving nothing
+    // untracked behind
+    private static boolean isRemovedEntirely(Path dir, Set<String> removals) throws IOException {
+        try (var files = Files.walk(dir)) {
+            return files.filter(path -> !Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+                        .allMatch(path -> removals.contains(Index.toIndexPath(path)));
+        }
+    }
+
+    // Streams every added or modified file into a temp file, in parallel.
+    // Returns path -> temp file; if any object can't be read, none are kept.
+    private Map<String, Path> prepare(ExecutorService pool, List<TreeDiff.Change> changes)
+            throws IOException, InterruptedException, ExecutionException {
+        Map<String, Future<Path>> pending = new TreeMap<>();
+        for (TreeDiff.Change change : changes) {
+            if (change.newId() != null) {
+                pending.put(change.path(), pool.submit(() -> extract(change.newId(), change.newMode())));
+            }
+        }
+
+        Map<String, Path> written = new TreeMap<>();
+        ExecutionException failure = null;
+        for (Map.Entry<String, Future<Path>> file : pending.entrySet()) {
+            try {
+                written.put(file.getKey(), file.getValue().get());
+            } catch (ExecutionException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) {
+            for (Path temp : written.values()) {
+                Files.deleteIfExists(temp);
+            }
+            throw failure;
+        }
+        return written;
+    }
+
+    private Path extract(String id, int mode) throws IOException {
+        Path temp = WorkTree.createTemp(Paths.get(".bit"), "checkout-", mode);
+        try (InputStream in = store.open(id); OutputStream out = Files.newOutputStream(temp)) {
+            in.transferTo(out);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    // Deletes directories the removal left empty, up to the repository root
+    private static void removeEmptyParents(Path file) throws IOException {
+        Path dir = file.getParent();
+        while (dir != null) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                if (entries.iterator().hasNext()) return;
+            } catch (NoSuchFileException e) {
+                // Already gone
+            }
+            Files.deleteIfExists(dir);
+            dir = dir.getParent();
+        }
+    }
+
+    private static boolean isValidBranchName(String name) {
+        return name.matches("[A-Za-z0-9._/-]+") && !name.startsWith("-") && !name.startsWith("/")
+                && !name.endsWith("/") && !name.contains("..") && !name.contains("//");
+    }
+}
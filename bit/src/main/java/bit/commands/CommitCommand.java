@@ -1,8 +1,14 @@
 package bit.commands;
 
 import java.io.IOException;
-import java.nio.file.*;
-import java.time.Instant;
+import java.util.*;
+
+import bit.utils.Commit;
+import bit.utils.History;
+import bit.utils.Index;
+import bit.utils.ObjectStore;
+import bit.utils.Refs;
+import bit.utils.TreeBuilder;
 
 public class CommitCommand implements RunnableCommand {
     public void run(String[] args) {
@@ -12,14 +18,32 @@ public class CommitCommand implements RunnableCommand {
         }
 
         try {
-            String index = Files.readString(Paths.get(".bit/index"));
-            String commit = "tree:\n" + index +
-                            "message: " + args[0] + "\n" +
-                            "time: " + Instant.now() + "\n";
+            // The current head is the parent; a merge with resolved conflicts
+            // also records the branch that was merged in
+            Refs refs = Refs.open();
+            String branch = refs.currentBranch();
+            List<String> parents = new ArrayList<>();
+            String head = refs.head();
+            if (head != null) parents.add(head);
+            String mergeHead = refs.mergeHead();
+            if (mergeHead != null) parents.add(mergeHead);
+
+            // Only the trees of directories staged since the last commit are
+            // written; the rest come straight from the index's cache-tree
+            ObjectStore store = ObjectStore.open();
+            Index index = Index.load();
+            String tree = TreeBuilder.write(store, index);
+            index.save();
+
+            if (mergeHead == null && tree.equals(Commit.treeOf(store, head))) {
+                System.out.println("✅ Nothing to save, the staged files match the last commit.");
+                return;
+            }
 
-            String commitId = Integer.toHexString(commit.hashCode());
-            Files.writeString(Paths.get(".bit/objects/" + commitId), commit);
-            Files.writeString(Paths.get(".bit/refs/heads/main"), commitId);
+            String commitId = Commit.create(parents, tree, args[0]).write(store);
+            refs.update(branch, commitId, (mergeHead != null ? "commit (merge): " : "commit: ") + args[0]);
+            refs.clearMergeHead();
+            History.open(store).record(List.of(commitId));
             System.out.println("Commit saved with id: " + commitId);
         } catch (IOException e) {
             System.out.println("Commit failed: " + e.getMessage());
@@ -0,0 +1,227 @@
+package bit.commands;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import bit.utils.Daemon;
+import bit.utils.ObjectCache;
+import bit.utils.ObjectStore;
+import bit.utils.ThreadOutput;
+
+// `bit daemon` keeps one warm JVM per repository. While it runs, every other
+// bit command started in the repository is forwarded to it over
+// .bit/daemon.sock and its output streamed back, so nothing pays for JVM
+// startup, class loading or a cold JIT.
+//
+// Between requests the daemon keeps the object store (with its packs open),
+// the loaded index and the parsed ignore rules and settings. Each of those is
+// checked against the file's stat data on use, so edits made by anything else
+// are picked up. Read-only commands run side by side; commands that change
+// the repository run one at a time. A command whose client hangs up (say,
+// on Ctrl-C) is interrupted, as it would have been killed with the client.
+public class DaemonCommand implements RunnableCommand {
+    private final Consumer<String[]> dispatcher;
+    private final Predicate<String[]> readOnly;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong served = new AtomicLong();
+    private volatile ServerSocketChannel server;
+
+    public DaemonCommand(Consumer<String[]> dispatcher, Predicate<String[]> readOnly) {
+        this.dispatcher = dispatcher;
+        this.readOnly = readOnly;
+    }
+
+    @Override
+    public void run(String[] args) {
+        String action = args.length > 0 ? args[0] : "start";
+        switch (action) {
+            case "start":
+                serve();
+                break;
+            case "stop":
+            case "status":
+                ask(action);
+                break;
+            default:
+                System.out.println("❌ Usage: bit daemon [start|stop|status]");
+        }
+    }
+
+    private void serve() {
+        if (!Files.isDirectory(Paths.get(".bit"))) {
+            System.out.println("❌ Not a bit repository. Run `bit init` first.");
+            return;
+        }
+
+        ExecutorService pool = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "bit-daemon-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        boolean bound = false;
+        try (ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            // Step 1: Take over the socket unless a live daemon already owns it
+            if (Daemon.isRunning()) {
+                System.out.println("⚠️ A bit daemon is already running for this repository.");
+                return;
+            }
+            Files.deleteIfExists(Daemon.SOCKET); // left behind by a daemon that died
+            channel.bind(UnixDomainSocketAddress.of(Daemon.SOCKET));
+            bound = true;
+            server = channel;
+            Runtime.getRuntime().addShutdownHook(new Thread(DaemonCommand::deleteSocket));
+
+            // Step 2: Share long-lived state and route output per client
+            ThreadOutput.install();
+            ObjectStore.share();
+            System.out.println("🛰️ Bit daemon listening on " + Daemon.SOCKET + " (stop it with `bit daemon stop`)");
+
+            // Step 3: Serve each client on its own thread until stopped
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = channel.accept();
+                } catch (ClosedChannelException e) {
+                    break;
+                }
+                pool.execute(() -> handle(client, pool));
+            }
+        } catch (IOException e) {
+            System.out.println("❌ Daemon error: " + e.getMessage());
+        } finally {
+            pool.shutdown();
+            if (bound) deleteSocket(); // never the socket of the daemon that is already running
+        }
+    }
+
+    private void handle(SocketChannel client, ExecutorService pool) {
+        OutputStream socket = Channels.newOutputStream(client);
+        try (client;
+             PrintStream out = new PrintStream(Daemon.frames(socket, Daemon.STDOUT), true, Charset.defaultCharset());
+             PrintStream err = new PrintStream(Daemon.frames(socket, Daemon.STDERR), true, Charset.defaultCharset())) {
+            Daemon.Request request = Daemon.receive(Channels.newInputStream(client));
+            String[] args = request.args();
+            ThreadOutput.redirect(out, err);
+            Daemon.useEnvironment(request.environment());
+            HangUp hangUp = new HangUp(Thread.currentThread());
+            pool.execute(() -> hangUp.await(client));
+            try {
+                if (args.length > 0 && args[0].equals("daemon")) {
+                    control(args);
+                } else {
+                    execute(args);
+                }
+            } finally {
+                hangUp.finish();
+                ThreadOutput.reset();
+                Daemon.useEnvironment(null);
+            }
+        } catch (IOException e) {
+            // The client went away before sending a whole request
+        }
+    }
+
+    // Interrupts the handler thread if the client closes the connection while
+    // its command runs. The client sends nothing after the request, so a
+    // read that returns means it hung up.
+    private static final class HangUp {
+        private final Thread handler;
+        private boolean finished;
+
+        HangUp(Thread handler) {
+            this.handler = handler;
+        }
+
+        void await(SocketChannel client) {
+            try {
+                client.read(ByteBuffer.allocate(1));
+            } catch (IOException e) {
+                // Closed by the handler when the command finished, or reset by the client
+            }
+            synchronized (this) {
+                if (!finished) handler.interrupt();
+            }
+        }
+
+        // Called by the handler once its command returns; the pooled thread
+        // must not be interrupted later, nor keep the interrupt it may have got
+        synchronized void finish() {
+            finished = true;
+            Thread.interrupted();
+        }
+    }
+
+    private void execute(String[] args) {
+        Lock held = readOnly.test(args) ? lock.readLock() : lock.writeLock();
+        held.lock();
+        try {
+            served.incrementAndGet();
+            dispatcher.accept(args);
+        } catch (RuntimeException e) {
+            System.out.println("❌ " + e);
+        } finally {
+            held.unlock();
+        }
+    }
+
+    // Requests about the daemon itself, sent by `bit daemon stop|status`
+    private void control(String[] args) throws IOException {
+        String action = args.length > 1 ? args[1] : "";
+        if (action.equals("stop")) {
+            lock.writeLock().lock(); // let running commands finish
+            try {
+                server.close();
+                System.out.println("🛑 Bit daemon stopped.");
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } else if (action.equals("status")) {
+            System.out.println("🛰️ Bit daemon running (pid " + ProcessHandle.current().pid()
+                    + ", " + served.get() + " commands served)");
+            ObjectCache cache = ObjectStore.open().cache();
+            System.out.printf("   Object cache: %d objects, %d KiB, %d hits, %d misses, %d evicted%n",
+                    cache.size(), cache.weight() >> 10, cache.hits(), cache.misses(), cache.evictions());
+        } else {
+            System.out.println("❌ Usage: bit daemon [start|stop|status]");
+        }
+    }
+
+    private static void ask(String action) {
+        if (!Files.exists(Daemon.SOCKET)) {
+            System.out.println("⚠️ No bit daemon is running for this repository.");
+            return;
+        }
+        try (SocketChannel channel = Daemon.connect()) {
+            Daemon.send(channel, new String[] {"daemon", action});
+            Daemon.copyOutput(channel);
+        } catch (IOException e) {
+            System.out.println("⚠️ No bit daemon is running for this repository.");
+        }
+    }
+
+    private static void deleteSocket() {
+        try {
+            Files.deleteIfExists(Daemon.SOCKET);
+        } catch (IOException e) {
+            // Next start treats a dead socket as stale anyway
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package bit.commands;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import bit.utils.Commit;
+import bit.utils.Diff;
+import bit.utils.Diff3;
+import bit.utils.FileHasher;
+import bit.utils.FileStat;
+import bit.utils.HashPipeline;
+import bit.utils.Index;
+import bit.utils.ObjectStore;
+import bit.utils.Refs;
+import bit.utils.RenameDetector;
+import bit.utils.Revisions;
+import bit.utils.Tree;
+import bit.utils.TreeBuilder;
+import bit.utils.TreeDiff;
+import bit.utils.UnifiedDiff;
+
+// bit diff                    working tree against the index
+// bit diff --cached [<rev>]   the index against HEAD (or <rev>)
+// bit diff <rev>              working tree against a commit
+// bit diff <rev> <rev>        one commit against another
+//
+// Options: -U<n> sets the lines of context, --no-renames turns off rename
+// detection, --find-copies also shows files added as copies of files that
+// are still there, and paths after "--" limit the diff to those files and
+// directories.
+//
+// Unchanged files are skipped before any content is read: tree ids and the
+// index's cache-tree rule out whole directories, and the index's stat data
+// rules out working tree files that weren't touched. Only the files that
+// remain are hashed and diffed, in parallel, and printed in path order. A
+// deleted file and an added one with the same or similar content are shown
+// as one rename (see RenameDetector).
+public class DiffCommand implements RunnableCommand {
+    private static final int BINARY_PROBE = 8000;
+
+    // One file to compare. An id is null for a side where the file doesn't
+    // exist, and a mode is 0 where it isn't known; `file` is set when the new
+    // side is read from the working tree. A renamed or copied file has its old
+    // path in `oldPath` and a similarity.
+    private record Pair(String oldPath, String path, String oldId, String newId, int oldMode, int newMode,
+                        Path file, int similarity, boolean copy) {
+        Pair(String path, String oldId, String newId, int oldMode, int newMode, Path file) {
+            this(path, path, oldId, newId, oldMode, newMode, file, 0, false);
+        }
+
+        boolean modeChanged() {
+            return oldId != null && newId != null && oldMode != 0 && newMode != 0 && oldMode != newMode;
+        }
+
+        boolean isRename() {
+            return !oldPath.equals(path);
+        }
+    }
+
+    private final ObjectStore store = ObjectStore.open();
+    private int context = UnifiedDiff.DEFAULT_CONTEXT;
+
+    @Override
+    public void run(String[] args) {
+        boolean cached = false;
+        boolean renames = true;
+        boolean copies = false;
+        List<String> revisions = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--")) {
+                paths.addAll(Arrays.asList(args).subList(i + 1, args.length));
+                break;
+            } else if (args[i].equals("--cached") || args[i].equals("--staged")) {
+                cached = true;
+            } else if (args[i].equals("--no-renames")) {
+                renames = false;
+            } else if (args[i].equals("--find-copies")) {
+                copies = true;
+            } else if (args[i].startsWith("-U")) {
+                context = Integer.parseInt(args[i].substring(2));
+            } else {
+                revisions.add(args[i]);
+            }
+        }
+        if (revisions.size() > 2 || (cached && revisions.size() > 1)) {
+            System.out.println("Usage: bit diff [--cached] [-U<n>] [--no-renames] [--find-copies] [<rev> [<rev>]] [-- <paths>]");
+            return;
+        }
+
+        try {
+            Refs refs = Refs.open();
+            List<String> commits = new ArrayList<>();
+            for (String revision : revisions) {
+                String id = Revisions.resolve(refs, store, revision);
+                if (id == null) {
+                    System.out.println("❌ Unknown revision: " + revision);
+                    return;
+                }
+                commits.add(id);
+            }
+
+            // Step 1: Find the files that differ, without reading any content
+            Index index = Index.load();
+            RenameDetector detector = RenameDetector.open(store);
+            copies |= detector.findCopies();
+            List<Pair> pairs;
+            Map<String, String> oldFiles = null; // every file on the old side, only needed for copies
+            if (commits.size() == 2) {
+                String oldTree = Commit.treeOf(store, commits.get(0));
+                pairs = fromTrees(TreeDiff.diff(store, oldTree, Commit.treeOf(store, commits.get(1))));
+                if (renames && copies) oldFiles = Tree.flatten(store, oldTree);
+            } else if (cached) {
+                String base = commits.isEmpty() ? refs.head() : commits.get(0);
+                pairs = fromTrees(TreeBuilder.diffIndex(store, index, Commit.treeOf(store, base)));
+                if (renames && copies) oldFiles = staged(index); // the same ids as the base for unchanged files
+            } else if (commits.size() == 1) {
+                Map<String, String> committed = Tree.flatten(store, Commit.treeOf(store, commits.get(0)));
+                pairs = workTreeAgainst(committed, index);
+                if (renames && copies) oldFiles = committed;
+            } else {
+                pairs = workTreeAgainstIndex(index);
+                if (renames && copies) oldFiles = staged(index);
+            }
+            pairs.removeIf(pair -> !selected(pair.path(), paths));
+
+            ExecutorService pool = Executors.newFixedThreadPool(HashPipeline.defaultJobs());
+            try {
+                // Step 2: Hash the working tree candidates in parallel, dropping unchanged ones
+                pairs = resolve(pool, pairs, index);
+
+                // Step 3: Pair up deleted and added files that are renames
+                if (renames) pairs = withRenames(detector, pairs, copies ? oldFiles : null);
+
+                // Step 4: Diff in parallel, printing in order
+                print(pool, pairs);
+            } finally {
+                pool.shutdownNow();
+            }
+        } catch (IllegalStateException e) {
+            System.out.println("❌ " + e.getMessage());
+        } catch (NumberFormatException e) {
+            System.out.println("❌ Invalid context: " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("❌ Diff failed: " + e.getMessage());
+        } catch (ExecutionException e) {
+            System.out.println("❌ Diff failed: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<Pair> fromTrees(List<TreeDiff.Change> changes) {
+        List<Pair> pairs = new ArrayList<>();
+        for (TreeDiff.Change change : changes) {
+            pairs.add(new Pair(change.path(), change.oldId(), change.newId(), change.oldMode(), change.newMode(), null));
+        }
+        return pairs;
+    }
+
+    private static Map<String, String> staged(Index index) {
+        Map<String, String> files = new HashMap<>();
+        for (Index.Entry entry : index.entries()) {
+            files.put(entry.path(), entry.id());
+        }
+        return files;
+    }
+
+    // Every staged file; whether it changed is settled when it is diffed
+    private static List<Pair> workTreeAgainstIndex(Index index) {
+        List<Pair> pairs = new ArrayList<>();
+        for (Index.Entry entry : index.entries()) {
+            pairs.add(new Pair(entry.path(), entry.id(), null, Tree.fileMode(entry.stat().mode()), 0,
+                    Paths.get(entry.path())));
+        }
+        return pairs;
+    }
+
+    // Files of the commit plus the staged ones; files that are neither are untracked
+    private static List<Pair> workTreeAgainst(Map<String, String> committed, Index index) {
+        SortedSet<String> tracked = new TreeSet<>(committed.keySet());
+        for (Index.Entry entry : index.entries()) {
+            tracked.add(entry.path());
+        }
+        List<Pair> pairs = new ArrayList<>();
+        for (String path : tracked) {
+            pairs.add(new Pair(path, committed.get(path), null, 0, 0, Paths.get(path)));
+        }
+        return pairs;
+    }
+
+    private static boolean selected(String path, List<String> paths) {
+        if (paths.isEmpty()) return true;
+        for (String selected : paths) {
+            String prefix = Index.toIndexPath(Paths.get(selected));
+            if (prefix.isEmpty() || path.equals(prefix) || path.startsWith(prefix + "/")) return true;
+        }
+        return false;
+    }
+
+    // Work tree pairs with their current blob id filled in; files that turn
+    // out unchanged are left out
+    private static List<Pair> resolve(ExecutorService pool, List<Pair> pairs, Index index)
+            throws InterruptedException, ExecutionException {
+        List<Future<Pair>> resolved = new ArrayList<>();
+        for (Pair pair : pairs) {
+            if (pair.file() == null) {
+                resolved.add(CompletableFuture.completedFuture(pair));
+            } else {
+                resolved.add(pool.submit(() -> new Pair(pair.path(), pair.oldId(),
+                        currentId(pair.path(), pair.file(), index), pair.oldMode(), currentMode(pair.file()),
+                        pair.file())));
+            }
+        }
+        List<Pair> changed = new ArrayList<>();
+        for (Future<Pair> future : resolved) {
+            Pair pair = future.get();
+            if (!Objects.equals(pair.oldId(), pair.newId()) || pair.modeChanged()) changed.add(pair);
+        }
+        return changed;
+    }
+
+    // Deleted and added files that are renames become one pair, sorted by its
+    // new path. With `oldFiles`, the old side's files that are still there
+    // are copy sources too.
+    private static List<Pair> withRenames(RenameDetector detector, List<Pair> pairs, Map<String, String> oldFiles)
+            throws IOException {
+        List<RenameDetector.Side> deleted = new ArrayList<>();
+        List<RenameDetector.Side> added = new ArrayList<>();
+        List<RenameDetector.Side> modified = new ArrayList<>();
+        Map<String, Pair> byPath = new HashMap<>();
+        for (Pair pair : pairs) {
+            if (pair.newId() == null) deleted.add(new RenameDetector.Side(pair.path(), pair.oldId(), null));
+            if (pair.oldId() == null) added.add(new RenameDetector.Side(pair.path(), pair.newId(), pair.file()));
+            if (oldFiles != null && pair.oldId() != null && pair.newId() != null) {
+                modified.add(new RenameDetector.Side(pair.path(), pair.oldId(), null));
+            }
+            byPath.put(pair.path(), pair);
+        }
+        List<RenameDetector.Side> unchanged = new ArrayList<>();
+        if (oldFiles != null) {
+            for (Map.Entry<String, String> file : oldFiles.entrySet()) {
+                if (!byPath.containsKey(file.getKey())) {
+                    unchanged.add(new RenameDetector.Side(file.getKey(), file.getValue(), null));
+                }
+            }
+        }
+        List<RenameDetector.Match> matches = detector.detect(deleted, added, modified, unchanged);
+        if (matches.isEmpty()) return pairs;
+
+        for (RenameDetector.Match match : matches) {
+            Pair from = match.copy() ? byPath.get(match.from()) : byPath.remove(match.from());
+            Pair to = byPath.get(match.to());
+            byPath.put(match.to(), new Pair(match.from(), match.to(), match.fromId(), match.toId(),
+                    from != null ? from.oldMode() : 0, to.newMode(), to.file(), match.similarity(), match.copy()));
+        }
+        List<Pair> result = new ArrayList<>(byPath.values());
+        result.sort(Comparator.comparing(Pair::path));
+        return result;
+    }
+
+    private void print(ExecutorService pool, List<Pair> pairs)
+            throws IOException, InterruptedException, ExecutionException {
+        List<Future<byte[]>> diffs = new ArrayList<>();
+        for (Pair pair : pairs) {
+            diffs.add(pool.submit(() -> diff(pair)));
+        }
+        for (Future<byte[]> diff : diffs) {
+            System.out.write(diff.get());
+        }
+        System.out.flush();
+    }
+
+    // The file's unified diff
+    private byte[] diff(Pair pair) throws IOException {
+        String newId = pair.newId();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String oldPath = pair.oldPath();
+        String path = pair.path();
+        text(out, "diff --git a/" + oldPath + " b/" + path + "\n");
+        if (pair.modeChanged()) {
+            text(out, "old mode " + Integer.toOctalString(pair.oldMode()) + "\n");
+            text(out, "new mode " + Integer.toOctalString(pair.newMode()) + "\n");
+        }
+        if (pair.isRename()) {
+            String kind = pair.copy() ? "copy" : "rename";
+            text(out, "similarity index " + pair.similarity() + "%\n");
+            text(out, kind + " from " + oldPath + "\n" + kind + " to " + path + "\n");
+        }
+        if (Objects.equals(pair.oldId(), newId)) return out.toByteArray();
+        // git apply needs a mode to create or delete a file
+        if (pair.oldId() == null) text(out, "new file mode " + octalMode(pair.newMode()) + "\n");
+        if (newId == null) text(out, "deleted file mode " + octalMode(pair.oldMode()) + "\n");
+        text(out, "index " + abbrev(pair.oldId()) + ".." + abbrev(newId) + "\n");
+
+        try (InputStream before = open(pair.oldId(), null);
+             InputStream after = open(newId, newId != null ? pair.file() : null)) {
+            if (isBinary(before) || isBinary(after)) {
+                text(out, "Binary files " + (pair.oldId() == null ? "/dev/null" : "a/" + oldPath) + " and "
+                        + (newId == null ? "/dev/null" : "b/" + path) + " differ\n");
+                return out.toByteArray();
+            }
+
+            Diff.Interner lines = new Diff.Interner();
+            int[] base = lines.intern(before);
+            int[] other = lines.intern(after);
+            List<Diff.Hunk> hunks = Diff.diff(base, other);
+            if (hunks.isEmpty()) {
+                return out.toByteArray();
+            }
+            text(out, "--- " + (pair.oldId() == null ? "/dev/null" : "a/" + oldPath) + "\n");
+            text(out, "+++ " + (newId == null ? "/dev/null" : "b/" + path) + "\n");
+            UnifiedDiff.write(lines, base, other, hunks, context, out);
+        }
+        return out.toByteArray();
+    }
+
+    // Blob id of the working tree file, trusting the index's stat data when it
+    // still matches; null if the file is gone
+    private static String currentId(String path, Path file, Index index) throws IOException {
+        if (!Files.isRegularFile(file)) return null;
+        Index.Entry entry = index.get(path);
+        if (entry != null && index.isUpToDate(entry, FileStat.of(file))) {
+            return entry.id();
+        }
+        return FileHasher.hashFile(file);
+    }
+
+    // Mode the working tree file would be staged with, or 0 if it is gone
+    private static int currentMode(Path file) throws IOException {
+        return Files.isRegularFile(file) ? FileStat.of(file).mode() : 0;
+    }
+
+    private static String octalMode(int mode) {
+        return Integer.toOctalString(mode != 0 ? mode : FileStat.MODE_FILE);
+    }
+
+    // Content of one side, marked so the binary check can look ahead
+    private InputStream open(String id, Path file) throws IOException {
+        InputStream in;
+        if (id == null) {
+            in = InputStream.nullInputStream();
+        } else if (file != null) {
+            in = Files.newInputStream(file);
+        } else {
+            in = store.open(id);
+        }
+        BufferedInputStream buffered = new BufferedInputStream(in, 64 * 1024);
+        buffered.mark(BINARY_PROBE);
+        return buffered;
+    }
+
+    private static boolean isBinary(InputStream in) throws IOException {
+        byte[] probe = in.readNBytes(BINARY_PROBE);
+        in.reset();
+        return Diff3.isBinary(probe);
+    }
+
+    private static String abbrev(String id) {
+        return id == null ? "0000000" : id.substring(0, 7);
+    }
+
+    private static void text(ByteArrayOutputStream out, String text) {
+        out.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,111 @@
+package bit.commands;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+import bit.utils.CommitGraph;
+import bit.utils.GarbageCollector;
+import bit.utils.HashPipeline;
+import bit.utils.History;
+import bit.utils.Index;
+import bit.utils.ObjectStore;
+import bit.utils.Refs;
+import bit.utils.Settings;
+
+// bit gc [--dry-run] [--grace=<duration>]
+//
+// Deletes objects nothing refers to any more: blobs superseded by re-staging,
+// commits dropped by `bit undo` once they have left the reflog, chunks of
+// files that were never committed, and scratch files. Objects reachable from
+// a branch, a reflog entry, MERGE_HEAD or the index are always kept, and so
+// is anything younger than the grace period (gc.grace in .bit/settings, two
+// weeks by default). --dry-run only reports what would go.
+//
+// Reflog entries older than gc.reflogExpire (90 days by default) are dropped
+// first, which is how an undone commit leaves the reflog.
+//
+// The daemon runs gc like every other writing command, with no other command
+// running at the same time.
+public class GcCommand implements RunnableCommand {
+
+    @Override
+    public void run(String[] args) {
+        boolean dryRun = false;
+        Duration grace = null;
+        for (String arg : args) {
+            if (arg.equals("--dry-run") || arg.equals("-n")) {
+                dryRun = true;
+            } else if (arg.startsWith("--grace=")) {
+                grace = Settings.parseDuration(arg.substring("--grace=".length()));
+                if (grace == null) {
+                    System.out.println("❌ Invalid grace period: " + arg.substring("--grace=".length()));
+                    return;
+                }
+            } else {
+                System.out.println("Usage: bit gc [--dry-run] [--grace=<duration>]");
+                return;
+            }
+        }
+
+        try {
+            ObjectStore store = ObjectStore.open();
+            Refs refs = Refs.open();
+            Index index = Index.load();
+            Settings settings = Settings.load();
+            if (grace == null) {
+                grace = settings.duration("gc.grace", Settings.DEFAULT_GC_GRACE);
+            }
+            Instant reflogCutoff = Instant.now()
+                    .minus(settings.duration("gc.reflogExpire", Settings.DEFAULT_REFLOG_EXPIRE));
+
+            // Step 1: Mark everything reachable, in parallel, ignoring reflog entries about to expire
+            GarbageCollector collector = new GarbageCollector(store, HashPipeline.defaultJobs());
+            Set<String> commits = GarbageCollector.commitRoots(refs, reflogCutoff);
+            Set<String> reachable = collector.mark(commits, index);
+
+            // Step 2: Find what is unreachable and past the grace period
+            GarbageCollector.Plan plan = collector.plan(reachable, Instant.now().minus(grace));
+            if (plan.isEmpty()) {
+                System.out.println("✅ Nothing to collect (" + reachable.size() + " reachable objects).");
+                return;
+            }
+            String summary = plan.looseFiles().size() + " loose and " + plan.packedObjects() + " packed objects, "
+                    + plan.scratchFiles().size() + " scratch files";
+            if (dryRun) {
+                System.out.println("🧹 Would remove " + summary + " (" + size(plan.bytes()) + ").");
+                return;
+            }
+
+            // Step 3: Expire the reflogs, then sweep, using staged paths as delta hints for a rewritten pack
+            for (String branch : refs.branches()) {
+                refs.expireLog(branch, reflogCutoff);
+            }
+            Map<String, String> nameHints = new HashMap<>();
+            for (Index.Entry entry : index.entries()) {
+                nameHints.put(entry.id(), entry.path());
+            }
+            collector.sweep(plan, nameHints);
+
+            // Step 4: Rebuild the commit-graph as one file, without the commits
+            // that are gone and with the layers added since the last rebuild
+            History.rebuild(store, commits, CommitGraph.DEFAULT_PATH);
+
+            System.out.println("🧹 Removed " + summary + ", freeing " + size(plan.bytes()) + ".");
+        } catch (IllegalStateException e) {
+            System.out.println("❌ " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("❌ Garbage collection failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Garbage collection interrupted.");
+        }
+    }
+
+    private static String size(long bytes) {
+        if (bytes < 1024) return bytes + " bytes";
+        if (bytes < 1024 * 1024) return String.format(Locale.ROOT, "%.1f KiB", bytes / 1024.0);
+        return String.format(Locale.ROOT, "%.1f MiB", bytes / (1024.0 * 1024));
+    }
+}
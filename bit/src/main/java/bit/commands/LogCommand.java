@@ -0,0 +1,172 @@
+package bit.commands;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+import bit.utils.BloomFilter;
+import bit.utils.Commit;
+import bit.utils.CommitGraph;
+import bit.utils.History;
+import bit.utils.Index;
+import bit.utils.Metrics;
+import bit.utils.ObjectStore;
+import bit.utils.Refs;
+import bit.utils.Revisions;
+import bit.utils.Tree;
+
+// bit log [<rev>] [-n <count>] [--oneline] [--topo-order] [-- <paths>]
+//
+// Walks history from <rev> (HEAD by default), newest commit first; with
+// --topo-order a commit is never shown before any of its children. Parents,
+// generations and dates come from the commit-graph, so only the commits that
+// are printed get read.
+//
+// With paths, a commit is shown when it changed one of them relative to each
+// of its parents. Each commit's changed-path Bloom filter is asked first; a
+// "no" rules the commit out without reading a single tree.
+public class LogCommand implements RunnableCommand {
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z", Locale.ROOT).withZone(ZoneId.systemDefault());
+    private static final int FLUSH_SIZE = 64 * 1024;
+
+    private final ObjectStore store = ObjectStore.open();
+
+    @Override
+    public void run(String[] args) {
+        String revision = "HEAD";
+        int limit = Integer.MAX_VALUE;
+        boolean oneline = false;
+        boolean topoOrder = false;
+        List<String> paths = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--")) {
+                    for (String path : Arrays.asList(args).subList(i + 1, args.length)) {
+                        paths.add(Index.toIndexPath(Paths.get(path)));
+                    }
+                    break;
+                } else if (args[i].equals("-n") && i + 1 < args.length) {
+                    limit = Integer.parseInt(args[++i]);
+                } else if (args[i].startsWith("--max-count=")) {
+                    limit = Integer.parseInt(args[i].substring("--max-count=".length()));
+                } else if (args[i].equals("--oneline")) {
+                    oneline = true;
+                } else if (args[i].equals("--topo-order")) {
+                    topoOrder = true;
+                } else {
+                    revision = args[i];
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("❌ Invalid count: " + e.getMessage());
+            return;
+        }
+        paths.removeIf(String::isEmpty); // "." means everything
+
+        try {
+            Refs refs = Refs.open();
+            String tip = Revisions.resolve(refs, store, revision);
+            if (tip == null) {
+                System.out.println(revision.equals("HEAD") ? "No commits yet." : "❌ Unknown revision: " + revision);
+                return;
+            }
+
+            History history = History.open(store);
+            List<BloomFilter.Key> keys = new ArrayList<>();
+            for (String path : paths) {
+                keys.add(BloomFilter.key(path));
+            }
+
+            Comparator<CommitGraph.Node> byDate = Comparator.comparingLong(CommitGraph.Node::time)
+                    .thenComparingInt(CommitGraph.Node::generation).reversed();
+            Comparator<CommitGraph.Node> byGeneration = Comparator.comparingInt(CommitGraph.Node::generation)
+                    .thenComparingLong(CommitGraph.Node::time).reversed();
+            PriorityQueue<CommitGraph.Node> queue = new PriorityQueue<>(topoOrder ? byGeneration : byDate);
+            Set<String> seen = new HashSet<>(List.of(tip));
+            queue.add(history.node(tip));
+
+            StringBuilder out = new StringBuilder();
+            int shown = 0;
+            while (!queue.isEmpty() && shown < limit) {
+                CommitGraph.Node node = queue.poll();
+                for (String parent : node.parents()) {
+                    if (seen.add(parent)) queue.add(history.node(parent));
+                }
+                if ((!paths.isEmpty() && !touches(history, node, paths, keys)) || !store.exists(node.id())) {
+                    continue;
+                }
+
+                format(out, node.id(), Commit.read(store, node.id()), oneline);
+                shown++;
+                if (out.length() > FLUSH_SIZE) {
+                    System.out.print(out);
+                    out.setLength(0);
+                }
+            }
+            System.out.print(out);
+            System.out.flush();
+        } catch (IOException e) {
+            System.out.println("❌ Error reading history: " + e.getMessage());
+        }
+    }
+
+    // True if any of the paths differs between the commit and every one of its parents
+    private boolean touches(History history, CommitGraph.Node node, List<String> paths, List<BloomFilter.Key> keys)
+            throws IOException {
+        for (int i = 0; i < paths.size(); i++) {
+            if (!history.mightHaveChanged(node.id(), keys.get(i))) {
+                Metrics.count("log.bloom.negative", 1); // same as the first parent
+                continue;
+            }
+
+            String current = Tree.lookup(store, Commit.treeOf(store, node.id()), paths.get(i));
+            boolean changed = !node.parents().isEmpty() || current != null;
+            for (String parent : node.parents()) {
+                if (Objects.equals(current, Tree.lookup(store, Commit.treeOf(store, parent), paths.get(i)))) {
+                    changed = false;
+                    break;
+                }
+            }
+            Metrics.count("log.bloom.maybe", 1);
+            if (!changed) Metrics.count("log.bloom.false.positive", 1);
+            if (changed) return true;
+        }
+        return false;
+    }
+
+    private static void format(StringBuilder out, String id, Commit commit, boolean oneline) {
+        if (oneline) {
+            String message = commit.message();
+            int newline = message.indexOf('\n');
+            out.append(id, 0, 7).append(' ').append(newline < 0 ? message : message.substring(0, newline)).append('\n');
+            return;
+        }
+
+        out.append("commit ").append(id).append('\n');
+        if (commit.parents().size() > 1) {
+            out.append("Merge:");
+            for (String parent : commit.parents()) {
+                out.append(' ').append(parent, 0, 7);
+            }
+            out.append('\n');
+        }
+        out.append("Date:   ").append(date(commit.time())).append("\n\n");
+        for (String line : commit.message().split("\n", -1)) {
+            out.append("    ").append(line).append('\n');
+        }
+        out.append('\n');
+    }
+
+    private static String date(String time) {
+        try {
+            return DATE_FORMAT.format(Instant.parse(time));
+        } catch (DateTimeParseException e) {
+            return time;
+        }
+    }
+}
@@ -3,9 +3,40 @@ package bit.commands;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
-
+import java.util.concurrent.*;
+
+import bit.utils.Commit;
+import bit.utils.Diff3;
+import bit.utils.FileHasher;
+import bit.utils.FileStat;
+import bit.utils.HashPipeline;
+import bit.utils.History;
+import bit.utils.Index;
+import bit.utils.ObjectStore;
+import bit.utils.Refs;
+import bit.utils.RenameDetector;
+import bit.utils.TreeBuilder;
+import bit.utils.TreeDiff;
+import bit.utils.WorkTree;
+
+// Three-way merge of another branch into the current one. One-sided changes
+// are taken as they are; files changed on both sides get a line-level diff3,
+// and whatever can't be merged is left with conflict markers for the user.
+//
+// Renames are detected on both sides (see RenameDetector), so an edit made
+// on one branch follows a file the other branch moved instead of turning
+// into a deleted/modified conflict next to a stray copy.
 public class MergeCommand implements RunnableCommand {
 
+    private final ObjectStore store = ObjectStore.open();
+    private final Refs refs = Refs.open();
+
+    // One path the merge changes, relative to the current branch: its blob id
+    // before and after (null = absent), the mode it ends up with and, for a
+    // conflict, what to leave in the working tree: the conflict markers, or
+    // else the blob `to`, while the index keeps our version
+    private record Outcome(String path, String from, String to, int mode, byte[] conflictContent, String conflict) {}
+
     @Override
     public void run(String[] args) {
         if (args.length != 1) {
@@ -13,144 +44,306 @@ public class MergeCommand implements RunnableCommand {
             return;
         }
 
-        String currentBranch = getCurrentBranch();
-        String targetBranch = args[0];
+        try {
+            if (refs.mergeHead() != null) {
+                System.out.println("❌ A merge is already in progress. Resolve the conflicts, then run `bit stage` and `bit save`.");
+                return;
+            }
 
-        Path currentPath = Paths.get(".bit/refs/heads/" + currentBranch);
-        Path targetPath = Paths.get(".bit/refs/heads/" + targetBranch);
+            String currentBranch = refs.currentBranch();
+            String targetBranch = args[0];
+            if (!refs.branchExists(targetBranch)) {
+                System.out.println("❌ Branch '" + targetBranch + "' does not exist.");
+                return;
+            }
 
-        if (!Files.exists(targetPath)) {
-            System.out.println("❌ Branch '" + targetBranch + "' does not exist.");
-            return;
-        }
+            String ours = refs.head();
+            String theirs = refs.resolve(targetBranch);
+            if (theirs == null) {
+                System.out.println("❌ Branch '" + targetBranch + "' has no commits.");
+                return;
+            }
 
-        try {
-            String currentCommit = Files.readString(currentPath).trim();
-            String targetCommit = Files.readString(targetPath).trim();
+            History history = History.open(store);
+            String base = ours == null ? null : history.mergeBase(ours, theirs);
+            if (theirs.equals(base)) {
+                System.out.println("✅ Already up to date.");
+                return;
+            }
 
-            Map<String, String> currentTree = readTree(currentCommit);
-            Map<String, String> targetTree = readTree(targetCommit);
+            String ourTree = Commit.treeOf(store, ours);
+            String theirTree = Commit.treeOf(store, theirs);
+            Index index = Index.load();
+            if (!TreeBuilder.diffIndex(store, index, ourTree).isEmpty()) {
+                System.out.println("❌ You have staged changes that are not saved. Save them before merging.");
+                return;
+            }
 
-            Map<String, String> mergedTree = new HashMap<>(currentTree);
+            if (Objects.equals(base, ours)) {
+                // Nothing to merge: move the branch forward
+                List<Outcome> updates = new ArrayList<>();
+                for (TreeDiff.Change change : TreeDiff.diff(store, ourTree, theirTree)) {
+                    updates.add(new Outcome(change.path(), change.oldId(), change.newId(), change.newMode(), null, null));
+                }
+                if (!updateWorkTree(index, updates)) return;
+                TreeBuilder.write(store, index);
+                index.save();
+                refs.update(currentBranch, theirs, "merge " + targetBranch + ": Fast-forward");
+                System.out.println("⏩ Fast-forward to " + theirs);
+                return;
+            }
 
-            boolean conflict = false;
+            // Only paths that changed on the other branch since the merge base
+            // can need anything; identical subtrees are never opened
+            String baseTree = Commit.treeOf(store, base);
+            List<Outcome> outcomes = mergeTrees(TreeDiff.diff(store, baseTree, ourTree),
+                    TreeDiff.diff(store, baseTree, theirTree), currentBranch, targetBranch);
 
-            for (var entry : targetTree.entrySet()) {
-                String file = entry.getKey();
-                String newHash = entry.getValue();
+            List<Outcome> conflicts = new ArrayList<>();
+            for (Outcome outcome : outcomes) {
+                if (outcome.conflict() != null) conflicts.add(outcome);
+            }
 
-                if (!currentTree.containsKey(file)) {
-                    mergedTree.put(file, newHash); // added file
-                } else if (!currentTree.get(file).equals(newHash)) {
-                    // conflict: file changed in both branches
-                    conflict = true;
-                    System.out.println("⚠️ Conflict in file: " + file);
-                    resolveConflict(file, currentTree.get(file), newHash, currentBranch, targetBranch);
+            if (!updateWorkTree(index, outcomes)) return;
 
-                    mergedTree.put(file, Files.readString(Paths.get(".bit/objects/" + file + ".merge")).trim());
+            if (!conflicts.isEmpty()) {
+                refs.setMergeHead(theirs);
+                for (Outcome conflict : conflicts) {
+                    System.out.println("⚠️ Conflict (" + conflict.conflict() + "): " + conflict.path());
                 }
+                System.out.println("❗ Automatic merge failed. Fix the conflicts, then run `bit stage` and `bit save`.");
+                return;
             }
 
-            if (conflict) {
-                System.out.println("❗ Conflicts were resolved manually.");
-            }
+            // The index now holds the merged tree; untouched directories keep
+            // their cached tree ids
+            String mergedTree = TreeBuilder.write(store, index);
+            index.save();
 
-            // Save merged tree as new commit
-            String mergedCommitHash = saveMergedTree(mergedTree, currentCommit, targetCommit);
-            Files.writeString(currentPath, mergedCommitHash);
+            String message = "Merge branch '" + targetBranch + "' into " + currentBranch;
+            String mergedCommitHash = Commit.create(List.of(ours, theirs), mergedTree, message).write(store);
+            refs.update(currentBranch, mergedCommitHash, "merge " + targetBranch + ": Merge made by three-way merge");
+            history.record(List.of(mergedCommitHash));
 
             System.out.println("✅ Merge complete. New commit: " + mergedCommitHash);
 
+        } catch (IllegalStateException e) {
+            System.out.println("❌ " + e.getMessage());
         } catch (IOException e) {
-            System.out.println("Error: " + e.getMessage());
+            System.out.println("❌ Merge failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Merge interrupted.");
+        } catch (ExecutionException e) {
+            System.out.println("❌ Merge failed: " + e.getCause().getMessage());
         }
     }
 
-    private String getCurrentBranch() {
+    private List<Outcome> mergeTrees(List<TreeDiff.Change> ourChanges, List<TreeDiff.Change> theirChanges,
+                                     String oursLabel, String theirsLabel)
+            throws InterruptedException, ExecutionException {
+        Map<String, TreeDiff.Change> oursByPath = TreeDiff.byPath(ourChanges);
+        Map<String, TreeDiff.Change> theirsByPath = TreeDiff.byPath(theirChanges);
+
+        List<Outcome> outcomes = new ArrayList<>();
+        List<Future<Outcome>> contentMerges = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(HashPipeline.defaultJobs());
         try {
-            return Files.readString(Paths.get(".bit/HEAD"))
-                        .trim().replace("refs/heads/", "");
+            RenameDetector detector = RenameDetector.open(store);
+            Map<String, RenameDetector.Match> ourRenames = RenameDetector.bySource(detector.detect(ourChanges));
+            Map<String, RenameDetector.Match> theirRenames = RenameDetector.bySource(detector.detect(theirChanges));
+
+            // Files the other branch renamed: settled here, before the paths
+            // involved come up one by one below
+            Set<String> settled = new HashSet<>();
+            Map<String, String> renamedBase = new HashMap<>(); // target both sides renamed to -> base id
+            Map<String, Integer> renamedBaseMode = new HashMap<>();
+            for (RenameDetector.Match rename : new TreeMap<>(theirRenames).values()) {
+                String from = rename.from();
+                TreeDiff.Change ourChange = oursByPath.get(from);
+                String ours = ourChange != null ? ourChange.newId() : rename.fromId();
+                int theirMode = theirsByPath.get(rename.to()).newMode();
+                RenameDetector.Match ourRename = ourRenames.get(from);
+                if (ourRename != null && ourRename.to().equals(rename.to())) {
+                    renamedBase.put(rename.to(), rename.fromId());
+                    renamedBaseMode.put(rename.to(), ourChange.oldMode());
+                } else if (ourRename != null) {
+                    settled.add(rename.to());
+                    outcomes.add(new Outcome(rename.to(), null, rename.toId(), theirMode, null,
+                            "renamed to " + ourRename.to() + " in " + oursLabel));
+                } else if (ours != null && !ours.equals(rename.fromId()) && !oursByPath.containsKey(rename.to())) {
+                    // Edited here, moved there: the edit goes to the new path
+                    int mode = mergeMode(theirsByPath.get(from).oldMode(), ourChange.newMode(), theirMode);
+                    settled.add(from);
+                    settled.add(rename.to());
+                    outcomes.add(new Outcome(from, ours, null, 0, null, null));
+                    contentMerges.add(pool.submit(() -> mergeContent(rename.to(), null, rename.fromId(), ours,
+                            rename.toId(), mode, oursLabel, theirsLabel)));
+                } else if (ours == null && !oursByPath.containsKey(rename.to())) {
+                    // Deleted here, moved there: keep the moved file, like modify/delete
+                    settled.add(from);
+                    settled.add(rename.to());
+                    outcomes.add(new Outcome(rename.to(), null, rename.toId(), theirMode, null,
+                            "renamed from " + from + " in " + theirsLabel + ", deleted in " + oursLabel));
+                }
+            }
+
+            for (TreeDiff.Change change : theirChanges) {
+                String path = change.path();
+                if (settled.contains(path)) continue;
+                String base = change.oldId() != null ? change.oldId() : renamedBase.get(path);
+                int baseMode = change.oldId() != null ? change.oldMode() : renamedBaseMode.getOrDefault(path, 0);
+                String theirs = change.newId();
+                TreeDiff.Change ourChange = oursByPath.get(path);
+                String ours = ourChange != null ? ourChange.newId() : base;
+                int ourMode = ourChange != null ? ourChange.newMode() : baseMode;
+                int mode = mergeMode(baseMode, ourMode, change.newMode());
+
+                RenameDetector.Match ourRename = ourRenames.get(path);
+                if (ourRename != null && theirs != null) {
+                    // Moved here, edited there: the edit goes to our new path
+                    String target = ourRename.to();
+                    String moved = ourRename.toId();
+                    int movedMode = mergeMode(baseMode, oursByPath.get(target).newMode(), change.newMode());
+                    if (Objects.equals(base, moved)) {
+                        outcomes.add(new Outcome(target, moved, theirs, movedMode, null, null));
+                    } else {
+                        contentMerges.add(pool.submit(() -> mergeContent(target, moved, base, moved, theirs,
+                                movedMode, oursLabel, theirsLabel)));
+                    }
+                    continue;
+                }
+                if (ourRename != null && !theirRenames.containsKey(path)) {
+                    // Moved here, deleted there: keep our moved file, like modify/delete
+                    String target = ourRename.to();
+                    outcomes.add(new Outcome(target, ourRename.toId(), ourRename.toId(), oursByPath.get(target).newMode(),
+                            null, "renamed from " + path + " in " + oursLabel + ", deleted in " + theirsLabel));
+                    continue;
+                }
+
+                if (Objects.equals(ours, theirs) && ourMode == change.newMode()) {
+                    continue; // same change on both sides
+                } else if (Objects.equals(base, ours)) {
+                    outcomes.add(new Outcome(path, ours, theirs, mode, null, null));
+                } else if (ours == null || theirs == null) {
+                    // Deleted on one side, modified on the other: keep the modified file
+                    String kept = ours != null ? ours : theirs;
+                    outcomes.add(new Outcome(path, ours, kept, ours != null ? ourMode : change.newMode(), null,
+                            ours == null ? "deleted in " + oursLabel : "deleted in " + theirsLabel));
+                } else if (Objects.equals(base, theirs) || Objects.equals(ours, theirs)) {
+                    // Only the mode changed there
+                    outcomes.add(new Outcome(path, ours, ours, mode, null, null));
+                } else {
+                    // Changed on both sides: these are the expensive ones
+                    contentMerges.add(pool.submit(() -> mergeContent(path, ours, base, ours, theirs, mode,
+                            oursLabel, theirsLabel)));
+                }
+            }
+            for (Future<Outcome> merge : contentMerges) {
+                outcomes.add(merge.get());
+            }
         } catch (IOException e) {
-            throw new RuntimeException("Cannot read HEAD.");
+            throw new ExecutionException(e);
+        } finally {
+            pool.shutdownNow();
         }
+        return outcomes;
     }
 
-    private Map<String, String> readTree(String commitHash) throws IOException {
-        Path objectPath = Paths.get(".bit/objects/" + commitHash);
-        if (!Files.exists(objectPath)) return new HashMap<>();
+    // `from` is the blob at `path` on our side now: `ours` itself, or null
+    // when our version of the file is still under its old name. Files big
+    // enough to be stored in chunks are never read in to be merged by line;
+    // they conflict as binary files, leaving ours in place.
+    private Outcome mergeContent(String path, String from, String base, String ours, String theirs, int mode,
+                                 String oursLabel, String theirsLabel) throws IOException {
+        long threshold = store.chunkThreshold();
+        if ((base != null && store.size(base) >= threshold) || store.size(ours) >= threshold
+                || store.size(theirs) >= threshold) {
+            return new Outcome(path, from, ours, mode, null, "binary");
+        }
+        byte[] baseContent = base != null ? store.read(base).data() : new byte[0];
+        Diff3.Result result = Diff3.merge(baseContent, store.read(ours).data(), store.read(theirs).data(),
+                oursLabel, theirsLabel);
 
-        Map<String, String> tree = new HashMap<>();
-        List<String> lines = Files.readAllLines(objectPath);
-        for (String line : lines) {
-            if (!line.isBlank()) {
-                String[] parts = line.split(" ");
-                tree.put(parts[1], parts[0]);  // filename → hash
-            }
+        if (result.content() == null) {
+            return new Outcome(path, from, ours, mode, null, "binary");
+        }
+        if (result.isClean()) {
+            return new Outcome(path, from, store.write(ObjectStore.BLOB, result.content()), mode, null, null);
         }
-        return tree;
+        return new Outcome(path, from, from, mode, result.content(), "content");
     }
 
-    private void resolveConflict(String file, String baseHash, String otherHash, String currentBranch, String targetBranch) throws IOException {
-    Path baseFile = Paths.get(".bit/objects/" + baseHash);
-    Path otherFile = Paths.get(".bit/objects/" + otherHash);
-    String baseContent = Files.readString(baseFile);
-    String otherContent = Files.readString(otherFile);
-
-    System.out.println("----- ⚔️ Conflict in " + file + " -----");
-    System.out.println("[" + currentBranch + "] version:\n" + baseContent);
-    System.out.println("[" + targetBranch + "] version:\n" + otherContent);
-
-    System.out.println("Choose version to keep:");
-    System.out.println("[1] " + currentBranch);
-    System.out.println("[2] " + targetBranch);
-    System.out.println("[3] Manual edit");
-
-    Scanner sc = new Scanner(System.in);
-    int choice = -1;
-    try {
-        choice = Integer.parseInt(sc.nextLine().trim());
-    } catch (NumberFormatException ignored) {}
-
-    String finalContent;
-
-    switch (choice) {
-        case 1:
-            finalContent = baseContent;
-            break;
-        case 2:
-            finalContent = otherContent;
-            break;
-        case 3:
-            System.out.println("Enter manual resolution (end with --- on a new line):");
-            StringBuilder builder = new StringBuilder();
-            String line;
-            while (!(line = sc.nextLine()).equals("---")) {
-                builder.append(line).append("\n");
-            }
-            finalContent = builder.toString();
-            break;
-        default:
-            finalContent = baseContent;
-            break;
+    // A mode changed on one side only is taken from that side; if both
+    // sides changed it, ours wins
+    private static int mergeMode(int base, int ours, int theirs) {
+        return ours == base ? theirs : ours;
     }
 
-    Path mergePath = Paths.get(".bit/objects/" + file + ".merge");
-    Files.writeString(mergePath, finalContent);
-}
-
-
-    private String saveMergedTree(Map<String, String> tree, String parent1, String parent2) throws IOException {
-        StringBuilder builder = new StringBuilder();
-        for (var entry : tree.entrySet()) {
-            builder.append(entry.getValue()).append(" ").append(entry.getKey()).append("\n");
+    // Applies the outcomes to the working tree and index. Nothing is touched
+    // if a file about to change has local modifications.
+    private boolean updateWorkTree(Index index, List<Outcome> outcomes) throws IOException {
+        List<String> dirty = new ArrayList<>();
+        for (Outcome outcome : outcomes) {
+            if (!isClean(index, outcome.path(), outcome.from())) dirty.add(outcome.path());
+        }
+        if (!dirty.isEmpty()) {
+            System.out.println("❌ Your local changes would be overwritten by merge:");
+            dirty.forEach(path -> System.out.println("   ~ " + path));
+            System.out.println("Save or undo them first.");
+            return false;
         }
 
-        String treeContent = builder.toString();
-        String hash = Integer.toHexString(treeContent.hashCode());
+        for (Outcome outcome : outcomes) {
+            Path file = Paths.get(outcome.path());
+            if (outcome.conflictContent() != null) {
+                writeFile(file, new ByteArrayInputStream(outcome.conflictContent()), outcome.mode());
+            } else if (outcome.to() != null) {
+                // Streamed, so a file of any size is never held in memory whole
+                try (InputStream in = store.open(outcome.to())) {
+                    writeFile(file, in, outcome.mode());
+                }
+            } else {
+                Files.deleteIfExists(file);
+            }
+            // Conflicted files stay staged at our version until they are resolved
+            if (outcome.to() == null) {
+                index.remove(outcome.path());
+            } else if (outcome.conflict() == null) {
+                index.put(new Index.Entry(outcome.path(), outcome.to(), FileStat.of(file)));
+            }
+        }
+        index.save();
+        return true;
+    }
 
-        Path objectPath = Paths.get(".bit/objects/" + hash);
-        Files.writeString(objectPath, treeContent);
+    // True when the working file and the index both still match the commit
+    private boolean isClean(Index index, String path, String committedId) throws IOException {
+        Path file = Paths.get(path);
+        Index.Entry entry = index.get(path);
+        if (committedId == null) {
+            return entry == null && !Files.exists(file);
+        }
+        if (entry == null || !entry.id().equals(committedId)) {
+            return false;
+        }
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        return index.isUpToDate(entry, FileStat.of(file)) || FileHasher.hashFile(file).equals(committedId);
+    }
 
-        return hash;
+    private void writeFile(Path file, InputStream content, int mode) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = WorkTree.createTemp(parent, ".bit-merge-", mode);
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                content.transferTo(out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
     }
 }
@@ -1,106 +1,162 @@
 package bit.commands;
 
 import java.io.*;
-import java.net.*;
 import java.nio.file.*;
 import java.util.*;
-import org.json.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bit.utils.FileHasher;
+import bit.utils.FileStat;
+import bit.utils.GitHubClient;
+import bit.utils.GitHubRemote;
+import bit.utils.Index;
+import bit.utils.ObjectStore;
+import bit.utils.Tree;
+import bit.utils.WorkTree;
 
 public class PullCommand implements RunnableCommand {
+    private static final int DEFAULT_JOBS = 8;
 
     @Override
     public void run(String[] args) {
         try {
-            // Step 1: Parse token and target folder
-            String token = null;
+            // Step 1: Parse remote, token, options and target folder
+            GitHubRemote remote = GitHubRemote.fromConfig(args);
             String targetDir = ".";
+            int jobs = DEFAULT_JOBS;
+            String branch = null;
 
             for (String arg : args) {
-                if (arg.startsWith("--token=")) {
-                    token = arg.substring("--token=".length());
+                if (arg.startsWith("--jobs=")) {
+                    jobs = Integer.parseInt(arg.substring("--jobs=".length()));
+                } else if (arg.startsWith("--branch=")) {
+                    branch = arg.substring("--branch=".length());
                 } else if (!arg.startsWith("--")) {
                     targetDir = arg;
                 }
             }
 
-            if (token == null || token.isBlank()) {
-                token = System.getenv("GITHUB_TOKEN");
-            }
-            if (token == null || token.isBlank()) {
-                System.out.println("❌ GITHUB_TOKEN not set in environment or --token flag.");
-                return;
+            // Step 2: List the whole remote tree with a single request
+            GitHubClient client = new GitHubClient(remote);
+            GitHubClient.RemoteTree remoteTree = client.listTree(branch != null ? branch : "HEAD");
+            if (remoteTree.truncated()) {
+                System.out.println("⚠️ The remote tree is too large to list in one request; some files may be missing.");
             }
 
-            // Step 2: Read remote config
-            Path configPath = Paths.get(".bit/config");
-            if (!Files.exists(configPath)) {
-                System.out.println("❌ No remote config found.");
-                return;
+            // Step 3: Keep only the files whose local copy differs. Pulling into the
+            // working tree can trust the index stat cache instead of re-hashing.
+            Path target = Paths.get(targetDir);
+            boolean intoWorkTree = Index.toIndexPath(target).isEmpty();
+            Index index = intoWorkTree ? Index.load() : null;
+
+            List<String> changed = new ArrayList<>();
+            for (Map.Entry<String, String> blob : new TreeMap<>(remoteTree.blobs()).entrySet()) {
+                if (!isUpToDate(target.resolve(blob.getKey()), blob.getKey(), blob.getValue(),
+                        remoteTree.modes().get(blob.getKey()), index)) {
+                    changed.add(blob.getKey());
+                }
             }
-
-            String remoteUrl = Files.readString(configPath).trim();
-            if (!remoteUrl.startsWith("https://github.com/")) {
-                System.out.println("❌ Invalid remote URL in config.");
+            int unchanged = remoteTree.blobs().size() - changed.size();
+            if (changed.isEmpty()) {
+                System.out.println("✅ Already up to date (" + unchanged + " files unchanged).");
                 return;
             }
 
-            String[] parts = remoteUrl.replace("https://github.com/", "").replace(".git", "").split("/");
-            if (parts.length != 2) {
-                System.out.println("❌ Remote URL format incorrect.");
-                return;
+            // Step 4: Download the changed files concurrently, streaming to disk
+            ObjectStore store = intoWorkTree ? ObjectStore.open() : null;
+            Queue<Index.Entry> pulled = new ConcurrentLinkedQueue<>();
+            AtomicInteger failed = new AtomicInteger();
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, jobs));
+            try {
+                List<Future<?>> downloads = new ArrayList<>();
+                for (String path : changed) {
+                    String sha = remoteTree.blobs().get(path);
+                    int mode = remoteTree.modes().get(path);
+                    downloads.add(pool.submit(() -> {
+                        try {
+                            Path file = target.resolve(path);
+                            download(client, sha, mode, file, store);
+                            if (index != null) {
+                                pulled.add(new Index.Entry(path, sha, FileStat.of(file)));
+                            }
+                            System.out.println("⬇️  Pulled: " + path);
+                        } catch (IOException e) {
+                            System.out.println("❌ Failed to pull " + path + ": " + e.getMessage());
+                            failed.incrementAndGet();
+                        }
+                    }));
+                }
+                for (Future<?> download : downloads) {
+                    download.get();
+                }
+            } finally {
+                pool.shutdownNow();
             }
 
-            String username = parts[0];
-            String repo = parts[1];
-
-            // Step 3: Download files recursively into the target folder
-            pullDirectory(username, repo, "", token, targetDir);
-
-            System.out.println("✅ Pull complete into: " + targetDir);
+            // Step 5: Pulled files are staged so status sees them as clean
+            if (index != null && !pulled.isEmpty()) {
+                pulled.forEach(index::put);
+                index.save();
+            }
 
-        } catch (Exception e) {
+            int downloaded = changed.size() - failed.get();
+            if (failed.get() == 0) {
+                System.out.println("✅ Pull complete into: " + targetDir + " (" + downloaded + " pulled, "
+                        + unchanged + " unchanged)");
+            } else {
+                System.out.println("⚠️ Pull finished with errors: " + downloaded + " pulled, "
+                        + failed.get() + " failed, " + unchanged + " unchanged.");
+            }
+        } catch (IllegalStateException e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        } catch (NumberFormatException e) {
+            System.out.println("❌ Invalid --jobs value: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Pull interrupted.");
+        } catch (ExecutionException e) {
+            System.out.println("❌ Pull failed: " + e.getCause().getMessage());
+        } catch (IOException e) {
             System.out.println("❌ Pull failed: " + e.getMessage());
         }
     }
 
-    private void pullDirectory(String username, String repo, String path, String token, String targetDir) throws IOException, JSONException {
-        String apiUrl = String.format("https://api.github.com/repos/%s/%s/contents/%s", username, repo, URLEncoder.encode(path, "UTF-8"));
-        JSONArray contents = getJsonArray(apiUrl, token);
-
-        for (int i = 0; i < contents.length(); i++) {
-            JSONObject file = contents.getJSONObject(i);
-            String filePath = file.getString("path");
-            String type = file.getString("type");
-
-            Path targetPath = Paths.get(targetDir, filePath);
-
-            if (type.equals("file")) {
-                String downloadUrl = file.optString("download_url", null);
-                if (downloadUrl == null) continue;
-
-                Files.createDirectories(targetPath.getParent());
-                try (InputStream in = new URL(downloadUrl).openStream()) {
-                    Files.copy(in, targetPath, StandardCopyOption.REPLACE_EXISTING);
-                    System.out.println("⬇️  Pulled: " + filePath);
-                }
-            } else if (type.equals("dir")) {
-                pullDirectory(username, repo, filePath, token, targetDir);
+    private boolean isUpToDate(Path file, String path, String sha, int mode, Index index) throws IOException {
+        if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+        FileStat stat = FileStat.of(file);
+        if (stat.mode() != Tree.fileMode(mode)) {
+            return false;
+        }
+        if (index != null) {
+            Index.Entry entry = index.get(path);
+            if (entry != null && entry.id().equals(sha) && index.isUpToDate(entry, stat)) {
+                return true;
             }
         }
+        return FileHasher.hashFile(file).equals(sha);
     }
 
-    private JSONArray getJsonArray(String apiUrl, String token) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection) new URL(apiUrl).openConnection();
-        conn.setRequestProperty("Authorization", "Bearer " + token);
-        conn.setRequestProperty("Accept", "application/vnd.github.v3+json");
-
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()))) {
-            StringBuilder json = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                json.append(line);
+    // Streams the blob into a temp file next to the target and renames it into
+    // place once its content is verified, so a failed download never leaves a
+    // half-written file behind.
+    private void download(GitHubClient client, String sha, int mode, Path file, ObjectStore store) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = WorkTree.createTemp(parent, ".bit-pull-", mode);
+        try {
+            client.downloadBlob(sha, temp);
+            if (!FileHasher.hashFile(temp).equals(sha)) {
+                throw new IOException("downloaded content does not match " + sha);
+            }
+            if (store != null) {
+                store.writeBlob(temp, sha);
             }
-            return new JSONArray(json.toString());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
         }
     }
-}
\ No newline at end of file
+}
@@ -1,145 +1,345 @@
 package bit.commands;
 
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.*;
-import java.util.Base64;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
+import java.net.http.HttpResponse;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import bit.utils.Base64Body;
+import bit.utils.Commit;
+import bit.utils.GitHubClient;
+import bit.utils.GitHubRemote;
+import bit.utils.Index;
+import bit.utils.ObjectStore;
+import bit.utils.PushJournal;
+import bit.utils.Refs;
+import bit.utils.Tree;
+import bit.utils.TreeBuilder;
+
+// Pushes the staged files to GitHub as a single commit through the Git Data
+// API: only blobs GitHub doesn't have yet are uploaded (in parallel), one
+// tree is built on top of the remote branch's tree, one commit is made with
+// the remote head as parent, and the branch is fast-forwarded to it. Progress
+// is journaled (see PushJournal), so running it again after an interruption
+// re-uploads nothing.
+//
+// --per-file keeps the older behavior of one contents-API commit per changed
+// file. It is also used for a remote without any commits, which the Git Data
+// API refuses until the repository has been initialized.
 public class PushCommand implements RunnableCommand {
+    private static final int DEFAULT_JOBS = 8;
+    private static final int MAX_ATTEMPTS = 5;
 
     @Override
     public void run(String[] args) {
         try {
-            // Step 0: Get token from CLI or environment
-            String token = null;
+            // Step 0: Read remote, token and options
+            GitHubRemote remote = GitHubRemote.fromConfig(args);
+            int jobs = DEFAULT_JOBS;
+            String branch = null;
+            String message = null;
+            boolean perFile = false;
             for (String arg : args) {
-                if (arg.startsWith("--token=")) {
-                    token = arg.substring("--token=".length());
-                    break;
+                if (arg.startsWith("--jobs=")) {
+                    jobs = Integer.parseInt(arg.substring("--jobs=".length()));
+                } else if (arg.startsWith("--branch=")) {
+                    branch = arg.substring("--branch=".length());
+                } else if (arg.startsWith("--message=")) {
+                    message = arg.substring("--message=".length());
+                } else if (arg.equals("--per-file")) {
+                    perFile = true;
                 }
             }
-            if (token == null || token.isBlank()) {
-                token = System.getenv("GITHUB_TOKEN");
-            }
-            if (token == null || token.isBlank()) {
-                System.out.println("❌ Error: GitHub token is not provided via --token or GITHUB_TOKEN env variable.");
+
+            // Step 1: Read index file for all staged files
+            Index index = Index.load();
+            if (index.isEmpty()) {
+                System.out.println("Nothing to upload. No index found.");
                 return;
             }
 
-            // Step 1: Read the remote origin from config
-            String remoteUrl = Files.readString(Paths.get(".bit/config")).trim();
-            if (!remoteUrl.startsWith("https://github.com/") || !remoteUrl.endsWith(".git")) {
-                System.out.println("Invalid remote URL in .bit/config");
-                return;
+            GitHubClient client = new GitHubClient(remote);
+            if (perFile) {
+                pushFiles(client, index, branch, jobs);
+            } else {
+                pushCommit(client, index, branch, message, jobs);
             }
+        } catch (IllegalStateException e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        } catch (NumberFormatException e) {
+            System.out.println("❌ Invalid --jobs value: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Upload interrupted.");
+        } catch (ExecutionException e) {
+            System.out.println("Upload failed: " + e.getCause().getMessage());
+        } catch (IOException e) {
+            System.out.println("Upload failed: " + e.getMessage());
+        }
+    }
 
-            // Step 2: Parse username and repo
-            String[] parts = remoteUrl.replace("https://github.com/", "").replace(".git", "").split("/");
-            if (parts.length != 2) {
-                System.out.println("Remote URL parsing failed.");
-                return;
+    private void pushCommit(GitHubClient client, Index index, String branch, String message, int jobs)
+            throws IOException, InterruptedException, ExecutionException {
+        ObjectStore store = ObjectStore.open();
+
+        // Step 2: Find the remote branch. Local tree ids are Git tree ids, so
+        // an identical remote tree means there is nothing to push.
+        String target = branch != null ? branch : client.defaultBranch();
+        GitHubClient.Head head;
+        try {
+            head = client.head(target);
+        } catch (GitHubClient.ApiException e) {
+            if (e.status() != 409) throw e;
+            System.out.println("ℹ️ The remote repository is empty; uploading file by file to create its first commit.");
+            pushFiles(client, index, branch, jobs);
+            return;
+        }
+        String localTree = TreeBuilder.write(store, index);
+        index.save(); // keeps the cache-tree for the next commit or push
+        if (head != null && head.tree().equals(localTree)) {
+            System.out.println("✅ Everything up to date (" + index.size() + " files unchanged).");
+            return;
+        }
+
+        GitHubClient.RemoteTree remoteTree = head != null ? client.listTree(head.commit()) : GitHubClient.RemoteTree.EMPTY;
+        List<Index.Entry> changed = new ArrayList<>();
+        for (Index.Entry entry : index.entries()) {
+            if (!entry.id().equals(remoteTree.blobs().get(entry.path()))
+                    || Tree.fileMode(entry.stat().mode()) != remoteTree.modes().get(entry.path())) {
+                changed.add(entry);
             }
-            String username = parts[0];
-            String repo = parts[1];
+        }
 
-            // Step 3: Read index file for all staged files
-            Path indexPath = Paths.get(".bit/index");
-            if (!Files.exists(indexPath)) {
-                System.out.println("Nothing to upload. No index found.");
-                return;
+        // Step 3: Upload the blobs GitHub has under no path at all, skipping
+        // the ones an interrupted push already uploaded
+        PushJournal journal = PushJournal.open(client.remote());
+        Set<String> remoteBlobs = new HashSet<>(remoteTree.blobs().values());
+        Map<String, String> missing = new TreeMap<>(); // blob id -> a path it is staged under
+        int resumed = 0;
+        for (Index.Entry entry : changed) {
+            if (remoteBlobs.contains(entry.id()) || missing.containsKey(entry.id())) continue;
+            if (journal.hasBlob(entry.id())) {
+                resumed++;
+            } else {
+                missing.put(entry.id(), entry.path());
+            }
+        }
+        int failed = uploadBlobs(client, store, journal, missing, jobs);
+        if (failed > 0) {
+            System.out.println("⚠️ " + failed + " of " + missing.size() + " blobs failed to upload. Run `bit upload` again to resume.");
+            return;
+        }
+
+        // Step 4: One tree: the remote tree with only the changed paths
+        // replaced. Without a complete listing, nothing is deleted.
+        JSONArray entries = new JSONArray();
+        int deleted = 0;
+        for (Index.Entry entry : changed) {
+            entries.put(treeEntry(entry.path(), Integer.toOctalString(Tree.fileMode(entry.stat().mode())), entry.id()));
+        }
+        if (remoteTree.truncated()) {
+            System.out.println("⚠️ The remote tree is too large to list in one request; files deleted locally stay on the remote.");
+        } else {
+            for (String path : new TreeSet<>(remoteTree.blobs().keySet())) {
+                if (!index.contains(path)) {
+                    entries.put(treeEntry(path, "100644", null));
+                    deleted++;
+                }
+            }
+        }
+        String tree;
+        try {
+            tree = entries.isEmpty() ? head.tree() : client.createTree(head != null ? head.tree() : null, entries);
+        } catch (GitHubClient.ApiException e) {
+            if (e.status() != 422) throw e;
+            journal.delete(); // blobs it lists may have been dropped by GitHub since
+            System.out.println("❌ GitHub rejected the tree: " + e.getMessage() + ". Run `bit upload` again.");
+            return;
+        }
+
+        // Step 5: One commit on top of the remote head, then fast-forward the branch
+        String parent = head != null ? head.commit() : null;
+        String commit = journal.commitFor(tree, parent, target);
+        if (commit == null) {
+            commit = client.createCommit(message != null ? message : defaultMessage(store, localTree), tree,
+                    parent != null ? List.of(parent) : List.of());
+            journal.commitCreated(commit, tree, parent, target);
+        }
+        try {
+            if (head != null) {
+                client.updateBranch(target, commit);
+            } else {
+                client.createBranch(target, commit);
             }
+        } catch (GitHubClient.ApiException e) {
+            if (e.status() != 422) throw e;
+            System.out.println("❌ The remote branch " + target + " moved during the upload. Run `bit upload` again.");
+            return;
+        }
+        journal.delete();
 
-            // Step 4: Upload each file using GitHub API
-            for (String line : Files.readAllLines(indexPath)) {
-                String[] split = line.trim().split(" ", 2);
-                if (split.length != 2) continue;
+        System.out.println("✅ Pushed " + commit.substring(0, 7) + " to " + target + ": " + changed.size() + " files changed, "
+                + (deleted > 0 ? deleted + " deleted, " : "") + missing.size() + " blobs uploaded"
+                + (resumed > 0 ? ", " + resumed + " from an earlier attempt" : "") + ", " +(index.size() - changed.size()) + " unchanged.");
+    }
 
-                String hash = split[0];
-                String filePath = split[1];
-                Path objectPath = Paths.get(".bit/objects/" + hash);
-                if (!Files.exists(objectPath)) continue;
+    // Uploads the blobs concurrently and journals each one GitHub confirms;
+    // returns how many failed
+    private int uploadBlobs(GitHubClient client, ObjectStore store, PushJournal journal, Map<String, String> blobs,
+                            int jobs) throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, jobs));
+        AtomicInteger failed = new AtomicInteger();
+        try {
+            List<Future<?>> uploads = new ArrayList<>();
+            for (Map.Entry<String, String> blob : blobs.entrySet()) {
+                uploads.add(pool.submit(() -> {
+                    try {
+                        String sha = client.createBlob(store, blob.getKey());
+                        if (!sha.equals(blob.getKey())) {
+                            throw new IOException("GitHub stored it as " + sha + " instead of " + blob.getKey());
+                        }
+                        journal.blobUploaded(sha);
+                        System.out.println("✔️ Uploaded: " + blob.getValue());
+                    } catch (IOException e) {
+                        System.out.println("❌ Failed to upload " + blob.getValue() + ": " + e.getMessage());
+                        failed.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> upload : uploads) {
+                upload.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return failed.get();
+    }
 
-                byte[] contentBytes = Files.readAllBytes(objectPath);
-                String contentBase64 = Base64.getEncoder().encodeToString(contentBytes);
+    private static JSONObject treeEntry(String path, String mode, String sha) {
+        return new JSONObject()
+                .put("path", path)
+                .put("mode", mode)
+                .put("type", "blob")
+                .put("sha", sha != null ? sha : JSONObject.NULL);
+    }
 
-              String cleanedPath = filePath.replace("\\", "/").replaceFirst("^\\./", ""); // remove leading ./ if any
-              String encodedPath = URLEncoder.encode(cleanedPath, StandardCharsets.UTF_8)
-                               .replace("+", "%20"); // GitHub prefers %20 over +
+    // The message of the last local commit if it saved exactly what is staged
+    private static String defaultMessage(ObjectStore store, String tree) throws IOException {
+        String head = Refs.open().head();
+        if (head != null && tree.equals(Commit.treeOf(store, head))) {
+            return Commit.read(store, head).message();
+        }
+        return "bit upload";
+    }
+
+    // One contents-API commit per changed file
+    private void pushFiles(GitHubClient client, Index index, String branch, int jobs)
+            throws IOException, InterruptedException, ExecutionException {
+        // Step 2: Fetch every remote blob sha with a single request. Local
+        // object ids are Git blob ids, so unchanged files compare equal.
+        GitHubClient.RemoteTree remoteTree = client.listTree(branch != null ? branch : "HEAD");
 
+        List<Index.Entry> changed = new ArrayList<>();
+        for (Index.Entry entry : index.entries()) {
+            if (!entry.id().equals(remoteTree.blobs().get(entry.path()))) {
+                changed.add(entry);
+            }
+        }
+        int unchanged = index.size() - changed.size();
+        if (changed.isEmpty()) {
+            System.out.println("✅ Everything up to date (" + unchanged + " files unchanged).");
+            return;
+        }
 
-                String apiUrl = String.format(
-                    "https://api.github.com/repos/%s/%s/contents/%s",
-                    username,
-                    repo,
-                    encodedPath
-                );
-                uploadToGitHub(apiUrl, token, contentBase64, "bit upload: " + filePath);
+        // Step 3: Upload the remaining files concurrently over the shared client
+        ObjectStore store = ObjectStore.open();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, jobs));
+        AtomicInteger failed = new AtomicInteger();
+        try {
+            List<Future<?>> uploads = new ArrayList<>();
+            String targetBranch = branch;
+            for (Index.Entry entry : changed) {
+                uploads.add(pool.submit(() -> {
+                    try {
+                        if (!upload(client, store, entry, remoteTree, targetBranch)) {
+                            failed.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        System.out.println("❌ Failed to upload " + entry.path() + ": " + e.getMessage());
+                        failed.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> upload : uploads) {
+                upload.get();
             }
+        } finally {
+            pool.shutdownNow();
+        }
 
-            System.out.println("✅ Upload complete!");
-        } catch (IOException e) {
-            System.out.println("Upload failed: " + e.getMessage());
+        int uploaded = changed.size() - failed.get();
+        if (failed.get() == 0) {
+            System.out.println("✅ Upload complete! " + uploaded + " uploaded, " + unchanged + " unchanged.");
+        } else {
+            System.out.println("⚠️ Upload finished with errors: " + uploaded + " uploaded, "
+                    + failed.get() + " failed, " + unchanged + " unchanged.");
         }
     }
 
-private void uploadToGitHub(String apiUrl, String token, String base64Content, String message) throws IOException {
-    // Step 1: Check if file exists to get its SHA
-    String existingSha = null;
-    HttpURLConnection checkConn = (HttpURLConnection) new URL(apiUrl).openConnection();
-    checkConn.setRequestMethod("GET");
-    checkConn.setRequestProperty("Authorization", "Bearer " + token);
-    checkConn.setRequestProperty("Accept", "application/vnd.github.v3+json");
-
-    int checkResponseCode = checkConn.getResponseCode();
-    if (checkResponseCode == 200) {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(checkConn.getInputStream()))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) sb.append(line);
-            String json = sb.toString();
-
-            int shaIndex = json.indexOf("\"sha\":\"");
-            if (shaIndex != -1) {
-                int shaStart = shaIndex + 7;
-                int shaEnd = json.indexOf("\"", shaStart);
-                existingSha = json.substring(shaStart, shaEnd);
+    private boolean upload(GitHubClient client, ObjectStore store, Index.Entry entry,
+                           GitHubClient.RemoteTree remoteTree, String branch) throws IOException {
+        String url = client.remote().repoUrl("/contents/" + GitHubClient.encodePath(entry.path()));
+        String existingSha = remoteTree.blobs().get(entry.path());
+        if (existingSha == null && remoteTree.truncated()) {
+            existingSha = fetchSha(client, url, branch); // not in the truncated listing
+        }
+
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            JSONObject fields = new JSONObject().put("message", "bit upload: " + entry.path());
+            if (existingSha != null) fields.put("sha", existingSha);
+            if (branch != null) fields.put("branch", branch);
+
+            // The content is streamed from the store, never held in memory whole
+            HttpResponse<String> response = client.send(client.request(url)
+                    .header("Content-Type", "application/json")
+                    .PUT(Base64Body.of(fields, "content", store, entry.id()))
+                    .build());
+
+            int code = response.statusCode();
+            if (code == 200 || code == 201) {
+                System.out.println("✔️ Uploaded: " + entry.path());
+                return true;
+            } else if (code == 409 && attempt < MAX_ATTEMPTS) {
+                // Another upload moved the branch at the same moment; try again
+                backoff(attempt);
+            } else if (code == 422 && existingSha == null && attempt < MAX_ATTEMPTS) {
+                // The file exists remotely but wasn't listed yet
+                existingSha = fetchSha(client, url, branch);
+            } else {
+                System.out.println("❌ Failed to upload " + entry.path() + ": " + response.body());
+                return false;
             }
         }
+        return false;
     }
 
-    // Step 2: Upload with PUT and optional SHA
-    HttpURLConnection conn = (HttpURLConnection) new URL(apiUrl).openConnection();
-    conn.setRequestMethod("PUT");
-    conn.setRequestProperty("Authorization", "Bearer " + token);
-    conn.setRequestProperty("Accept", "application/vnd.github.v3+json");
-    conn.setRequestProperty("Content-Type", "application/json");
-    conn.setDoOutput(true);
-
-    String jsonBody = String.format(
-        "{\n" +
-        "  \"message\": \"%s\",\n" +
-        "  \"content\": \"%s\"%s\n" +
-        "}",
-        message,
-        base64Content,
-        (existingSha != null ? ",\n  \"sha\": \"" + existingSha + "\"" : "")
-    );
-
-    try (OutputStream os = conn.getOutputStream()) {
-        os.write(jsonBody.getBytes());
+    private String fetchSha(GitHubClient client, String url, String branch) throws IOException {
+        String query = branch != null ? "?ref=" + GitHubClient.encodePath(branch) : "";
+        HttpResponse<String> response = client.send(client.request(url + query).GET().build());
+        if (response.statusCode() != 200) return null;
+        return new JSONObject(response.body()).optString("sha", null);
     }
 
-    int responseCode = conn.getResponseCode();
-    if (responseCode == 201 || responseCode == 200) {
-        System.out.println("✔️ Uploaded: " + apiUrl);
-    } else {
-        String error = new String(conn.getErrorStream().readAllBytes());
-        System.out.println("❌ Failed to upload " + apiUrl + ": " + error);
+    private void backoff(int attempt) throws InterruptedIOException {
+        try {
+            Thread.sleep(attempt * 250L + ThreadLocalRandom.current().nextInt(250));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Upload interrupted");
+        }
     }
 }
-
-}
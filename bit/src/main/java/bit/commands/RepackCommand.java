@@ -0,0 +1,73 @@
+package bit.commands;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+import bit.utils.CommitGraph;
+import bit.utils.History;
+import bit.utils.Index;
+import bit.utils.ObjectStore;
+import bit.utils.PackFile;
+import bit.utils.PackWriter;
+import bit.utils.Refs;
+
+public class RepackCommand implements RunnableCommand {
+
+    @Override
+    public void run(String[] args) {
+        try {
+            ObjectStore store = ObjectStore.open();
+
+            // Step 1: Collect every loose and already-packed object
+            List<String> loose = store.listLoose();
+            List<Path> oldPacks = new ArrayList<>();
+            Set<String> ids = new TreeSet<>(loose);
+            for (PackFile pack : store.packs()) {
+                ids.addAll(pack.ids());
+                oldPacks.add(pack.path());
+            }
+
+            if (loose.isEmpty() && oldPacks.size() <= 1) {
+                System.out.println("✅ Nothing to repack.");
+                return;
+            }
+
+            // Step 2: Use staged paths as name hints so versions of a file delta against each other
+            Map<String, String> nameHints = new HashMap<>();
+            for (Index.Entry entry : Index.load().entries()) {
+                nameHints.put(entry.id(), entry.path());
+            }
+
+            // Step 3: Write the new pack, then drop everything it replaces
+            PackWriter.Result result = new PackWriter(store, nameHints).write(ids, store.packDir());
+            store.closePacks();
+
+            for (Path pack : oldPacks) {
+                if (pack.equals(result.pack())) continue;
+                String name = pack.getFileName().toString();
+                Files.deleteIfExists(pack.resolveSibling(name.replace(".pack", ".idx")));
+                Files.deleteIfExists(pack);
+            }
+            for (String id : loose) {
+                store.deleteLoose(id);
+            }
+            store.removeEmptyFanoutDirs();
+
+            // Step 4: Rebuild the commit-graph from every branch while we're at it
+            Refs refs = Refs.open();
+            List<String> tips = new ArrayList<>();
+            for (String branch : refs.branches()) {
+                String tip = refs.resolve(branch);
+                if (tip != null) tips.add(tip);
+            }
+            if (refs.mergeHead() != null) tips.add(refs.mergeHead());
+            History.rebuild(store, tips, CommitGraph.DEFAULT_PATH);
+
+            System.out.println("📦 Packed " + result.objects() + " objects (" + result.deltas() + " deltas) into "
+                    + result.pack().getFileName());
+        } catch (IOException e) {
+            System.out.println("❌ Repack failed: " + e.getMessage());
+        }
+    }
+}
@@ -3,102 +3,159 @@ package bit.commands;
 import java.io.IOException;
 import java.nio.file.*;
 import java.util.*;
-import java.util.stream.Collectors;
 
+import bit.utils.Commit;
 import bit.utils.FileHasher;
+import bit.utils.FileStat;
+import bit.utils.FsMonitor;
+import bit.utils.IgnoreRules;
+import bit.utils.Index;
+import bit.utils.ObjectStore;
+import bit.utils.Refs;
+import bit.utils.RenameDetector;
+import bit.utils.Tree;
+import bit.utils.TreeBuilder;
+import bit.utils.TreeDiff;
+import bit.utils.WorkTree;
 
 public class StatusCommand implements RunnableCommand {
 
     @Override
     public void run(String[] args) {
+        boolean renames = !Arrays.asList(args).contains("--no-renames");
+        boolean copies = Arrays.asList(args).contains("--find-copies");
         try {
-            Set<String> staged = new HashSet<>();
-            Set<String> committed = new HashSet<>();
-            Map<String, String> stagedHashes = new HashMap<>();
-
-            // Read staged files from index
-            Path indexPath = Paths.get(".bit/index");
-            if (Files.exists(indexPath)) {
-                for (String line : Files.readAllLines(indexPath)) {
-                    String[] parts = line.split(" ", 2);
-                    if (parts.length == 2) {
-                        staged.add(parts[1]);
-                        stagedHashes.put(parts[1], parts[0]);
-                    }
-                }
+            // Staged changes: the index against the HEAD tree. Directories whose
+            // cached tree id matches HEAD are skipped without being read.
+            Index index = Index.load();
+            Refs refs = Refs.open();
+            ObjectStore store = ObjectStore.open();
+            List<TreeDiff.Change> staged = TreeBuilder.diffIndex(store, index, Commit.treeOf(store, refs.head()));
+
+            // Scan working directory: with a live watcher only the paths it saw
+            // change since the last status are looked at, otherwise walk everything.
+            // The watcher first has to confirm it has seen every change made so far.
+            IgnoreRules ignore = IgnoreRules.load();
+            FsMonitor monitor = FsMonitor.open();
+            String session = monitor.liveSession();
+            long journalEnd = session != null ? monitor.sync(FsMonitor.SYNC_TIMEOUT_MS) : -1;
+            if (journalEnd < 0 || !Objects.equals(session, monitor.liveSession())) {
+                session = null;
             }
-
-            // Resolve HEAD to commit hash
-            Path headPath = Paths.get(".bit/HEAD");
-            if (Files.exists(headPath)) {
-                String headContent = Files.readString(headPath).trim();
-                if (headContent.startsWith("ref: ")) {
-                    String refPathStr = headContent.substring(5); // remove "ref: "
-                    Path refPath = Paths.get(".bit", refPathStr);
-                    if (Files.exists(refPath)) {
-                        headContent = Files.readString(refPath).trim(); // actual commit hash
-                    } else {
-                        System.out.println("❌ HEAD ref missing: " + refPath);
-                        return;
-                    }
+            TreeMap<String, String> files = session != null ? changedSinceSnapshot(monitor, session, journalEnd, ignore) : null;
+            if (files == null) {
+                files = new TreeMap<>();
+                for (String path : walk(Paths.get("."), ignore)) {
+                    files.put(path, null);
                 }
+            }
 
-                if (headContent.length() >= 40) {
-                    String dir = headContent.substring(0, 2);
-                    String file = headContent.substring(2);
-                    Path commitPath = Paths.get(".bit", "objects", dir, file);
-
-                    if (Files.exists(commitPath)) {
-                        List<String> lines = Files.readAllLines(commitPath);
-                        boolean treeSection = false;
-                        for (String line : lines) {
-                            if (line.startsWith("tree")) {
-                                treeSection = true;
-                            } else if (treeSection && line.contains(" ")) {
-                                String[] parts = line.trim().split(" ", 2);
-                                if (parts.length == 2) {
-                                    committed.add(parts[1]);
-                                }
+            List<String> modified = new ArrayList<>();
+            List<String> untracked = new ArrayList<>();
+            boolean refreshed = false;
+
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                String path = file.getKey();
+                Index.Entry entry = index.get(path);
+
+                if (entry != null) {
+                    String currentHash = file.getValue();
+                    boolean modeChanged = false;
+                    if (currentHash == null) {
+                        FileStat stat = FileStat.of(Paths.get(path));
+                        modeChanged = stat.mode() != Tree.fileMode(entry.stat().mode());
+                        if (index.isUpToDate(entry, stat)) {
+                            currentHash = entry.id(); // stat cache hit, no need to rehash
+                        } else {
+                            currentHash = FileHasher.hashFile(Paths.get(path));
+                            if (entry.id().equals(currentHash) && !modeChanged) {
+                                // Content is unchanged, remember the new stat data
+                                index.put(new Index.Entry(path, entry.id(), stat));
+                                refreshed = true;
                             }
                         }
+                        file.setValue(currentHash);
+                    }
+                    if (!entry.id().equals(currentHash) || modeChanged) {
+                        modified.add(path);
                     }
+                } else {
+                    untracked.add(path);
                 }
             }
 
-            // Scan working directory
-            List<Path> allFiles = Files.walk(Paths.get("."))
-                    .filter(p -> !Files.isDirectory(p))
-                    .filter(p -> !p.startsWith(Paths.get(".bit")))
-                    .collect(Collectors.toList());
-
-            List<String> modified = new ArrayList<>();
-            List<String> untracked = new ArrayList<>();
+            if (refreshed) {
+                try {
+                    index.save();
+                } catch (IOException e) {
+                    // Refreshing the stat cache is only an optimization
+                }
+            }
+            if (session != null) {
+                monitor.writeSnapshot(new FsMonitor.Snapshot(session, journalEnd, files));
+            }
 
-            for (Path file : allFiles) {
-                String path = file.toString().replace("\\", "/");
-                String currentHash = FileHasher.hashFile(file);
+            // Tracked files that are gone from the working tree
+            List<String> deleted = new ArrayList<>();
+            for (Index.Entry entry : index.entries()) {
+                if (!files.containsKey(entry.path()) && !Files.exists(Paths.get(entry.path()))) {
+                    deleted.add(entry.path());
+                }
+            }
 
-                if (staged.contains(path)) {
-                    String stagedHash = stagedHashes.get(path);
-                    if (!stagedHash.equals(currentHash)) {
-                        modified.add(path);
-                    }
-                } else if (!committed.contains(path)) {
-                    untracked.add(path);
+            // A moved file is one rename, not a deletion plus an untracked file
+            RenameDetector detector = renames ? RenameDetector.open(store) : null;
+            List<RenameDetector.Match> stagedRenames = List.of();
+            if (detector != null && (copies || detector.findCopies())) {
+                stagedRenames = withCopies(detector, staged, index);
+            } else if (detector != null) {
+                stagedRenames = detector.detect(staged);
+            }
+            List<RenameDetector.Match> moved = List.of();
+            if (detector != null && !deleted.isEmpty() && !untracked.isEmpty()) {
+                List<RenameDetector.Side> gone = new ArrayList<>();
+                for (String path : deleted) gone.add(new RenameDetector.Side(path, index.get(path).id(), null));
+                List<RenameDetector.Side> appeared = new ArrayList<>();
+                for (String path : untracked) appeared.add(new RenameDetector.Side(path, null, Paths.get(path)));
+                moved = detector.detect(gone, appeared);
+                Set<String> matched = new HashSet<>();
+                for (RenameDetector.Match match : moved) {
+                    matched.add(match.to());
+                    if (!match.copy()) matched.add(match.from());
                 }
+                untracked.removeIf(matched::contains);
+                deleted.removeIf(matched::contains);
             }
 
             // Print output
             System.out.println("📦 Bit Status\n");
 
+            if (refs.mergeHead() != null) {
+                System.out.println("🔀 Merge in progress. Fix the conflicts, then run `bit stage` and `bit save`.\n");
+            }
+
             if (!staged.isEmpty()) {
-                System.out.println("🟢 Staged files:");
-                staged.forEach(f -> System.out.println("   + " + f));
+                System.out.println("🟢 Staged changes:");
+                Set<String> renamed = new HashSet<>();
+                for (RenameDetector.Match match : stagedRenames) {
+                    renamed.add(match.to());
+                    if (!match.copy()) renamed.add(match.from());
+                }
+                for (TreeDiff.Change change : staged) {
+                    if (renamed.contains(change.path())) continue;
+                    String marker = change.oldId() == null ? "+" : change.newId() == null ? "-" : "~";
+                    String mode = change.modeChanged() ? " (mode " + Integer.toOctalString(change.oldMode())
+                            + " → " + Integer.toOctalString(change.newMode()) + ")" : "";
+                    System.out.println("   " + marker + " " + change.path() + mode);
+                }
+                stagedRenames.forEach(match -> System.out.println("   " + describe(match)));
             }
 
-            if (!modified.isEmpty()) {
+            if (!modified.isEmpty() || !deleted.isEmpty() || !moved.isEmpty()) {
                 System.out.println("\n🟡 Modified (not staged):");
                 modified.forEach(f -> System.out.println("   ~ " + f));
+                deleted.forEach(f -> System.out.println("   - " + f));
+                moved.forEach(match -> System.out.println("   " + describe(match)));
             }
 
             if (!untracked.isEmpty()) {
@@ -106,12 +163,80 @@ public class StatusCommand implements RunnableCommand {
                 untracked.forEach(f -> System.out.println("   ? " + f));
             }
 
-            if (staged.isEmpty() && modified.isEmpty() && untracked.isEmpty()) {
+            if (staged.isEmpty() && modified.isEmpty() && deleted.isEmpty() && moved.isEmpty() && untracked.isEmpty()) {
                 System.out.println("✅ Working directory clean!");
             }
 
+        } catch (IllegalStateException e) {
+            System.out.println("❌ " + e.getMessage());
         } catch (IOException e) {
             System.out.println("❌ Error checking status: " + e.getMessage());
         }
     }
+
+    // Staged renames, plus files added as copies of ones that are still
+    // committed. Every other staged file is a copy source, with the id HEAD has.
+    private static List<RenameDetector.Match> withCopies(RenameDetector detector, List<TreeDiff.Change> staged,
+                                                         Index index) throws IOException {
+        List<RenameDetector.Side> deleted = new ArrayList<>();
+        List<RenameDetector.Side> added = new ArrayList<>();
+        List<RenameDetector.Side> modified = new ArrayList<>();
+        Set<String> changed = new HashSet<>();
+        for (TreeDiff.Change change : staged) {
+            changed.add(change.path());
+            if (change.newId() == null) {
+                deleted.add(new RenameDetector.Side(change.path(), change.oldId(), null));
+            } else if (change.oldId() == null) {
+                added.add(new RenameDetector.Side(change.path(), change.newId(), null));
+            } else {
+                modified.add(new RenameDetector.Side(change.path(), change.oldId(), null));
+            }
+        }
+        List<RenameDetector.Side> unchanged = new ArrayList<>();
+        for (Index.Entry entry : index.entries()) {
+            if (!changed.contains(entry.path())) unchanged.add(new RenameDetector.Side(entry.path(), entry.id(), null));
+        }
+        return detector.detect(deleted, added, modified, unchanged);
+    }
+
+    // "→ old → new (87% similar)", or "+ new (copy of old)"
+    private static String describe(RenameDetector.Match match) {
+        String similarity = match.similarity() < 100 ? match.similarity() + "% similar" : null;
+        if (match.copy()) {
+            return "+ " + match.to() + " (copy of " + match.from() + (similarity != null ? ", " + similarity : "") + ")";
+        }
+        return "→ " + match.from() + " → " + match.to() + (similarity != null ? " (" + similarity + ")" : "");
+    }
+
+    // Previous snapshot updated with the watcher's journal, or null if the
+    // snapshot can't be trusted and a full scan is needed.
+    private TreeMap<String, String> changedSinceSnapshot(FsMonitor monitor, String session, long journalEnd,
+                                                         IgnoreRules ignore) throws IOException {
+        FsMonitor.Snapshot snapshot = monitor.readSnapshot();
+        if (snapshot == null || !snapshot.session().equals(session) || snapshot.journalOffset() > journalEnd) {
+            return null;
+        }
+
+        TreeMap<String, String> files = new TreeMap<>(snapshot.files());
+        for (String dirty : monitor.readJournal(snapshot.journalOffset(), journalEnd).paths()) {
+            files.remove(dirty);
+            files.subMap(dirty + "/", dirty + "0").clear(); // everything under a dirty directory
+
+            Path path = Paths.get(dirty);
+            if (Files.isRegularFile(path)) {
+                if (!ignore.isExcluded(dirty, false)) files.put(dirty, null);
+            } else if (Files.isDirectory(path)) {
+                for (String child : walk(path, ignore)) {
+                    files.put(child, null);
+                }
+            }
+        }
+        return files;
+    }
+
+    private List<String> walk(Path root, IgnoreRules ignore) throws IOException {
+        List<String> files = new ArrayList<>();
+        WorkTree.walk(root, ignore, file -> files.add(Index.toIndexPath(file)));
+        return files;
+    }
 }
@@ -4,12 +4,23 @@ import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 
+import bit.utils.Commit;
+import bit.utils.FileStat;
+import bit.utils.History;
+import bit.utils.Index;
+import bit.utils.ObjectStore;
+import bit.utils.Refs;
+import bit.utils.Tree;
+import bit.utils.TreeBuilder;
+import bit.utils.TreeDiff;
+
 public class UndoCommand implements RunnableCommand {
 
     @Override
     public void run(String[] args) {
-        if (args.length != 1 || (!args[0].equals("commit") && !args[0].equals("stage"))) {
-            System.out.println("Usage: bit undo <commit|stage>");
+        if (args.length < 1 || (!args[0].equals("commit") && !args[0].equals("stage"))
+                || (args[0].equals("commit") && args.length != 1)) {
+            System.out.println("Usage: bit undo <commit|stage [<path>...]>");
             return;
         }
 
@@ -18,33 +29,31 @@ public class UndoCommand implements RunnableCommand {
                 undoLastCommit();
                 break;
             case "stage":
-                undoLastStage();
+                undoStage(Arrays.copyOfRange(args, 1, args.length));
                 break;
         }
     }
 
+    // Like `git reset --soft HEAD~1`: the branch moves back to the first
+    // parent, while the index and working tree keep the undone changes
     private void undoLastCommit() {
         try {
-            Path headPath = Paths.get(".bit/HEAD");
-            String branch = Files.readString(headPath).trim().replace("refs/heads/", "");
-            Path branchPath = Paths.get(".bit/refs/heads/" + branch);
-            String currentCommit = Files.readString(branchPath).trim();
-
-            Path logPath = Paths.get(".bit/logs/" + branch);
-            if (!Files.exists(logPath)) {
-                System.out.println("❌ No commit log found. Cannot undo.");
+            Refs refs = Refs.open();
+            String branch = refs.currentBranch();
+            String currentCommit = refs.resolve(branch);
+            if (currentCommit == null) {
+                System.out.println("❌ No commits yet. Nothing to undo.");
                 return;
             }
 
-            List<String> lines = Files.readAllLines(logPath);
-            if (lines.size() < 2) {
+            List<String> parents = History.open(ObjectStore.open()).parents(currentCommit);
+            if (parents.isEmpty()) {
                 System.out.println("❌ Not enough history to undo.");
                 return;
             }
 
-            String previousCommit = lines.get(lines.size() - 2).split(" ")[0];
-            Files.writeString(branchPath, previousCommit);
-            Files.write(logPath, lines.subList(0, lines.size() - 1));
+            String previousCommit = parents.get(0);
+            refs.update(branch, previousCommit, "undo: moving to " + previousCommit);
 
             System.out.println("✅ Reverted to previous commit: " + previousCommit);
         } catch (IOException e) {
@@ -52,24 +61,70 @@ public class UndoCommand implements RunnableCommand {
         }
     }
 
-    private void undoLastStage() {
+    // Like `git reset [<path>...]`: the index entries go back to what HEAD
+    // has, so a committed file is restored rather than staged as deleted.
+    // Without paths, everything staged since HEAD is unstaged.
+    private void undoStage(String[] args) {
         try {
-            Path indexPath = Paths.get(".bit/index");
-            if (!Files.exists(indexPath)) {
-                System.out.println("❌ No staged files.");
-                return;
-            }
+            ObjectStore store = ObjectStore.open();
+            Index index = Index.load();
+            String headTree = Commit.treeOf(store, Refs.open().head());
 
-            List<String> lines = Files.readAllLines(indexPath);
-            if (lines.isEmpty()) {
-                System.out.println("❌ Index is already empty.");
-                return;
+            List<String> paths = new ArrayList<>();
+            if (args.length == 0) {
+                for (TreeDiff.Change change : TreeBuilder.diffIndex(store, index, headTree)) {
+                    paths.add(change.path());
+                }
+                if (paths.isEmpty()) {
+                    System.out.println("⚠️ Nothing staged.");
+                    return;
+                }
+            } else {
+                for (String arg : args) paths.add(Index.toIndexPath(Paths.get(arg)));
             }
 
-            Files.write(indexPath, lines.subList(0, lines.size() - 1));
-            System.out.println("✅ Removed last staged file.");
+            for (String path : paths) {
+                Tree.Entry committed = headTree != null ? lookup(store, headTree, path) : null;
+                Index.Entry staged = index.get(path);
+                if (committed == null) {
+                    if (index.remove(path) != null) {
+                        System.out.println("✅ Unstaged: " + path);
+                    } else {
+                        System.out.println("⚠️ Not staged: " + path);
+                    }
+                } else if (staged == null || !staged.id().equals(committed.id())
+                        || Tree.fileMode(staged.stat().mode()) != committed.mode()) {
+                    // A zeroed stat makes the next `bit check` rehash the file
+                    index.put(new Index.Entry(path, committed.id(), new FileStat(0, 0, 0, 0, committed.mode())));
+                    System.out.println("✅ Unstaged: " + path);
+                } else {
+                    System.out.println("⚠️ Not staged: " + path);
+                }
+            }
+            index.save();
         } catch (IOException e) {
             System.out.println("❌ Error undoing stage: " + e.getMessage());
         }
     }
+
+    // The file entry at `path` below the tree, or null if it has none. A
+    // file where one of the directories should be means there is none too.
+    private static Tree.Entry lookup(ObjectStore store, String treeId, String path) throws IOException {
+        String[] names = path.split("/");
+        String dir = treeId;
+        for (int i = 0; i < names.length; i++) {
+            Tree.Entry found = null;
+            for (Tree.Entry entry : Tree.read(store, dir)) {
+                if (entry.name().equals(names[i])) {
+                    found = entry;
+                    break;
+                }
+            }
+            if (found == null) return null;
+            if (i == names.length - 1) return found.isTree() ? null : found;
+            if (!found.isTree()) return null;
+            dir = found.id();
+        }
+        return null;
+    }
 }
@@ -0,0 +1,164 @@
+package bit.commands;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import bit.utils.FsMonitor;
+import bit.utils.IgnoreRules;
+import bit.utils.Index;
+import bit.utils.WorkTree;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+// Long-running file system monitor. It records every path that changes into
+// the fsmonitor journal so `bit status` only has to look at those paths, and
+// answers the cookies status creates to make sure it has caught up.
+public class WatchCommand implements RunnableCommand {
+    private static final long MAX_JOURNAL_BYTES = 8 * 1024 * 1024;
+
+    private IgnoreRules ignore = IgnoreRules.NONE;
+
+    @Override
+    public void run(String[] args) {
+        FsMonitor monitor = FsMonitor.open();
+
+        try {
+            Files.createDirectories(monitor.lockPath().getParent());
+            try (FileChannel lockChannel = FileChannel.open(monitor.lockPath(),
+                         StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = lockChannel.tryLock()) {
+                if (lock == null) {
+                    System.out.println("❌ A watcher is already running for this repository.");
+                    return;
+                }
+                watch(monitor);
+            }
+        } catch (IOException e) {
+            System.out.println("❌ Watch failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                monitor.stop();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void watch(FsMonitor monitor) throws IOException, InterruptedException {
+        ignore = IgnoreRules.load();
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            Map<WatchKey, Path> keys = new HashMap<>();
+            Path cookieDir = monitor.cookieDir();
+            registerTree(Paths.get("."), watcher, keys);
+            keys.put(cookieDir.register(watcher, ENTRY_CREATE), cookieDir);
+
+            // The session starts only once every directory is registered, so
+            // status never trusts a snapshot that could have missed an event
+            monitor.startSession();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    monitor.stop();
+                } catch (IOException ignored) {
+                }
+            }));
+            System.out.println("👀 Watching " + keys.size() + " directories. Press Ctrl+C to stop.");
+
+            long lastHeartbeat = System.currentTimeMillis();
+            while (true) {
+                WatchKey key = watcher.poll(FsMonitor.HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                Set<String> dirty = new LinkedHashSet<>();
+                List<String> cookies = new ArrayList<>();
+                boolean overflow = false;
+                boolean ignoreChanged = false;
+
+                while (key != null) {
+                    Path dir = keys.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW || dir == null) {
+                            overflow = true;
+                            continue;
+                        }
+                        if (dir.equals(cookieDir)) {
+                            cookies.add(event.context().toString());
+                            continue;
+                        }
+                        Path child = dir.resolve((Path) event.context());
+                        String path = Index.toIndexPath(child);
+                        if (WorkTree.isInternal(path)) continue;
+                        if (path.equals(Index.toIndexPath(IgnoreRules.DEFAULT_PATH))) {
+                            ignoreChanged = true;
+                        }
+
+                        boolean isDirectory = Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS);
+                        if (ignore.isIgnored(path, isDirectory)) continue;
+
+                        dirty.add(path);
+                        if (event.kind() == ENTRY_CREATE && isDirectory) {
+                            // Files created before the directory is registered are picked
+                            // up by status walking the dirty directory
+                            registerTree(child, watcher, keys);
+                        }
+                    }
+                    if (!key.reset()) {
+                        keys.remove(key);
+                    }
+                    key = watcher.poll();
+                }
+
+                if (ignoreChanged) {
+                    // Previously ignored directories may now need watching: start over
+                    ignore = IgnoreRules.load();
+                    keys.keySet().forEach(WatchKey::cancel);
+                    keys.clear();
+                    registerTree(Paths.get("."), watcher, keys);
+                    keys.put(cookieDir.register(watcher, ENTRY_CREATE), cookieDir);
+                    monitor.startSession();
+                } else if (overflow) {
+                    monitor.startSession();
+                    System.out.println("⚠️ File events were lost; the next status will rescan.");
+                } else if (!dirty.isEmpty()) {
+                    monitor.append(dirty);
+                    if (monitor.journalSize() > MAX_JOURNAL_BYTES) {
+                        monitor.startSession(); // compact: the next status does one full scan
+                    }
+                }
+                // After the changes seen with them, so a status waiting on one
+                // of these finds those changes ahead of it in the journal
+                if (!cookies.isEmpty()) {
+                    monitor.acknowledge(cookies);
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastHeartbeat >= FsMonitor.HEARTBEAT_INTERVAL_MS) {
+                    monitor.heartbeat();
+                    lastHeartbeat = now;
+                }
+            }
+        }
+    }
+
+    private void registerTree(Path root, WatchService watcher, Map<WatchKey, Path> keys) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                String path = Index.toIndexPath(dir);
+                if (WorkTree.isInternal(path) || (!path.isEmpty() && ignore.isIgnored(path, true))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                keys.put(dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE; // e.g. a directory deleted while walking
+            }
+        });
+    }
+}
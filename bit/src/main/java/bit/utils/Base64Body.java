@@ -0,0 +1,88 @@
+package bit.utils;
+
+import java.io.*;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.json.JSONObject;
+
+// A JSON request body whose last field is an object's content in base64,
+// for the GitHub endpoints that take file content inline (blobs, contents).
+//
+// The content is never held in memory: each time the HTTP client sends the
+// body (again, on a retry) the object is opened and encoded as it is read,
+// 48 KiB at a time. The length is known up front from the object's size, so
+// the request goes out with a fixed Content-Length.
+public class Base64Body {
+    private static final int BLOCK = 48 * 1024; // a multiple of 3, so only the last block is padded
+
+    private Base64Body() {
+    }
+
+    // `fields` followed by "<field>": "<base64 of the object>"
+    public static HttpRequest.BodyPublisher of(JSONObject fields, String field, ObjectStore store, String id)
+            throws IOException {
+        String json = fields.toString();
+        byte[] prefix = (json.substring(0, json.length() - 1) + (fields.isEmpty() ? "" : ",")
+                + JSONObject.quote(field) + ":\"").getBytes(StandardCharsets.UTF_8);
+        byte[] suffix = "\"}".getBytes(StandardCharsets.UTF_8);
+        long size;
+        try (ObjectStore.ObjectStream in = store.open(id)) {
+            size = in.size();
+        }
+        long length = prefix.length + 4 * ((size + 2) / 3) + suffix.length;
+
+        return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(() -> {
+            try {
+                return new SequenceInputStream(new ByteArrayInputStream(prefix),
+                        new SequenceInputStream(new Encoder(store.open(id)), new ByteArrayInputStream(suffix)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }), length);
+    }
+
+    // Reads base64 of the wrapped stream
+    private static final class Encoder extends InputStream {
+        private final InputStream in;
+        private final byte[] raw = new byte[BLOCK];
+        private final byte[] encoded = new byte[BLOCK / 3 * 4];
+        private int position;
+        private int limit;
+
+        Encoder(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (position == limit && !fill()) return -1;
+            int n = Math.min(len, limit - position);
+            System.arraycopy(encoded, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        private boolean fill() throws IOException {
+            int n = in.readNBytes(raw, 0, raw.length);
+            if (n == 0) return false;
+            limit = Base64.getEncoder().encode(n == raw.length ? raw : Arrays.copyOf(raw, n), encoded);
+            position = 0;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package bit.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+// Changed-path Bloom filters, as stored per commit in the commit-graph.
+//
+// A commit's filter holds every path that differs from its first parent,
+// plus every directory above those paths, so `bit log -- <dir>` can use it
+// too. A lookup that misses proves the path didn't change, and the commit
+// can be skipped without reading a tree; a hit only means "maybe".
+//
+// The layout follows Git's: 10 bits per path rounded up to whole 64-bit
+// words, 7 bit positions from two MurmurHash3 values (double hashing), an
+// empty filter for a commit that changed nothing and a single all-ones byte
+// for one that changed too many paths to be worth filtering.
+public class BloomFilter {
+    public static final int BITS_PER_ENTRY = 10;
+    public static final int HASHES = 7;
+    public static final int MAX_PATHS = 512;
+
+    private static final int SEED_1 = 0x293ae76f;
+    private static final int SEED_2 = 0x7e646e2c;
+    private static final byte[] TOO_LARGE = {(byte) 0xff};
+
+    // The two hash values of a path, computed once and tested against many filters
+    public record Key(int hash1, int hash2) {}
+
+    private BloomFilter() {
+    }
+
+    public static byte[] tooLarge() {
+        return TOO_LARGE.clone();
+    }
+
+    // A filter for the changed files and the directories above them
+    public static byte[] of(Collection<String> files) {
+        Set<String> paths = new HashSet<>();
+        for (String file : files) {
+            paths.add(file);
+            for (int slash = file.lastIndexOf('/'); slash > 0; slash = file.lastIndexOf('/', slash - 1)) {
+                if (!paths.add(file.substring(0, slash))) break;
+            }
+        }
+        if (paths.size() > MAX_PATHS) {
+            return tooLarge();
+        }
+
+        // Whole 64-bit words: a filter of only a few bytes would let the seven
+        // probes fall on the same handful of bits
+        byte[] filter = new byte[(paths.size() * BITS_PER_ENTRY + 63) / 64 * 8];
+        long bits = filter.length * 8L;
+        for (String path : paths) {
+            Key key = key(path);
+            for (int i = 0; i < HASHES; i++) {
+                long bit = position(key, i, bits);
+                filter[(int) (bit >>> 3)] |= (byte) (1 << (bit & 7));
+            }
+        }
+        return filter;
+    }
+
+    public static Key key(String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        return new Key(murmur3(SEED_1, bytes), murmur3(SEED_2, bytes));
+    }
+
+    // False only if the path is certainly not in the filter stored at [offset, offset + length)
+    public static boolean mightContain(ByteBuffer buffer, int offset, int length, Key key) {
+        if (length == 0) return false;
+        long bits = length * 8L;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = position(key, i, bits);
+            if ((buffer.get(offset + (int) (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long position(Key key, int i, long bits) {
+        long hash = (key.hash1() & 0xffffffffL) + i * (key.hash2() & 0xffffffffL);
+        return (hash & 0xffffffffL) % bits;
+    }
+
+    // MurmurHash3, x86 32-bit variant
+    static int murmur3(int seed, byte[] data) {
+        int h = seed;
+        int blocks = data.length / 4;
+        for (int i = 0; i < blocks; i++) {
+            int k = (data[4 * i] & 0xff) | (data[4 * i + 1] & 0xff) << 8
+                    | (data[4 * i + 2] & 0xff) << 16 | (data[4 * i + 3] & 0xff) << 24;
+            h ^= mix(k);
+            h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+        }
+
+        int k = 0;
+        int tail = blocks * 4;
+        int remaining = data.length & 3;
+        if (remaining == 3) k ^= (data[tail + 2] & 0xff) << 16;
+        if (remaining >= 2) k ^= (data[tail + 1] & 0xff) << 8;
+        if (remaining >= 1) {
+            k ^= data[tail] & 0xff;
+            h ^= mix(k);
+        }
+
+        h ^= data.length;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int mix(int k) {
+        k *= 0xcc9e2d51;
+        k = Integer.rotateLeft(k, 15);
+        return k * 0x1b873593;
+    }
+}
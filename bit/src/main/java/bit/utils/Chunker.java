@@ -0,0 +1,88 @@
+package bit.utils;
+
+// FastCDC-style content-defined chunking.
+//
+// A Gear rolling hash (h = (h << 1) + GEAR[byte]) is run over the data and a
+// chunk ends where the hash's top bits are all zero. The boundaries depend only
+// on the bytes around them, so an edit in the middle of a large file changes
+// the chunks next to the edit and leaves every other chunk, and its object id,
+// as it was.
+//
+// Chunking is normalized: before the average size a stricter mask (more bits)
+// is used, after it a looser one, which pulls chunk sizes towards the average.
+// No boundary is looked for in the first minSize bytes, and a chunk is cut at
+// maxSize regardless.
+public class Chunker {
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed seed: the table must never change, or the same file would
+        // chunk differently and stop deduplicating against older versions
+        long seed = 0x62697463646331L;
+        for (int i = 0; i < GEAR.length; i++) {
+            seed += 0x9E3779B97F4A7C15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+    private final long maskSmall;
+    private final long maskLarge;
+
+    public Chunker(int minSize, int avgSize, int maxSize) {
+        if (minSize < 64 || minSize >= avgSize || avgSize >= maxSize) {
+            throw new IllegalArgumentException("Chunk sizes must satisfy 64 <= min < avg < max");
+        }
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+        int bits = 63 - Long.numberOfLeadingZeros(avgSize);
+        this.maskSmall = topBits(bits + 2);
+        this.maskLarge = topBits(bits - 2);
+    }
+
+    public static Chunker of(Settings settings) {
+        long min = settings.size("chunking.min", Settings.DEFAULT_CHUNK_MIN);
+        long avg = settings.size("chunking.avg", Settings.DEFAULT_CHUNK_AVG);
+        long max = settings.size("chunking.max", Settings.DEFAULT_CHUNK_MAX);
+        if (min < 64 || min >= avg || avg >= max || max > (1L << 30)) {
+            throw new IllegalStateException("Invalid chunk sizes in .bit/settings: need 64 <= min < avg < max <= 1g");
+        }
+        return new Chunker((int) min, (int) avg, (int) max);
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    // Length of the chunk starting at data[offset]. length is the number of
+    // bytes available; pass at least maxSize unless the input ends sooner.
+    public int cut(byte[] data, int offset, int length) {
+        if (length <= minSize) return length;
+        int end = Math.min(length, maxSize);
+        int normal = Math.min(avgSize, end);
+
+        long hash = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & maskSmall) == 0) return i + 1;
+        }
+        for (; i < end; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & maskLarge) == 0) return i + 1;
+        }
+        return end;
+    }
+
+    // The top bits of the hash depend on the last 64 bytes, the low bits only
+    // on the last few, so the mask is taken from the top
+    private static long topBits(int bits) {
+        return bits <= 0 ? 0 : -1L << (64 - bits);
+    }
+}
@@ -0,0 +1,117 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+
+// A parsed commit object:
+//
+//   parent: <id>          (zero, one, or two for a merge)
+//   tree: <tree id>
+//   message: <text>
+//   time: <instant>
+//
+// Older commits list every file instead of pointing at a tree:
+//
+//   tree:
+//   <blob id> <path>
+//   ...
+//
+// Those are kept in legacyFiles and turned into tree objects on demand.
+public record Commit(List<String> parents, String tree, SortedMap<String, String> legacyFiles,
+                     String message, String time) {
+
+    public static Commit create(List<String> parents, String tree, String message) {
+        return new Commit(List.copyOf(parents), tree, null, message, Instant.now().toString());
+    }
+
+    public static Commit read(ObjectStore store, String id) throws IOException {
+        return store.readParsed(id, Commit.class, object -> parse(object.data()), Commit::weight);
+    }
+
+    public static Commit parse(byte[] data) {
+        List<String> parents = new ArrayList<>();
+        String tree = null;
+        SortedMap<String, String> legacyFiles = null;
+        String message;
+        String time = "";
+
+        String[] lines = new String(data, StandardCharsets.UTF_8).split("\n");
+        int i = 0;
+        for (; i < lines.length && !lines[i].startsWith("message: "); i++) {
+            String line = lines[i];
+            if (line.startsWith("parent: ")) {
+                parents.add(line.substring("parent: ".length()).trim());
+            } else if (line.startsWith("tree: ")) {
+                tree = line.substring("tree: ".length()).trim();
+            } else if (line.equals("tree:")) {
+                legacyFiles = new TreeMap<>();
+            } else if (legacyFiles != null) {
+                String[] parts = line.split(" ", 2);
+                if (parts.length == 2 && Hex.isObjectId(parts[0])) {
+                    legacyFiles.put(parts[1], parts[0]);
+                }
+            }
+        }
+
+        // The message may span lines; the time line always comes last
+        StringJoiner text = new StringJoiner("\n");
+        for (int start = i; i < lines.length; i++) {
+            if (lines[i].startsWith("time: ") && i == lines.length - 1) {
+                time = lines[i].substring("time: ".length());
+            } else {
+                text.add(i == start ? lines[i].substring("message: ".length()) : lines[i]);
+            }
+        }
+        message = text.toString();
+        // Parsed commits are cached and shared, so nothing in them may change
+        return new Commit(List.copyOf(parents), tree,
+                legacyFiles != null ? Collections.unmodifiableSortedMap(legacyFiles) : null, message, time);
+    }
+
+    // Rough heap size, for the object cache
+    private long weight() {
+        long weight = 64 + 2L * (message.length() + time.length()) + 120L * (parents.size() + 1);
+        if (legacyFiles != null) {
+            for (String path : legacyFiles.keySet()) {
+                weight += 200 + 2L * path.length();
+            }
+        }
+        return weight;
+    }
+
+    public byte[] serialize() {
+        StringBuilder builder = new StringBuilder();
+        for (String parent : parents) {
+            builder.append("parent: ").append(parent).append("\n");
+        }
+        builder.append("tree: ").append(tree).append("\n");
+        builder.append("message: ").append(message).append("\n");
+        builder.append("time: ").append(time).append("\n");
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public String write(ObjectStore store) throws IOException {
+        return store.write(ObjectStore.COMMIT, serialize());
+    }
+
+    // Root tree id. For an old flat commit the trees are written on the fly;
+    // they are content-addressed, so doing it again gives the same id.
+    public String treeId(ObjectStore store) throws IOException {
+        if (tree != null) return tree;
+        return TreeBuilder.write(store, legacyFiles != null ? legacyFiles : Map.of());
+    }
+
+    // Every file in the commit as path -> blob id
+    public SortedMap<String, String> files(ObjectStore store) throws IOException {
+        if (tree == null) return legacyFiles != null ? legacyFiles : new TreeMap<>();
+        return Tree.flatten(store, tree);
+    }
+
+    // Tree id of a commit, or null for no commit
+    public static String treeOf(ObjectStore store, String commitId) throws IOException {
+        if (commitId == null || !store.exists(commitId)) return null;
+        return read(store, commitId).treeId(store);
+    }
+}
@@ -0,0 +1,302 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.*;
+
+// Binary summary of the commit history, so ancestry questions are answered
+// from one file instead of by inflating commit objects. One file holds the
+// whole history or one layer of it (see CommitGraphChain).
+//
+// file  : "BCGR", version, chunk count, chunk table, chunks..., SHA-1 trailer
+//         chunk table = (chunk id, offset) per chunk plus a terminating (0, end)
+// OIDF  : 256-entry fan-out table of cumulative counts
+// OIDL  : sorted 20-byte commit ids
+// CDAT  : per commit: first parent, second parent, generation number, commit
+//         time in epoch seconds. A parent is a position in OIDL, -1 for none,
+//         or -2 - i for the i-th id in PIDS
+// PIDS  : 20-byte ids of parents that are in another file (layers only)
+// BIDX  : per commit: end offset of its changed-path filter in BDAT's data
+// BDAT  : hash count, bits per entry, then the filters back to back (see
+//         BloomFilter); graphs written before filters existed lack BIDX/BDAT
+//
+// The file is read onto the heap rather than memory-mapped, so it can be
+// replaced or deleted on Windows while a command still has it loaded.
+//
+// The generation number of a commit is one more than the highest generation
+// of its parents (1 for a root), so a commit can never be an ancestor of one
+// with a lower or equal generation.
+public class CommitGraph {
+    public static final Path DEFAULT_PATH = Paths.get(".bit/commit-graph");
+
+    static final int MAGIC = 0x42434752;       // "BCGR"
+    static final int VERSION = 1;
+    static final int CHUNK_FANOUT = 0x4f494446; // "OIDF"
+    static final int CHUNK_IDS = 0x4f49444c;    // "OIDL"
+    static final int CHUNK_DATA = 0x43444154;   // "CDAT"
+    static final int CHUNK_BLOOM_INDEX = 0x42494458; // "BIDX"
+    static final int CHUNK_BLOOM_DATA = 0x42444154;  // "BDAT"
+    static final int CHUNK_PARENT_IDS = 0x50494453;  // "PIDS"
+    static final int BLOOM_HEADER_SIZE = 8;
+
+    static final int HEADER_SIZE = 12;
+    static final int CHUNK_ENTRY_SIZE = 12;
+    static final int ID_LENGTH = 20;
+    static final int DATA_WIDTH = 20;
+    static final int NO_PARENT = -1;
+
+    public record Node(String id, List<String> parents, int generation, long time) {}
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int fanoutStart;
+    private final int idsStart;
+    private final int dataStart;
+    private final int bloomIndexStart; // -1 without filters
+    private final int bloomDataStart;
+    private final int parentIdsStart; // -1 when every parent is in this file
+
+    private CommitGraph(ByteBuffer buffer, Map<Integer, Integer> chunks) {
+        this.buffer = buffer;
+        this.fanoutStart = chunks.get(CHUNK_FANOUT);
+        this.idsStart = chunks.get(CHUNK_IDS);
+        this.dataStart = chunks.get(CHUNK_DATA);
+        this.parentIdsStart = chunks.getOrDefault(CHUNK_PARENT_IDS, -1);
+        this.count = buffer.getInt(fanoutStart + 255 * 4);
+
+        // Filters made with other parameters can't be queried; treat them as absent
+        boolean usable = chunks.containsKey(CHUNK_BLOOM_INDEX) && chunks.containsKey(CHUNK_BLOOM_DATA)
+                && buffer.getInt(chunks.get(CHUNK_BLOOM_DATA)) == BloomFilter.HASHES
+                && buffer.getInt(chunks.get(CHUNK_BLOOM_DATA) + 4) == BloomFilter.BITS_PER_ENTRY;
+        this.bloomIndexStart = usable ? chunks.get(CHUNK_BLOOM_INDEX) : -1;
+        this.bloomDataStart = usable ? chunks.get(CHUNK_BLOOM_DATA) + BLOOM_HEADER_SIZE : -1;
+    }
+
+    // The graph is only an accelerator: a missing or unreadable file means
+    // callers fall back to reading commit objects
+    public static CommitGraph load() {
+        return load(DEFAULT_PATH);
+    }
+
+    public static CommitGraph load(Path path) {
+        if (!Files.exists(path)) return null;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).asReadOnlyBuffer();
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                return null;
+            }
+            Map<Integer, Integer> chunks = new HashMap<>();
+            int chunkCount = buffer.getInt(8);
+            for (int i = 0; i < chunkCount; i++) {
+                int entry = HEADER_SIZE + i * CHUNK_ENTRY_SIZE;
+                chunks.put(buffer.getInt(entry), (int) buffer.getLong(entry + 4));
+            }
+            if (!chunks.containsKey(CHUNK_FANOUT) || !chunks.containsKey(CHUNK_IDS) || !chunks.containsKey(CHUNK_DATA)) {
+                return null;
+            }
+            return new CommitGraph(buffer, chunks);
+        } catch (IOException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    public int count() {
+        return count;
+    }
+
+    // Position of the commit in the graph, or -1 if it isn't in it
+    public int position(String id) {
+        byte[] key = Hex.decode(id);
+        int first = key[0] & 0xff;
+        int low = first == 0 ? 0 : buffer.getInt(fanoutStart + (first - 1) * 4);
+        int high = buffer.getInt(fanoutStart + first * 4) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public boolean contains(String id) {
+        return position(id) >= 0;
+    }
+
+    public String id(int position) {
+        byte[] id = new byte[ID_LENGTH];
+        buffer.get(idsStart + position * ID_LENGTH, id);
+        return Hex.encode(id);
+    }
+
+    public List<String> parents(int position) {
+        List<String> parents = new ArrayList<>(2);
+        for (int i = 0; i < 2; i++) {
+            int parent = buffer.getInt(dataStart + position * DATA_WIDTH + i * 4);
+            if (parent == NO_PARENT) break;
+            if (parent >= 0) {
+                parents.add(id(parent));
+            } else {
+                byte[] id = new byte[ID_LENGTH];
+                buffer.get(parentIdsStart + (-2 - parent) * ID_LENGTH, id);
+                parents.add(Hex.encode(id));
+            }
+        }
+        return parents;
+    }
+
+    public int generation(int position) {
+        return buffer.getInt(dataStart + position * DATA_WIDTH + 8);
+    }
+
+    public long time(int position) {
+        return buffer.getLong(dataStart + position * DATA_WIDTH + 12);
+    }
+
+    public Node node(int position) {
+        return new Node(id(position), parents(position), generation(position), time(position));
+    }
+
+    public boolean hasFilters() {
+        return bloomIndexStart >= 0;
+    }
+
+    // False only if the commit certainly didn't change the path relative to
+    // its first parent
+    public boolean mightHaveChanged(int position, BloomFilter.Key key) {
+        if (!hasFilters()) return true;
+        int start = filterStart(position);
+        return BloomFilter.mightContain(buffer, bloomDataStart + start, filterEnd(position) - start, key);
+    }
+
+    // The commit's raw filter bytes, or null without filters
+    public byte[] filter(int position) {
+        if (!hasFilters()) return null;
+        int start = filterStart(position);
+        byte[] filter = new byte[filterEnd(position) - start];
+        buffer.get(bloomDataStart + start, filter);
+        return filter;
+    }
+
+    private int filterStart(int position) {
+        return position == 0 ? 0 : buffer.getInt(bloomIndexStart + (position - 1) * 4);
+    }
+
+    private int filterEnd(int position) {
+        return buffer.getInt(bloomIndexStart + position * 4);
+    }
+
+    private int compareId(int position, byte[] key) {
+        int base = idsStart + position * ID_LENGTH;
+        for (int i = 0; i < ID_LENGTH; i++) {
+            int cmp = Integer.compare(buffer.get(base + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) return cmp;
+        }
+        return 0;
+    }
+
+    // Writes the graph for the given commits and returns its checksum.
+    // Parents that aren't part of the set are stored by id. A commit without
+    // an entry in `filters` gets a filter that matches every path.
+    public static String write(Path path, Collection<Node> nodes, Map<String, byte[]> filters) throws IOException {
+        List<Node> sorted = new ArrayList<>(nodes);
+        sorted.sort(Comparator.comparing(Node::id));
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < sorted.size(); i++) {
+            positions.put(sorted.get(i).id(), i);
+        }
+        Map<String, Integer> external = new LinkedHashMap<>();
+        for (Node node : sorted) {
+            if (node.parents().size() > 2) {
+                throw new IOException("Commit " + node.id() + " has more than two parents");
+            }
+            for (String parent : node.parents()) {
+                if (!positions.containsKey(parent)) external.putIfAbsent(parent, -2 - external.size());
+            }
+        }
+
+        int count = sorted.size();
+        byte[][] bloom = new byte[count][];
+        int bloomSize = 0;
+        for (int i = 0; i < count; i++) {
+            bloom[i] = filters.get(sorted.get(i).id());
+            if (bloom[i] == null) bloom[i] = BloomFilter.tooLarge();
+            bloomSize += bloom[i].length;
+        }
+
+        int chunkCount = external.isEmpty() ? 5 : 6;
+        int fanoutStart = HEADER_SIZE + (chunkCount + 1) * CHUNK_ENTRY_SIZE;
+        int idsStart = fanoutStart + 256 * 4;
+        int dataStart = idsStart + count * ID_LENGTH;
+        int parentIdsStart = dataStart + count * DATA_WIDTH;
+        int bloomIndexStart = parentIdsStart + external.size() * ID_LENGTH;
+        int bloomDataStart = bloomIndexStart + count * 4;
+        int end = bloomDataStart + BLOOM_HEADER_SIZE + bloomSize;
+
+        ByteBuffer buffer = ByteBuffer.allocate(end + ID_LENGTH);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(chunkCount);
+        buffer.putInt(CHUNK_FANOUT).putLong(fanoutStart);
+        buffer.putInt(CHUNK_IDS).putLong(idsStart);
+        buffer.putInt(CHUNK_DATA).putLong(dataStart);
+        if (!external.isEmpty()) buffer.putInt(CHUNK_PARENT_IDS).putLong(parentIdsStart);
+        buffer.putInt(CHUNK_BLOOM_INDEX).putLong(bloomIndexStart);
+        buffer.putInt(CHUNK_BLOOM_DATA).putLong(bloomDataStart);
+        buffer.putInt(0).putLong(end);
+
+        int[] fanout = new int[256];
+        for (Node node : sorted) {
+            fanout[Integer.parseInt(node.id().substring(0, 2), 16)]++;
+        }
+        int running = 0;
+        for (int i = 0; i < 256; i++) {
+            running += fanout[i];
+            buffer.putInt(running);
+        }
+        for (Node node : sorted) {
+            buffer.put(Hex.decode(node.id()));
+        }
+        for (Node node : sorted) {
+            for (int i = 0; i < 2; i++) {
+                String parent = i < node.parents().size() ? node.parents().get(i) : null;
+                buffer.putInt(parent == null ? NO_PARENT : positions.getOrDefault(parent, external.get(parent)));
+            }
+            buffer.putInt(node.generation());
+            buffer.putLong(node.time());
+        }
+        for (String parent : external.keySet()) {
+            buffer.put(Hex.decode(parent));
+        }
+        int filterEnd = 0;
+        for (byte[] filter : bloom) {
+            filterEnd += filter.length;
+            buffer.putInt(filterEnd);
+        }
+        buffer.putInt(BloomFilter.HASHES).putInt(BloomFilter.BITS_PER_ENTRY);
+        for (byte[] filter : bloom) {
+            buffer.put(filter);
+        }
+
+        MessageDigest digest = FileHasher.sha1();
+        digest.update(buffer.array(), 0, end);
+        byte[] checksum = digest.digest();
+        buffer.put(checksum);
+
+        Path dir = path.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, "commit-graph.", ".tmp");
+        try {
+            Files.write(temp, buffer.array());
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return Hex.encode(checksum);
+    }
+}
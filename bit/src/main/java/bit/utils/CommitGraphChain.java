@@ -0,0 +1,195 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+// The commit-graph as a stack of files: .bit/commit-graph at the bottom,
+// written whole by `bit repack` and `bit gc`, and smaller layers on top in
+// .bit/commit-graph.d, listed bottom to top in its `chain` file. `bit save`
+// and `bit merge` only add a layer with the commits that are new, so a
+// commit costs time in proportion to what it adds, not to the history.
+//
+// Whenever the top layer holds at least half as many commits as the one
+// below, the two are merged into one. Going down, every layer is at least
+// twice the size of the one above, so there are only logarithmically many
+// and each commit is rewritten a logarithmic number of times over its life.
+// A layer names parents that live in a lower file by id, so merging or
+// losing a layer never invalidates the others.
+public class CommitGraphChain {
+    private static final String CHAIN = "chain";
+
+    private record Layer(String name, CommitGraph graph) {} // name is null for the base file
+
+    private final Path base;
+    private final Path dir;
+    private final List<Layer> layers; // bottom to top
+
+    private CommitGraphChain(Path base, List<Layer> layers) {
+        this.base = base;
+        this.dir = base.resolveSibling(base.getFileName() + ".d");
+        this.layers = layers;
+    }
+
+    // A missing or unreadable file is left out; its commits are read from
+    // their objects instead
+    public static CommitGraphChain load(Path base) {
+        List<Layer> layers = new ArrayList<>();
+        CommitGraph graph = CommitGraph.load(base);
+        if (graph != null) layers.add(new Layer(null, graph));
+
+        CommitGraphChain chain = new CommitGraphChain(base, layers);
+        Path file = chain.dir.resolve(CHAIN);
+        if (Files.exists(file)) {
+            try {
+                for (String name : Files.readAllLines(file)) {
+                    CommitGraph layer = name.isBlank() ? null : CommitGraph.load(chain.dir.resolve(name.trim()));
+                    if (layer != null) layers.add(new Layer(name.trim(), layer));
+                }
+            } catch (IOException e) {
+                // The layers are only an accelerator
+            }
+        }
+        return chain;
+    }
+
+    public boolean isEmpty() {
+        return layers.isEmpty();
+    }
+
+    public boolean contains(String id) {
+        for (Layer layer : layers) {
+            if (layer.graph().contains(id)) return true;
+        }
+        return false;
+    }
+
+    // The commit's node, or null if no file has it
+    public CommitGraph.Node node(String id) {
+        for (Layer layer : layers) {
+            int position = layer.graph().position(id);
+            if (position >= 0) return layer.graph().node(position);
+        }
+        return null;
+    }
+
+    // False only if the commit is in the graph and certainly left `path` as
+    // its first parent had it
+    public boolean mightHaveChanged(String id, BloomFilter.Key path) {
+        for (Layer layer : layers) {
+            int position = layer.graph().position(id);
+            if (position >= 0) return layer.graph().mightHaveChanged(position, path);
+        }
+        return true;
+    }
+
+    // The commit's raw changed-path filter, or null if there is none
+    public byte[] filter(String id) {
+        for (Layer layer : layers) {
+            int position = layer.graph().position(id);
+            if (position >= 0) return layer.graph().filter(position);
+        }
+        return null;
+    }
+
+    // Adds a layer on top with the given commits, then merges layers from the
+    // top down while the one on top is at least half the size of the one below
+    public void append(Collection<CommitGraph.Node> nodes, Map<String, byte[]> filters) throws IOException {
+        if (nodes.isEmpty()) return;
+        layers.add(writeLayer(nodes, filters));
+
+        List<String> replaced = new ArrayList<>();
+        while (layers.size() >= 2) {
+            Layer top = layers.get(layers.size() - 1);
+            Layer below = layers.get(layers.size() - 2);
+            if (top.graph().count() * 2 < below.graph().count()) break;
+
+            Map<String, CommitGraph.Node> merged = new HashMap<>();
+            Map<String, byte[]> mergedFilters = new HashMap<>();
+            for (Layer layer : List.of(below, top)) {
+                for (int i = 0; i < layer.graph().count(); i++) {
+                    CommitGraph.Node node = layer.graph().node(i);
+                    merged.put(node.id(), node);
+                    byte[] filter = layer.graph().filter(i);
+                    if (filter != null) mergedFilters.put(node.id(), filter);
+                }
+            }
+            layers.subList(layers.size() - 2, layers.size()).clear();
+            if (top.name() != null) replaced.add(top.name());
+            if (below.name() == null) {
+                CommitGraph.write(base, merged.values(), mergedFilters);
+                layers.add(new Layer(null, read(base)));
+            } else {
+                replaced.add(below.name());
+                layers.add(writeLayer(merged.values(), mergedFilters));
+            }
+        }
+        writeChain();
+
+        // Best effort: a layer still open elsewhere is only left unlisted
+        for (Layer layer : layers) {
+            replaced.remove(layer.name());
+        }
+        for (String stale : replaced) {
+            try {
+                Files.deleteIfExists(dir.resolve(stale));
+            } catch (IOException e) {
+                // Left for later
+            }
+        }
+    }
+
+    // Replaces the whole graph with one base file holding the given commits
+    public static void replace(Path base, Collection<CommitGraph.Node> nodes, Map<String, byte[]> filters)
+            throws IOException {
+        CommitGraph.write(base, nodes, filters);
+        CommitGraphChain chain = new CommitGraphChain(base, new ArrayList<>());
+        chain.writeChain();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(chain.dir, "graph-*.graph")) {
+            for (Path file : files) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    // Unlisted, so never read again
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // No layers were ever written
+        }
+    }
+
+    // A new layer file, named after its checksum
+    private Layer writeLayer(Collection<CommitGraph.Node> nodes, Map<String, byte[]> filters) throws IOException {
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, "graph-", ".tmp");
+        try {
+            String name = "graph-" + CommitGraph.write(temp, nodes, filters) + ".graph";
+            Files.move(temp, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+            return new Layer(name, read(dir.resolve(name)));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static CommitGraph read(Path file) throws IOException {
+        CommitGraph graph = CommitGraph.load(file);
+        if (graph == null) throw new IOException("Unreadable commit-graph: " + file);
+        return graph;
+    }
+
+    private void writeChain() throws IOException {
+        List<String> names = new ArrayList<>();
+        for (Layer layer : layers) {
+            if (layer.name() != null) names.add(layer.name());
+        }
+        if (names.isEmpty() && !Files.exists(dir)) return;
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, "chain.", ".tmp");
+        try {
+            Files.write(temp, names);
+            Files.move(temp, dir.resolve(CHAIN), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
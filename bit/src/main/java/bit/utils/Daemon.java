@@ -0,0 +1,204 @@
+package bit.utils;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Client side of `bit daemon` and the wire format both sides share.
+//
+// A request is the argument count followed by each argument, then the count
+// of environment variables followed by each name and value. Every string is
+// a length and its UTF-8 bytes, and all ints are big-endian. Only the
+// variables in ENVIRONMENT that are set on the client are sent, and a command
+// run by the daemon sees those instead of the daemon's own (see getenv).
+//
+// The daemon answers with the command's output as it is printed, in frames:
+// the stream (STDOUT or STDERR) as one byte, a length and the bytes. It
+// closes the connection when the command is done, and interrupts the
+// command if the client hangs up first.
+//
+// Set BIT_NO_DAEMON=1 to run every command in-process even when a daemon is up.
+public class Daemon {
+    public static final Path SOCKET = Paths.get(".bit/daemon.sock");
+    public static final List<String> ENVIRONMENT = List.of("GITHUB_TOKEN", "BIT_GITHUB_API");
+    public static final int STDOUT = 1;
+    public static final int STDERR = 2;
+
+    private static final int MAX_ARGS = 4096;
+    private static final int MAX_ARG_LENGTH = 1 << 20;
+
+    // The client environment of the command running on this thread, if any
+    private static final InheritableThreadLocal<Map<String, String>> CLIENT_ENVIRONMENT = new InheritableThreadLocal<>();
+
+    public record Request(String[] args, Map<String, String> environment) {}
+
+    private Daemon() {
+    }
+
+    public static SocketChannel connect() throws IOException {
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(SOCKET));
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // True if a daemon accepts connections on the socket
+    public static boolean isRunning() {
+        if (!Files.exists(SOCKET)) return false;
+        try {
+            connect().close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Runs the command in the daemon, copying its output to System.out and
+    // System.err. Returns false when no daemon is reachable and the caller
+    // should run the command itself; once connected the command is never run
+    // twice.
+    public static boolean forward(String[] args) {
+        if (System.getenv("BIT_NO_DAEMON") != null || !Files.exists(SOCKET)) return false;
+
+        SocketChannel channel;
+        try {
+            channel = connect();
+        } catch (IOException e) {
+            return false; // stale socket left by a daemon that died
+        }
+
+        try (channel) {
+            send(channel, args);
+            copyOutput(channel);
+        } catch (IOException e) {
+            System.out.println("❌ Lost the connection to the bit daemon: " + e.getMessage());
+        }
+        return true;
+    }
+
+    // Writes each frame of the answer to System.out or System.err until the
+    // daemon closes the connection
+    public static void copyOutput(SocketChannel channel) throws IOException {
+        System.out.flush();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        byte[] buffer = new byte[8192];
+        for (int stream = in.read(); stream != -1; stream = in.read()) {
+            int length = in.readInt();
+            if (length < 0) throw new IOException("Bad frame");
+            PrintStream target = stream == STDERR ? System.err : System.out;
+            while (length > 0) {
+                int n = in.read(buffer, 0, Math.min(buffer.length, length));
+                if (n < 0) throw new EOFException();
+                target.write(buffer, 0, n);
+                length -= n;
+            }
+            target.flush();
+        }
+    }
+
+    public static void send(SocketChannel channel, String[] args) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(args.length);
+        for (String arg : args) {
+            writeString(out, arg);
+        }
+        Map<String, String> environment = new TreeMap<>();
+        for (String name : ENVIRONMENT) {
+            String value = System.getenv(name);
+            if (value != null) environment.put(name, value);
+        }
+        out.writeInt(environment.size());
+        for (Map.Entry<String, String> variable : environment.entrySet()) {
+            writeString(out, variable.getKey());
+            writeString(out, variable.getValue());
+        }
+        Channels.newOutputStream(channel).write(buffer.toByteArray());
+    }
+
+    public static Request receive(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        int count = in.readInt();
+        if (count < 0 || count > MAX_ARGS) throw new IOException("Bad request");
+        String[] args = new String[count];
+        for (int i = 0; i < count; i++) {
+            args[i] = readString(in);
+        }
+        int variables = in.readInt();
+        if (variables < 0 || variables > ENVIRONMENT.size()) throw new IOException("Bad request");
+        Map<String, String> environment = new HashMap<>();
+        for (int i = 0; i < variables; i++) {
+            String name = readString(in);
+            String value = readString(in);
+            if (ENVIRONMENT.contains(name)) environment.put(name, value);
+        }
+        return new Request(args, environment);
+    }
+
+    // An output stream that sends everything written to it as frames of one
+    // stream. Both streams of a client share the socket, so a frame is
+    // written whole before the other stream gets a turn.
+    public static OutputStream frames(OutputStream socket, int stream) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return;
+                byte[] header = {(byte) stream, (byte) (len >>> 24), (byte) (len >>> 16), (byte) (len >>> 8), (byte) len};
+                synchronized (socket) {
+                    socket.write(header);
+                    socket.write(b, off, len);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                socket.flush();
+            }
+        };
+    }
+
+    // Gives the commands on this thread, and threads it starts, the client's
+    // environment; null goes back to the process's own
+    public static void useEnvironment(Map<String, String> environment) {
+        if (environment == null) {
+            CLIENT_ENVIRONMENT.remove();
+        } else {
+            CLIENT_ENVIRONMENT.set(environment);
+        }
+    }
+
+    // An environment variable as the command's client has it: what it sent
+    // along when run by the daemon, System.getenv otherwise
+    public static String getenv(String name) {
+        Map<String, String> environment = CLIENT_ENVIRONMENT.get();
+        return environment != null ? environment.get(name) : System.getenv(name);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_ARG_LENGTH) throw new IOException("Bad request");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
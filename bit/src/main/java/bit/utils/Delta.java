@@ -0,0 +1,176 @@
+package bit.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Git-style binary deltas: a target is described as a sequence of "copy from
+// base" and "insert literal bytes" instructions.
+//
+//   header : varint base size, varint target size
+//   copy   : 1xxxxxxx followed by the offset/size bytes flagged in the low 7 bits
+//   insert : 0nnnnnnn followed by n (1..127) literal bytes
+public class Delta {
+    private static final int BLOCK = 16;
+    private static final int MAX_COPY = 0xffffff;
+    private static final int MAX_INSERT = 0x7f;
+
+    // Returns the delta, or null when it wouldn't be smaller than maxSize bytes.
+    public static byte[] create(byte[] base, byte[] target, int maxSize) {
+        if (base.length < BLOCK || target.length < BLOCK) {
+            return null;
+        }
+
+        // Hash table of the base's 16-byte blocks, keyed on a cheap block hash
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, base.length / BLOCK));
+        int[] table = new int[1 << Math.min(bits + 1, 24)];
+        Arrays.fill(table, -1);
+        int mask = table.length - 1;
+        for (int i = base.length - BLOCK; i >= 0; i -= BLOCK) {
+            table[blockHash(base, i) & mask] = i;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxSize, target.length) + 16);
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        int pos = 0;
+        int insertStart = 0;
+        while (pos + BLOCK <= target.length) {
+            int candidate = table[blockHash(target, pos) & mask];
+            if (candidate >= 0 && regionMatches(base, candidate, target, pos, BLOCK)) {
+                // Extend the match backwards into pending literals and forwards as far as possible
+                int start = candidate;
+                int tStart = pos;
+                while (start > 0 && tStart > insertStart && base[start - 1] == target[tStart - 1]) {
+                    start--;
+                    tStart--;
+                }
+                int length = pos - tStart + BLOCK;
+                while (start + length < base.length && tStart + length < target.length
+                        && base[start + length] == target[tStart + length]) {
+                    length++;
+                }
+
+                writeInserts(out, target, insertStart, tStart);
+                writeCopies(out, start, length);
+                pos = tStart + length;
+                insertStart = pos;
+            } else {
+                pos++;
+            }
+            if (out.size() > maxSize) {
+                return null;
+            }
+        }
+        writeInserts(out, target, insertStart, target.length);
+        return out.size() > maxSize ? null : out.toByteArray();
+    }
+
+    public static byte[] apply(byte[] base, byte[] delta) throws IOException {
+        int[] pos = {0};
+        long baseSize = readVarint(delta, pos);
+        long targetSize = readVarint(delta, pos);
+        if (baseSize != base.length) {
+            throw new IOException("Delta base size mismatch");
+        }
+
+        byte[] target = new byte[(int) targetSize];
+        int out = 0;
+        int i = pos[0];
+        while (i < delta.length) {
+            int op = delta[i++] & 0xff;
+            if ((op & 0x80) != 0) {
+                int offset = 0;
+                int size = 0;
+                for (int b = 0; b < 4; b++) {
+                    if ((op & (1 << b)) != 0) offset |= (delta[i++] & 0xff) << (8 * b);
+                }
+                for (int b = 0; b < 3; b++) {
+                    if ((op & (0x10 << b)) != 0) size |= (delta[i++] & 0xff) << (8 * b);
+                }
+                if (size == 0) size = 0x10000;
+                System.arraycopy(base, offset, target, out, size);
+                out += size;
+            } else if (op != 0) {
+                System.arraycopy(delta, i, target, out, op);
+                i += op;
+                out += op;
+            } else {
+                throw new IOException("Corrupt delta");
+            }
+        }
+        if (out != target.length) {
+            throw new IOException("Delta target size mismatch");
+        }
+        return target;
+    }
+
+    private static void writeInserts(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(target, from, n);
+            from += n;
+        }
+    }
+
+    private static void writeCopies(ByteArrayOutputStream out, int offset, int length) {
+        while (length > 0) {
+            int size = Math.min(MAX_COPY, length);
+            int op = 0x80;
+            byte[] args = new byte[7];
+            int n = 0;
+            for (int b = 0; b < 4; b++) {
+                int v = (offset >>> (8 * b)) & 0xff;
+                if (v != 0) {
+                    op |= 1 << b;
+                    args[n++] = (byte) v;
+                }
+            }
+            for (int b = 0; b < 3; b++) {
+                int v = (size >>> (8 * b)) & 0xff;
+                if (v != 0) {
+                    op |= 0x10 << b;
+                    args[n++] = (byte) v;
+                }
+            }
+            out.write(op);
+            out.write(args, 0, n);
+            offset += size;
+            length -= size;
+        }
+    }
+
+    private static int blockHash(byte[] data, int offset) {
+        int h = 0;
+        for (int i = 0; i < BLOCK; i++) {
+            h = h * 31 + data[offset + i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean regionMatches(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        return Arrays.equals(a, aOffset, aOffset + length, b, bOffset, bOffset + length);
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while (value >= 0x80) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarint(byte[] data, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[pos[0]++] & 0xff;
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
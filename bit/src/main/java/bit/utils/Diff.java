@@ -0,0 +1,234 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Line diff using Myers' O(ND) algorithm in linear space: the middle snake
+// of the edit graph is found from both ends at once and the two halves are
+// diffed recursively. Lines are compared as interned ints, so every
+// comparison in the inner loop is a single int compare.
+public class Diff {
+
+    // Lines [baseStart, baseEnd) of the old sequence were replaced by lines
+    // [otherStart, otherEnd) of the new one. Either range may be empty.
+    public record Hunk(int baseStart, int baseEnd, int otherStart, int otherEnd) {}
+
+    // Maps each distinct line to a small int. Share one interner between all
+    // sequences that are compared with each other.
+    public static class Interner {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> lines = new ArrayList<>();
+
+        public int[] intern(List<String> lines) {
+            int[] result = new int[lines.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = id(lines.get(i));
+            }
+            return result;
+        }
+
+        // Reads lines straight off a stream as Latin-1 text, keeping their "\n"
+        // like lines() does. Only one copy of each distinct line is held, so
+        // neither side of a large diff is ever in memory as one big string.
+        public int[] intern(InputStream in) throws IOException {
+            byte[] buffer = new byte[64 * 1024];
+            int[] result = new int[1024];
+            int count = 0;
+            byte[] line = new byte[256];
+            int length = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                int start = 0;
+                for (int i = 0; i < n; i++) {
+                    if (buffer[i] != '\n') continue;
+                    line = append(line, length, buffer, start, i + 1 - start);
+                    length += i + 1 - start;
+                    if (count == result.length) result = Arrays.copyOf(result, count * 2);
+                    result[count++] = id(new String(line, 0, length, StandardCharsets.ISO_8859_1));
+                    length = 0;
+                    start = i + 1;
+                }
+                line = append(line, length, buffer, start, n - start);
+                length += n - start;
+            }
+            if (length > 0) {
+                if (count == result.length) result = Arrays.copyOf(result, count + 1);
+                result[count++] = id(new String(line, 0, length, StandardCharsets.ISO_8859_1));
+            }
+            return Arrays.copyOf(result, count);
+        }
+
+        private static byte[] append(byte[] line, int length, byte[] data, int offset, int count) {
+            if (length + count > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+            }
+            System.arraycopy(data, offset, line, length, count);
+            return line;
+        }
+
+        public String line(int id) {
+            return lines.get(id);
+        }
+
+        private int id(String line) {
+            Integer id = ids.get(line);
+            if (id == null) {
+                id = lines.size();
+                ids.put(line, id);
+                lines.add(line);
+            }
+            return id;
+        }
+    }
+
+    // Splits text into lines, each keeping its "\n" so joining them restores
+    // the exact content, including a missing newline at the end.
+    public static List<String> lines(String text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            lines.add(text.substring(start, end));
+            start = end;
+        }
+        return lines;
+    }
+
+    public static List<Hunk> diff(int[] base, int[] other) {
+        boolean[] removed = new boolean[base.length];
+        boolean[] added = new boolean[other.length];
+        new Diff(base, other, removed, added).compare(0, base.length, 0, other.length);
+
+        // Unchanged lines pair up in order, so walking both sides together
+        // yields the hunks between them
+        List<Hunk> hunks = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < base.length || j < other.length) {
+            if (i < base.length && j < other.length && !removed[i] && !added[j]) {
+                i++;
+                j++;
+                continue;
+            }
+            int baseStart = i;
+            int otherStart = j;
+            while (i < base.length && removed[i]) i++;
+            while (j < other.length && added[j]) j++;
+            hunks.add(new Hunk(baseStart, i, otherStart, j));
+        }
+        return hunks;
+    }
+
+    private final int[] a;
+    private final int[] b;
+    private final boolean[] removed;
+    private final boolean[] added;
+
+    private Diff(int[] a, int[] b, boolean[] removed, boolean[] added) {
+        this.a = a;
+        this.b = b;
+        this.removed = removed;
+        this.added = added;
+    }
+
+    private void compare(int aStart, int aEnd, int bStart, int bEnd) {
+        // Common prefix and suffix never take part in an edit
+        while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+            aStart++;
+            bStart++;
+        }
+        while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+            aEnd--;
+            bEnd--;
+        }
+
+        if (aStart == aEnd) {
+            Arrays.fill(added, bStart, bEnd, true);
+        } else if (bStart == bEnd) {
+            Arrays.fill(removed, aStart, aEnd, true);
+        } else {
+            long split = middleSnake(aStart, aEnd, bStart, bEnd);
+            if (split < 0) {
+                Arrays.fill(removed, aStart, aEnd, true);
+                Arrays.fill(added, bStart, bEnd, true);
+                return;
+            }
+            int x = aStart + (int) (split >>> 32);
+            int y = bStart + (int) split;
+            compare(aStart, x, bStart, y);
+            compare(x, aEnd, y, bEnd);
+        }
+    }
+
+    // Returns a point (x << 32 | y), relative to the range starts, that lies on
+    // a shortest edit path, or -1 when the ranges have nothing in common.
+    private long middleSnake(int aStart, int aEnd, int bStart, int bEnd) {
+        int n = aEnd - aStart;
+        int m = bEnd - bStart;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int[] forward = new int[2 * maxD + 2];
+        int[] backward = new int[2 * maxD + 2];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        // Diagonals that ran off the edge of the graph are skipped from then on
+        int kStartF = 0, kEndF = 0, kStartB = 0, kEndB = 0;
+
+        for (int d = 0; d < maxD; d++) {
+            for (int k = -d + kStartF; k <= d - kEndF; k += 2) {
+                int i = offset + k;
+                int x = (k == -d || (k != d && forward[i - 1] < forward[i + 1])) ? forward[i + 1] : forward[i - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aStart + x] == b[bStart + y]) {
+                    x++;
+                    y++;
+                }
+                forward[i] = x;
+                if (x > n) {
+                    kEndF += 2;
+                } else if (y > m) {
+                    kStartF += 2;
+                } else if (odd) {
+                    int j = offset + delta - k;
+                    if (j >= 0 && j < backward.length && backward[j] != -1 && x >= n - backward[j]) {
+                        return ((long) x << 32) | y;
+                    }
+                }
+            }
+
+            for (int k = -d + kStartB; k <= d - kEndB; k += 2) {
+                int i = offset + k;
+                int x = (k == -d || (k != d && backward[i - 1] < backward[i + 1])) ? backward[i + 1] : backward[i - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aEnd - 1 - x] == b[bEnd - 1 - y]) {
+                    x++;
+                    y++;
+                }
+                backward[i] = x;
+                if (x > n) {
+                    kEndB += 2;
+                } else if (y > m) {
+                    kStartB += 2;
+                } else if (!odd) {
+                    int j = offset + delta - k;
+                    if (j >= 0 && j < forward.length && forward[j] != -1) {
+                        int fx = forward[j];
+                        int fy = fx - (j - offset);
+                        if (fx >= n - x) {
+                            return ((long) fx << 32) | fy;
+                        }
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+}
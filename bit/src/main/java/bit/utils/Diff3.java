@@ -0,0 +1,133 @@
+package bit.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Line-level three-way merge. Both sides are diffed against the base; hunks
+// that touch separate parts of the base are applied together, overlapping
+// hunks become a conflict unless both sides made the same change.
+public class Diff3 {
+    private static final int BINARY_PROBE = 8000;
+
+    // content is null when the inputs are binary and could not be merged
+    public record Result(byte[] content, int conflicts) {
+        public boolean isClean() {
+            return content != null && conflicts == 0;
+        }
+    }
+
+    public static boolean isBinary(byte[] data) {
+        for (int i = 0; i < Math.min(data.length, BINARY_PROBE); i++) {
+            if (data[i] == 0) return true;
+        }
+        return false;
+    }
+
+    public static Result merge(byte[] base, byte[] ours, byte[] theirs, String oursLabel, String theirsLabel) {
+        if (isBinary(base) || isBinary(ours) || isBinary(theirs)) {
+            return new Result(null, 1);
+        }
+
+        // Latin-1 maps every byte to one char, so content in any encoding
+        // survives the round trip unchanged
+        List<String> baseLines = Diff.lines(new String(base, StandardCharsets.ISO_8859_1));
+        List<String> oursLines = Diff.lines(new String(ours, StandardCharsets.ISO_8859_1));
+        List<String> theirsLines = Diff.lines(new String(theirs, StandardCharsets.ISO_8859_1));
+
+        Diff.Interner interner = new Diff.Interner();
+        int[] baseIds = interner.intern(baseLines);
+        List<Change> changes = new ArrayList<>();
+        for (Diff.Hunk hunk : Diff.diff(baseIds, interner.intern(oursLines))) {
+            changes.add(new Change(hunk, true));
+        }
+        for (Diff.Hunk hunk : Diff.diff(baseIds, interner.intern(theirsLines))) {
+            changes.add(new Change(hunk, false));
+        }
+        changes.sort(Comparator.comparingInt((Change c) -> c.hunk.baseStart()).thenComparingInt(c -> c.hunk.baseEnd()));
+
+        StringBuilder out = new StringBuilder();
+        int conflicts = 0;
+        int basePos = 0;
+        int i = 0;
+        while (i < changes.size()) {
+            // Group every change whose base range overlaps or touches the current one
+            int groupStart = changes.get(i).hunk.baseStart();
+            int groupEnd = changes.get(i).hunk.baseEnd();
+            int j = i + 1;
+            while (j < changes.size() && overlaps(changes.get(j).hunk, groupEnd)) {
+                groupEnd = Math.max(groupEnd, changes.get(j).hunk.baseEnd());
+                j++;
+            }
+            List<Change> group = changes.subList(i, j);
+            i = j;
+
+            append(out, baseLines, basePos, groupStart);
+            basePos = groupEnd;
+
+            boolean fromOurs = group.stream().anyMatch(c -> c.ours);
+            boolean fromTheirs = group.stream().anyMatch(c -> !c.ours);
+            List<String> oursSide = fromOurs ? side(group, true, baseLines, oursLines, groupStart, groupEnd) : null;
+            List<String> theirsSide = fromTheirs ? side(group, false, baseLines, theirsLines, groupStart, groupEnd) : null;
+
+            if (!fromTheirs) {
+                append(out, oursSide);
+            } else if (!fromOurs || theirsSide.equals(oursSide)) {
+                append(out, theirsSide);
+            } else {
+                conflicts++;
+                out.append("<<<<<<< ").append(latin1(oursLabel)).append("\n");
+                appendTerminated(out, oursSide);
+                out.append("=======\n");
+                appendTerminated(out, theirsSide);
+                out.append(">>>>>>> ").append(latin1(theirsLabel)).append("\n");
+            }
+        }
+        append(out, baseLines, basePos, baseLines.size());
+
+        return new Result(out.toString().getBytes(StandardCharsets.ISO_8859_1), conflicts);
+    }
+
+    private static String latin1(String label) {
+        return new String(label.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+    }
+
+    private record Change(Diff.Hunk hunk, boolean ours) {}
+
+    // Like diff3, changes that merely touch (e.g. edits on adjacent lines, or
+    // two insertions at the same spot) are treated as overlapping
+    private static boolean overlaps(Diff.Hunk hunk, int end) {
+        return hunk.baseStart() <= end;
+    }
+
+    // What one side turned base lines [start, end) into
+    private static List<String> side(List<Change> group, boolean ours, List<String> baseLines,
+                                     List<String> sideLines, int start, int end) {
+        List<String> result = new ArrayList<>();
+        int basePos = start;
+        for (Change change : group) {
+            if (change.ours != ours) continue;
+            Diff.Hunk hunk = change.hunk;
+            result.addAll(baseLines.subList(basePos, hunk.baseStart()));
+            result.addAll(sideLines.subList(hunk.otherStart(), hunk.otherEnd()));
+            basePos = hunk.baseEnd();
+        }
+        result.addAll(baseLines.subList(basePos, end));
+        return result;
+    }
+
+    private static void append(StringBuilder out, List<String> lines, int from, int to) {
+        append(out, lines.subList(from, to));
+    }
+
+    private static void append(StringBuilder out, List<String> lines) {
+        lines.forEach(out::append);
+    }
+
+    // Conflict markers must start on their own line
+    private static void appendTerminated(StringBuilder out, List<String> lines) {
+        append(out, lines);
+        if (!lines.isEmpty() && !lines.get(lines.size() - 1).endsWith("\n")) {
+            out.append("\n");
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package bit.utils;
+
+import jdk.jfr.*;
+
+// JDK Flight Recorder events for the work bit does. They cost next to nothing
+// unless a recording is running, e.g.
+//   java -XX:StartFlightRecording=filename=bit.jfr -jar bit.jar add .
+// and then show up under "Bit" in JDK Mission Control or `jfr print --categories Bit`.
+public class Events {
+
+    private Events() {
+    }
+
+    @Name("bit.Command")
+    @Label("Command")
+    @Category("Bit")
+    public static class Command extends Event {
+        @Label("Name")
+        public String name;
+    }
+
+    @Name("bit.Walk")
+    @Label("Walk Working Tree")
+    @Category("Bit")
+    public static class Walk extends Event {
+        @Label("Start")
+        public String start;
+
+        @Label("Files")
+        public long files;
+    }
+
+    @Name("bit.Hash")
+    @Label("Hash File")
+    @Category("Bit")
+    public static class Hash extends Event {
+        @Label("Path")
+        public String path;
+
+        @Label("Size")
+        @DataAmount
+        public long size;
+    }
+
+    @Name("bit.ObjectWrite")
+    @Label("Write Object")
+    @Category("Bit")
+    public static class ObjectWrite extends Event {
+        @Label("Id")
+        public String id;
+
+        @Label("Type")
+        public String type;
+
+        @Label("Size")
+        @DataAmount
+        public long size;
+
+        @Label("Already Stored")
+        public boolean skipped;
+    }
+
+    @Name("bit.ObjectRead")
+    @Label("Read Object")
+    @Category("Bit")
+    public static class ObjectRead extends Event {
+        @Label("Id")
+        public String id;
+
+        @Label("Type")
+        public String type;
+
+        @Label("Packed")
+        public boolean packed;
+    }
+
+    @Name("bit.Index")
+    @Label("Index I/O")
+    @Category("Bit")
+    public static class IndexIO extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("Entries")
+        public long entries;
+    }
+
+    @Name("bit.Http")
+    @Label("HTTP Request")
+    @Category("Bit")
+    public static class Http extends Event {
+        @Label("Method")
+        public String method;
+
+        @Label("URI")
+        public String uri;
+
+        @Label("Status")
+        public int status;
+    }
+}
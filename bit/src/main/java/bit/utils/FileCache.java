@@ -0,0 +1,46 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Values parsed from a file, reused for as long as the file's stat data
+// (size, mtime, ctime, inode) stays the same. Bit replaces its own files by
+// renaming a temp file over them, which always gives a new inode, and an edit
+// in place changes the mtime, so a changed file is never served stale.
+//
+// A file modified within the last second is not cached: on a filesystem with
+// coarse timestamps a second write in the same tick could keep the old stat.
+// This matters for the daemon, which keeps these caches across requests; a
+// one-shot command pays one extra stat per load.
+public class FileCache<T> {
+    private static final long RACY_WINDOW_NANOS = 1_000_000_000L;
+
+    public interface Loader<T> {
+        T load(Path file) throws IOException;
+    }
+
+    private record Cached<T>(FileStat stat, T value) {}
+
+    private final ConcurrentHashMap<Path, Cached<T>> entries = new ConcurrentHashMap<>();
+
+    public T get(Path file, Loader<T> loader) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        FileStat stat = Files.exists(file) ? FileStat.of(file) : null; // a missing file is cached too
+
+        Cached<T> cached = entries.get(key);
+        if (cached != null && Objects.equals(cached.stat(), stat)) {
+            return cached.value();
+        }
+
+        T value = loader.load(file);
+        long now = System.currentTimeMillis() * 1_000_000L;
+        if (stat == null || now - stat.mtime() > RACY_WINDOW_NANOS) {
+            entries.put(key, new Cached<>(stat, value));
+        } else {
+            entries.remove(key);
+        }
+        return value;
+    }
+}
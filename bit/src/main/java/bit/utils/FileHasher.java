@@ -1,12 +1,58 @@
 package bit.utils;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public class FileHasher {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Each hashing thread reuses its own digest and read buffer
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(FileHasher::sha1);
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    // Blob id of the file (SHA-1 of "blob <size>\0<content>"), matching the ids the
+    // object store and index use. The file is streamed through a fixed buffer, so
+    // memory use doesn't grow with file size.
     public static String hashFile(Path path) throws IOException {
-        byte[] content = Files.readAllBytes(path);
-        return Integer.toHexString(new String(content).hashCode());
+        long started = System.nanoTime();
+        Events.Hash event = new Events.Hash();
+        event.begin();
+        MessageDigest digest = DIGEST.get();
+        digest.reset();
+        ByteBuffer buffer = BUFFER.get();
+
+        long size;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            digest.update(ObjectStore.header(ObjectStore.BLOB, size));
+            while (channel.read(buffer.clear()) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+            }
+        }
+
+        Metrics.time("hash", started);
+        Metrics.count("files.hashed", 1);
+        Metrics.count("bytes.hashed", size);
+        if (event.shouldCommit()) {
+            event.path = path.toString();
+            event.size = size;
+            event.commit();
+        }
+        return Hex.encode(digest.digest());
+    }
+
+    public static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-1 not available");
+        }
     }
 }
@@ -0,0 +1,45 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Stat data cached in the index so unchanged files don't need to be rehashed.
+public record FileStat(long size, long mtime, long ctime, long inode, int mode) {
+
+    public static final int MODE_FILE = 0100644;
+    public static final int MODE_EXECUTABLE = 0100755;
+
+    private static volatile boolean unixViewSupported = true;
+
+    public static FileStat of(Path path) throws IOException {
+        if (unixViewSupported) {
+            try {
+                Map<String, Object> attrs = Files.readAttributes(path, "unix:size,lastModifiedTime,ctime,ino,mode");
+                int mode = (Integer) attrs.get("mode");
+                return new FileStat(
+                        (Long) attrs.get("size"),
+                        nanos((FileTime) attrs.get("lastModifiedTime")),
+                        nanos((FileTime) attrs.get("ctime")),
+                        (Long) attrs.get("ino"),
+                        (mode & 0111) != 0 ? MODE_EXECUTABLE : MODE_FILE);
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                unixViewSupported = false; // e.g. Windows: fall back to the basic view
+            }
+        }
+
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        return new FileStat(
+                attrs.size(),
+                nanos(attrs.lastModifiedTime()),
+                nanos(attrs.creationTime()),
+                0,
+                MODE_FILE);
+    }
+
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,254 @@
+package bit.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// State shared between the `bit watch` monitor and `bit status`, kept under
+// .bit/fsmonitor:
+//
+//   session   : id of the running watcher; a new id means earlier events can't be trusted
+//   heartbeat : touched by the watcher every couple of seconds while it is alive
+//   journal   : append-only list of paths the watcher saw change, one per line
+//   cookies/  : files status creates to sync with the watcher (see sync)
+//   snapshot  : written by status: the session and journal offset it has consumed,
+//               plus every worktree path with the content id it last saw
+//
+// Status only trusts the snapshot when the watcher is alive and still on the
+// same session, so a dead watcher or lost events always fall back to a full scan.
+public class FsMonitor {
+    public static final Path DEFAULT_DIR = Paths.get(".bit/fsmonitor");
+
+    public static final long HEARTBEAT_INTERVAL_MS = 2000;
+    public static final long SYNC_TIMEOUT_MS = 1000;
+    private static final long STALE_AFTER_MS = 5 * HEARTBEAT_INTERVAL_MS;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final AtomicLong COOKIES = new AtomicLong();
+
+    public record Snapshot(String session, long journalOffset, Map<String, String> files) {}
+
+    public record JournalSlice(List<String> paths, long end) {}
+
+    private final Path dir;
+
+    public FsMonitor(Path dir) {
+        this.dir = dir;
+    }
+
+    public static FsMonitor open() {
+        return new FsMonitor(DEFAULT_DIR);
+    }
+
+    public Path lockPath() {
+        return dir.resolve("lock");
+    }
+
+    // Created on demand, so the watcher can register it before any status runs
+    public Path cookieDir() throws IOException {
+        return Files.createDirectories(dir.resolve("cookies"));
+    }
+
+    // ---- watcher side ----
+
+    public String startSession() throws IOException {
+        Files.createDirectories(dir);
+        String session = UUID.randomUUID().toString();
+        Files.write(journal(), new byte[0]);
+        writeAtomically(dir.resolve("session"), session.getBytes(StandardCharsets.UTF_8));
+        heartbeat();
+        return session;
+    }
+
+    public void append(Collection<String> paths) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (String path : paths) {
+            lines.append(path).append('\n');
+        }
+        Files.write(journal(), lines.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    // Records that the watcher saw these cookies appear, after every change
+    // it saw before them. The lines are paths inside .bit, which never show
+    // up as changes, so they can't be mistaken for one.
+    public void acknowledge(Collection<String> cookies) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String cookie : cookies) {
+            lines.add(cookieLine(cookie));
+        }
+        append(lines);
+    }
+
+    public void heartbeat() throws IOException {
+        Path heartbeat = dir.resolve("heartbeat");
+        if (!Files.exists(heartbeat)) {
+            Files.createFile(heartbeat);
+        }
+        Files.setLastModifiedTime(heartbeat, FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    public void stop() throws IOException {
+        Files.deleteIfExists(dir.resolve("session"));
+    }
+
+    // ---- status side ----
+
+    // Id of the running watcher's session, or null if no live watcher can be trusted.
+    public String liveSession() {
+        try {
+            Path session = dir.resolve("session");
+            Path heartbeat = dir.resolve("heartbeat");
+            if (!Files.exists(session) || !Files.exists(heartbeat)) return null;
+
+            long age = System.currentTimeMillis() - Files.getLastModifiedTime(heartbeat).toMillis();
+            if (age > STALE_AFTER_MS) return null;
+            return Files.readString(session).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public long journalSize() throws IOException {
+        return Files.exists(journal()) ? Files.size(journal()) : 0;
+    }
+
+    // A barrier with the watcher. Events reach it a little after the change,
+    // so a journal read right after a write may not list that write yet.
+    // Status creates a cookie file and waits until the watcher journals it;
+    // whatever changed before the cookie is then in the journal ahead of it.
+    // Returns the journal offset to read up to, or -1 if the watcher didn't
+    // answer within the timeout and a full scan is needed instead.
+    public long sync(long timeoutMs) {
+        Path cookie = null;
+        try {
+            long scanned = journalSize();
+            String name = ProcessHandle.current().pid() + "-" + COOKIES.incrementAndGet();
+            cookie = Files.createFile(cookieDir().resolve(name));
+            String line = cookieLine(name);
+            long deadline = System.nanoTime() + timeoutMs * 1_000_000;
+            while (true) {
+                long end = journalSize();
+                if (end < scanned) return -1; // a new session started over
+                JournalSlice slice = lines(scanned, end);
+                if (slice.paths().contains(line)) return slice.end();
+                scanned = slice.end();
+                if (System.nanoTime() > deadline) return -1;
+                Thread.sleep(2);
+            }
+        } catch (IOException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } finally {
+            if (cookie != null) {
+                try {
+                    Files.deleteIfExists(cookie);
+                } catch (IOException e) {
+                    // Only clutter; the watcher journals creations alone
+                }
+            }
+        }
+    }
+
+    // Changed paths on complete journal lines between the two offsets
+    public JournalSlice readJournal(long from, long to) throws IOException {
+        JournalSlice slice = lines(from, to);
+        List<String> paths = new ArrayList<>(slice.paths());
+        paths.removeIf(path -> path.startsWith(cookieLine("")));
+        return new JournalSlice(paths, slice.end());
+    }
+
+    private JournalSlice lines(long from, long to) throws IOException {
+        if (to <= from) return new JournalSlice(List.of(), from);
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) (to - from));
+        try (FileChannel channel = FileChannel.open(journal(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer, from + buffer.position()) > 0) {
+                // keep reading
+            }
+        }
+
+        byte[] bytes = buffer.array();
+        int end = buffer.position();
+        while (end > 0 && bytes[end - 1] != '\n') end--; // ignore a partially written line
+
+        List<String> paths = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < end; i++) {
+            if (bytes[i] == '\n') {
+                if (i > start) paths.add(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return new JournalSlice(paths, from + end);
+    }
+
+    public Snapshot readSnapshot() {
+        Path snapshot = dir.resolve("snapshot");
+        if (!Files.exists(snapshot)) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if (in.readInt() != SNAPSHOT_VERSION) return null;
+            String session = in.readUTF();
+            long offset = in.readLong();
+            int count = in.readInt();
+            Map<String, String> files = new TreeMap<>();
+            byte[] id = new byte[20];
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                if (in.readBoolean()) {
+                    in.readFully(id);
+                    files.put(path, Hex.encode(id));
+                } else {
+                    files.put(path, null);
+                }
+            }
+            return new Snapshot(session, offset, files);
+        } catch (IOException e) {
+            return null; // a damaged snapshot just means a full scan
+        }
+    }
+
+    public void writeSnapshot(Snapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeUTF(snapshot.session());
+            out.writeLong(snapshot.journalOffset());
+            out.writeInt(snapshot.files().size());
+            for (Map.Entry<String, String> file : snapshot.files().entrySet()) {
+                out.writeUTF(file.getKey());
+                out.writeBoolean(file.getValue() != null);
+                if (file.getValue() != null) {
+                    out.write(Hex.decode(file.getValue()));
+                }
+            }
+        }
+        writeAtomically(dir.resolve("snapshot"), bytes.toByteArray());
+    }
+
+    private Path journal() {
+        return dir.resolve("journal");
+    }
+
+    private String cookieLine(String cookie) {
+        return Index.toIndexPath(dir.resolve("cookies").resolve(cookie));
+    }
+
+    private void writeAtomically(Path target, byte[] content) throws IOException {
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, content);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
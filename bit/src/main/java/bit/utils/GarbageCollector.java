@@ -0,0 +1,265 @@
+package bit.utils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Mark-and-sweep collection of unreachable objects, used by `bit gc`.
+//
+// Mark: everything reachable from the roots is found by walking commits,
+// trees and chunked-file manifests on a pool of threads. Every object is its
+// own task and is claimed in a concurrent set before it is read, so the
+// trees of a long history are read side by side and a subtree shared by many
+// commits is read once. Commits in the commit-graph are queued straight from
+// it rather than discovered parent by parent. Objects that are missing are
+// skipped, not fatal.
+//
+// Sweep: unreachable loose objects and leftover scratch files older than the
+// grace period are deleted, and a pack holding unreachable objects is
+// rewritten without them once the pack itself is older than the grace
+// period. The grace period protects objects another process has written but
+// not referenced yet; ObjectStore refreshes the time of an object it is
+// asked to write again, so a reused old object is protected the same way.
+public class GarbageCollector {
+
+    // What a sweep removes: loose object files, scratch files, and packs to
+    // rewrite keeping only `packedKept`. `unreachable` holds every id that
+    // goes, `bytes` the disk space that is freed (estimated for packs).
+    public record Plan(List<Path> looseFiles, int packedObjects, List<Path> scratchFiles, List<PackFile> packs,
+                       Set<String> packedKept, Set<String> unreachable, long bytes) {
+        public boolean isEmpty() {
+            return looseFiles.isEmpty() && packs.isEmpty() && scratchFiles.isEmpty();
+        }
+    }
+
+    private final ObjectStore store;
+    private final int jobs;
+
+    public GarbageCollector(ObjectStore store, int jobs) {
+        this.store = store;
+        this.jobs = Math.max(1, jobs);
+    }
+
+    // Commits that must survive: branch tips, every id in the reflog entries
+    // made since `reflogCutoff` (so an undo can itself be undone) and a merge
+    // in progress
+    public static Set<String> commitRoots(Refs refs, Instant reflogCutoff) throws IOException {
+        Set<String> roots = new LinkedHashSet<>();
+        for (String branch : refs.branches()) {
+            String tip = refs.resolve(branch);
+            if (tip != null) roots.add(tip);
+            for (Refs.LogEntry entry : refs.log(branch)) {
+                if (entry.time() < reflogCutoff.getEpochSecond()) continue;
+                roots.add(entry.newId());
+                if (Hex.isObjectId(entry.oldId()) && !entry.oldId().equals(Refs.ZERO_ID)) roots.add(entry.oldId());
+            }
+        }
+        if (refs.mergeHead() != null) roots.add(refs.mergeHead());
+        return roots;
+    }
+
+    // Everything reachable from the commits and from the index's staged blobs
+    // and cached trees
+    public Set<String> mark(Collection<String> commits, Index index) throws IOException, InterruptedException {
+        Marker marker = new Marker();
+        try {
+            for (String commit : commits) marker.visit(commit, ObjectStore.COMMIT);
+            queueKnownAncestors(marker, commits);
+            for (Index.Entry entry : index.entries()) marker.visit(entry.id(), null);
+            for (String tree : index.cachedTrees()) marker.visit(tree, ObjectStore.TREE);
+            marker.release(); // the hold taken for the roots
+            marker.done.await();
+        } finally {
+            marker.pool.shutdownNow();
+        }
+
+        Throwable error = marker.failure.get();
+        if (error instanceof IOException) throw (IOException) error;
+        if (error instanceof RuntimeException) throw (RuntimeException) error;
+        if (error != null) throw new IOException(error);
+        Metrics.count("gc.reachable", marker.marked.size());
+        return marker.marked;
+    }
+
+    // Commits the commit-graph knows are handed out up front, so a long linear
+    // history doesn't have to be read one parent at a time
+    private static void queueKnownAncestors(Marker marker, Collection<String> commits) {
+        CommitGraphChain graph = CommitGraphChain.load(CommitGraph.DEFAULT_PATH);
+        if (graph.isEmpty()) return;
+        Set<String> seen = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>(commits);
+        while (!queue.isEmpty()) {
+            String id = queue.poll();
+            if (!seen.add(id)) continue;
+            CommitGraph.Node node = graph.node(id);
+            if (node == null) continue; // read from its object by the marker
+            marker.visit(id, ObjectStore.COMMIT);
+            queue.addAll(node.parents());
+        }
+    }
+
+    private final class Marker {
+        final Set<String> marked = ConcurrentHashMap.newKeySet();
+        final ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        final AtomicInteger pending = new AtomicInteger(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // A null type is a file: a blob, or a manifest whose chunks must be kept
+        void visit(String id, String type) {
+            if (!marked.add(id) || ObjectStore.CHUNK.equals(type)) return;
+            pending.incrementAndGet();
+            pool.execute(() -> {
+                try {
+                    if (failure.get() == null) expand(id, type);
+                } catch (FileNotFoundException e) {
+                    Metrics.count("gc.missing", 1);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    release();
+                }
+            });
+        }
+
+        void release() {
+            if (pending.decrementAndGet() == 0) done.countDown();
+        }
+
+        void expand(String id, String type) throws IOException {
+            switch (type != null ? type : store.type(id)) {
+                case ObjectStore.COMMIT:
+                    Commit commit = Commit.read(store, id);
+                    for (String parent : commit.parents()) visit(parent, ObjectStore.COMMIT);
+                    if (commit.tree() != null) visit(commit.tree(), ObjectStore.TREE);
+                    if (commit.legacyFiles() != null) {
+                        for (String blob : commit.legacyFiles().values()) visit(blob, null);
+                    }
+                    break;
+                case ObjectStore.TREE:
+                    for (Tree.Entry entry : Tree.read(store, id)) {
+                        visit(entry.id(), entry.isTree() ? ObjectStore.TREE : null);
+                    }
+                    break;
+                case ObjectStore.MANIFEST:
+                    for (String chunk : store.chunksOf(id)) visit(chunk, ObjectStore.CHUNK);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // Everything the sweep would remove, leaving whatever is younger than `cutoff`
+    public Plan plan(Set<String> reachable, Instant cutoff) throws IOException {
+        List<Path> looseFiles = new ArrayList<>();
+        List<Path> scratchFiles = new ArrayList<>();
+        Set<String> unreachable = new HashSet<>();
+        long bytes = 0;
+
+        for (String id : store.listLoose()) {
+            Path path = store.pathFor(id);
+            if (!reachable.contains(id) && isOlder(path, cutoff)) {
+                looseFiles.add(path);
+                unreachable.add(id);
+                bytes += sizeOf(path);
+            }
+        }
+
+        // Flat objects from older versions of bit, and files left behind by
+        // interrupted writes or by merges of older versions
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(store.dir())) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!Files.isRegularFile(file) || !isOlder(file, cutoff)) continue;
+                if (Hex.isObjectId(name)) {
+                    if (reachable.contains(name)) continue;
+                    looseFiles.add(file);
+                    unreachable.add(name);
+                } else if (name.endsWith(".merge") || name.startsWith("tmp_obj_")) {
+                    scratchFiles.add(file);
+                } else {
+                    continue;
+                }
+                bytes += sizeOf(file);
+            }
+        }
+        if (Files.isDirectory(store.packDir())) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(store.packDir(), "tmp_*")) {
+                for (Path file : files) {
+                    if (isOlder(file, cutoff)) {
+                        scratchFiles.add(file);
+                        bytes += sizeOf(file);
+                    }
+                }
+            }
+        }
+
+        List<PackFile> packs = new ArrayList<>();
+        Set<String> packedKept = new TreeSet<>();
+        int packedObjects = 0;
+        for (PackFile pack : store.packs()) {
+            if (!isOlder(pack.path(), cutoff)) continue;
+            List<String> kept = new ArrayList<>();
+            List<String> dropped = new ArrayList<>();
+            for (String id : pack.ids()) {
+                (reachable.contains(id) ? kept : dropped).add(id);
+            }
+            if (dropped.isEmpty()) continue;
+
+            Map<String, Long> sizes = pack.storedSizes();
+            for (String id : dropped) bytes += sizes.get(id);
+            packs.add(pack);
+            packedKept.addAll(kept);
+            unreachable.addAll(dropped);
+            packedObjects += dropped.size();
+        }
+        return new Plan(looseFiles, packedObjects, scratchFiles, packs, packedKept, unreachable, bytes);
+    }
+
+    // Carries out a plan. nameHints are passed to PackWriter for the rewritten pack.
+    public void sweep(Plan plan, Map<String, String> nameHints) throws IOException {
+        if (!plan.packs().isEmpty()) {
+            Path written = null;
+            if (!plan.packedKept().isEmpty()) {
+                written = new PackWriter(store, nameHints).write(plan.packedKept(), store.packDir()).pack();
+            }
+            store.closePacks();
+            for (PackFile pack : plan.packs()) {
+                if (pack.path().equals(written)) continue;
+                String name = pack.path().getFileName().toString();
+                Files.deleteIfExists(pack.path().resolveSibling(name.replace(".pack", ".idx")));
+                Files.deleteIfExists(pack.path());
+            }
+        }
+        for (Path file : plan.looseFiles()) {
+            Files.deleteIfExists(file);
+        }
+        for (Path file : plan.scratchFiles()) {
+            Files.deleteIfExists(file);
+        }
+        store.removeEmptyFanoutDirs();
+        store.cache().clear();
+    }
+
+    private static boolean isOlder(Path file, Instant cutoff) {
+        try {
+            return Files.getLastModifiedTime(file).toInstant().isBefore(cutoff);
+        } catch (IOException e) {
+            return false; // gone already, or not ours to judge
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
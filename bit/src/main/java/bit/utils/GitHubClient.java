@@ -0,0 +1,345 @@
+package bit.utils;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+// One pooled HTTP/2 client per command run, so concurrent requests share
+// connections instead of opening a new one per call.
+//
+// Rate limits are handled here for every caller. A 429, or a 403 that
+// carries Retry-After or an exhausted X-RateLimit-Remaining, is retried
+// after the wait GitHub asks for (Retry-After, else X-RateLimit-Reset, else
+// an exponential backoff for secondary limits). The wait pauses every
+// request of the client, not only the one that hit the limit, and a
+// response reporting the limit used up pauses the next request until the
+// reset instead of letting it fail.
+public class GitHubClient {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(5);
+    private static final int MAX_RATE_LIMIT_ATTEMPTS = 6;
+    private static final Duration MAX_RATE_LIMIT_WAIT = Duration.ofMinutes(5);
+
+    // Remote blob shas and modes by path. "truncated" means GitHub didn't list the whole tree.
+    public record RemoteTree(Map<String, String> blobs, Map<String, Integer> modes, boolean truncated) {
+        public static final RemoteTree EMPTY = new RemoteTree(Map.of(), Map.of(), false);
+    }
+
+    // A remote branch: the commit it points at and that commit's tree
+    public record Head(String commit, String tree) {}
+
+    // A request GitHub answered with an unexpected status
+    public static final class ApiException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        public ApiException(String what, HttpResponse<String> response) {
+            super(what + " failed (" + response.statusCode() + "): " + response.body());
+            this.status = response.statusCode();
+        }
+
+        public int status() {
+            return status;
+        }
+    }
+
+    private final GitHubRemote remote;
+    private final HttpClient http;
+    private final AtomicLong pausedUntil = new AtomicLong(); // epoch millis
+
+    public GitHubClient(GitHubRemote remote) {
+        this.remote = remote;
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    public GitHubRemote remote() {
+        return remote;
+    }
+
+    public HttpRequest.Builder request(String url) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Authorization", "Bearer " + remote.token())
+                .header("Accept", "application/vnd.github.v3+json");
+    }
+
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            awaitRateLimit(request);
+            HttpResponse<T> response = sendOnce(request, handler);
+            long wait = rateLimitWait(response, attempt);
+            if (wait < 0 || attempt == MAX_RATE_LIMIT_ATTEMPTS || wait > MAX_RATE_LIMIT_WAIT.toMillis()) {
+                return response;
+            }
+            if (response.body() instanceof Closeable body) {
+                body.close(); // a streamed body that won't be read
+            }
+            Metrics.count("http.rate.limited", 1);
+            long until = System.currentTimeMillis() + wait;
+            if (pausedUntil.getAndAccumulate(until, Math::max) < until) {
+                System.out.println("⏳ GitHub rate limit hit; waiting " + Math.max(1, wait / 1000) + "s before retrying.");
+            }
+        }
+    }
+
+    private <T> HttpResponse<T> sendOnce(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        long started = System.nanoTime();
+        Events.Http event = new Events.Http();
+        event.begin();
+        try {
+            HttpResponse<T> response = http.send(request, handler);
+            Metrics.time("http", started);
+            Metrics.count("http.requests", 1);
+            if (event.shouldCommit()) {
+                event.method = request.method();
+                event.uri = request.uri().toString();
+                event.status = response.statusCode();
+                event.commit();
+            }
+            return response;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Request interrupted: " + request.uri());
+        }
+    }
+
+    private void awaitRateLimit(HttpRequest request) throws InterruptedIOException {
+        long wait;
+        while ((wait = pausedUntil.get() - System.currentTimeMillis()) > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Request interrupted: " + request.uri());
+            }
+        }
+    }
+
+    // Milliseconds to wait before retrying, or -1 if the response isn't a
+    // rate limit. A success that used up the limit pauses later requests.
+    private long rateLimitWait(HttpResponse<?> response, int attempt) {
+        HttpHeaders headers = response.headers();
+        boolean exhausted = headers.firstValue("X-RateLimit-Remaining").map("0"::equals).orElse(false);
+        OptionalLong reset = headers.firstValueAsLong("X-RateLimit-Reset");
+        Optional<String> retryAfter = headers.firstValue("Retry-After");
+
+        int code = response.statusCode();
+        boolean limited = code == 429 || (code == 403 && (exhausted || retryAfter.isPresent()));
+        if (!limited) {
+            long until = reset.orElse(0) * 1000;
+            if (exhausted && until - System.currentTimeMillis() <= MAX_RATE_LIMIT_WAIT.toMillis()) {
+                pausedUntil.accumulateAndGet(until, Math::max);
+            }
+            return -1;
+        }
+
+        if (retryAfter.isPresent()) {
+            try {
+                return Long.parseLong(retryAfter.get().trim()) * 1000;
+            } catch (NumberFormatException e) {
+                // An HTTP date; fall through to the other hints
+            }
+        }
+        if (exhausted && reset.isPresent()) {
+            return Math.max(0, reset.getAsLong() * 1000 - System.currentTimeMillis()) + 1000;
+        }
+        // A secondary limit without a hint: back off exponentially, with jitter
+        return (1000L << Math.min(attempt, 6)) + ThreadLocalRandom.current().nextInt(1000);
+    }
+
+    public HttpResponse<String> send(HttpRequest request) throws IOException {
+        return send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    // Lists every blob on the remote ref with a single recursive trees request.
+    // A missing ref or an empty repository yields an empty tree. The listing
+    // is parsed as it arrives, one entry at a time, so a tree of a hundred
+    // thousand files never sits in memory as one string or JSON document.
+    public RemoteTree listTree(String ref) throws IOException {
+        String url = remote.repoUrl("/git/trees/" + encodePath(ref) + "?recursive=1");
+        HttpResponse<InputStream> response = send(request(url).GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+        try (Reader body = new InputStreamReader(response.body(), StandardCharsets.UTF_8)) {
+            if (response.statusCode() == 404 || response.statusCode() == 409) {
+                return RemoteTree.EMPTY;
+            }
+            if (response.statusCode() != 200) {
+                throw new IOException("Listing remote tree failed (" + response.statusCode() + "): " + readAll(body));
+            }
+            return parseTree(new JSONTokener(body));
+        } catch (JSONException e) {
+            throw new IOException("Unreadable remote tree listing: " + e.getMessage());
+        }
+    }
+
+    // {"sha": ..., "tree": [{"path", "mode", "type", "sha", ...}, ...], "truncated": ...}
+    private static RemoteTree parseTree(JSONTokener json) {
+        Map<String, String> blobs = new HashMap<>();
+        Map<String, Integer> modes = new HashMap<>();
+        boolean truncated = false;
+        expect(json, '{');
+        for (char c = json.nextClean(); c != '}'; c = json.nextClean()) {
+            if (c == ',') continue;
+            json.back();
+            String key = json.nextValue().toString();
+            expect(json, ':');
+            if (!key.equals("tree")) {
+                Object value = json.nextValue();
+                if (key.equals("truncated")) truncated = Boolean.TRUE.equals(value);
+                continue;
+            }
+            expect(json, '[');
+            for (char e = json.nextClean(); e != ']'; e = json.nextClean()) {
+                if (e == ',') continue;
+                json.back();
+                JSONObject entry = (JSONObject) json.nextValue();
+                if (entry.getString("type").equals("blob")) {
+                    blobs.put(entry.getString("path"), entry.getString("sha"));
+                    modes.put(entry.getString("path"), Integer.parseInt(entry.getString("mode"), 8));
+                }
+            }
+        }
+        return new RemoteTree(blobs, modes, truncated);
+    }
+
+    private static void expect(JSONTokener json, char expected) {
+        if (json.nextClean() != expected) {
+            throw json.syntaxError("Expected '" + expected + "'");
+        }
+    }
+
+    private static String readAll(Reader reader) throws IOException {
+        StringWriter out = new StringWriter();
+        reader.transferTo(out);
+        return out.toString();
+    }
+
+    // Streams the raw content of a remote blob straight into the given file.
+    // The file is truncated on every attempt, so a rate-limit answer written
+    // there before a retry leaves nothing behind.
+    public void downloadBlob(String sha, Path target) throws IOException {
+        HttpResponse<Path> response = send(request(remote.repoUrl("/git/blobs/" + sha))
+                .setHeader("Accept", "application/vnd.github.raw")
+                .GET().build(), HttpResponse.BodyHandlers.ofFile(target,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+        if (response.statusCode() != 200) {
+            String body = Files.readString(target, StandardCharsets.UTF_8);
+            throw new IOException("Downloading blob " + sha + " failed (" + response.statusCode() + "): " + body);
+        }
+    }
+
+    // --- Git Data API, used to push a whole commit at once ---
+
+    public String defaultBranch() throws IOException {
+        HttpResponse<String> response = send(request(remote.repoUrl("")).GET().build());
+        if (response.statusCode() != 200) {
+            throw new ApiException("Reading the repository", response);
+        }
+        return new JSONObject(response.body()).optString("default_branch", "main");
+    }
+
+    // The branch's commit and tree, or null if the branch doesn't exist. An
+    // empty repository answers 409, which is thrown as an ApiException.
+    public Head head(String branch) throws IOException {
+        HttpResponse<String> response = send(request(remote.repoUrl("/git/ref/heads/" + encodePath(branch))).GET().build());
+        if (response.statusCode() == 404) return null;
+        if (response.statusCode() != 200) {
+            throw new ApiException("Reading branch " + branch, response);
+        }
+        String commit = new JSONObject(response.body()).getJSONObject("object").getString("sha");
+
+        response = send(request(remote.repoUrl("/git/commits/" + commit)).GET().build());
+        if (response.statusCode() != 200) {
+            throw new ApiException("Reading commit " + commit, response);
+        }
+        return new Head(commit, new JSONObject(response.body()).getJSONObject("tree").getString("sha"));
+    }
+
+    // Uploads one object as a blob, streamed from the store, and returns the
+    // sha GitHub gave it
+    public String createBlob(ObjectStore store, String id) throws IOException {
+        JSONObject fields = new JSONObject().put("encoding", "base64");
+        return post("/git/blobs", Base64Body.of(fields, "content", store, id), "Uploading a blob");
+    }
+
+    // A tree made of `base` with the entries replaced. Each entry has a path,
+    // mode, type and sha; a null sha deletes the path.
+    public String createTree(String base, JSONArray entries) throws IOException {
+        JSONObject body = new JSONObject().put("tree", entries);
+        if (base != null) body.put("base_tree", base);
+        return post("/git/trees", body, "Creating the tree");
+    }
+
+    public String createCommit(String message, String tree, List<String> parents) throws IOException {
+        JSONObject body = new JSONObject()
+                .put("message", message)
+                .put("tree", tree)
+                .put("parents", new JSONArray(parents));
+        return post("/git/commits", body, "Creating the commit");
+    }
+
+    // Moves an existing branch to the commit. Without force GitHub only
+    // accepts a fast-forward and answers 422 otherwise.
+    public void updateBranch(String branch, String commit) throws IOException {
+        JSONObject body = new JSONObject().put("sha", commit).put("force", false);
+        HttpResponse<String> response = send(request(remote.repoUrl("/git/refs/heads/" + encodePath(branch)))
+                .header("Content-Type", "application/json")
+                .method("PATCH", HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build());
+        if (response.statusCode() != 200) {
+            throw new ApiException("Updating branch " + branch, response);
+        }
+    }
+
+    public void createBranch(String branch, String commit) throws IOException {
+        JSONObject body = new JSONObject().put("ref", "refs/heads/" + branch).put("sha", commit);
+        post("/git/refs", body, "Creating branch " + branch);
+    }
+
+    // POSTs a JSON body and returns the "sha" of what was created
+    private String post(String path, JSONObject body, String what) throws IOException {
+        return post(path, HttpRequest.BodyPublishers.ofString(body.toString()), what);
+    }
+
+    private String post(String path, HttpRequest.BodyPublisher body, String what) throws IOException {
+        HttpResponse<String> response = send(request(remote.repoUrl(path))
+                .header("Content-Type", "application/json")
+                .POST(body)
+                .build());
+        if (response.statusCode() != 201 && response.statusCode() != 200) {
+            throw new ApiException(what, response);
+        }
+        JSONObject json = new JSONObject(response.body());
+        return json.has("sha") ? json.getString("sha") : json.getJSONObject("object").getString("sha");
+    }
+
+    // Percent-encodes each path segment, keeping the slashes between them.
+    public static String encodePath(String path) {
+        StringJoiner joined = new StringJoiner("/");
+        for (String segment : path.split("/", -1)) {
+            joined.add(URLEncoder.encode(segment, StandardCharsets.UTF_8).replace("+", "%20"));
+        }
+        return joined.toString();
+    }
+}
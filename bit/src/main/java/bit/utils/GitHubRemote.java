@@ -0,0 +1,83 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.nio.file.*;
+
+// Remote settings shared by push and pull: the owner/repo from .bit/config,
+// the access token and the API base URL.
+//
+// The API base defaults to https://api.github.com and can be pointed at a
+// local stand-in with --api=<url> or the BIT_GITHUB_API environment variable.
+public class GitHubRemote {
+    public static final String DEFAULT_API = "https://api.github.com";
+
+    private final String owner;
+    private final String repo;
+    private final String token;
+    private final String apiBase;
+
+    private GitHubRemote(String owner, String repo, String token, String apiBase) {
+        this.owner = owner;
+        this.repo = repo;
+        this.token = token;
+        this.apiBase = apiBase;
+    }
+
+    // Reads .bit/config and the --token/--api flags. Problems are reported as an
+    // IllegalStateException carrying a message fit for the user.
+    public static GitHubRemote fromConfig(String[] args) throws IOException {
+        String token = null;
+        String apiBase = null;
+        for (String arg : args) {
+            if (arg.startsWith("--token=")) {
+                token = arg.substring("--token=".length());
+            } else if (arg.startsWith("--api=")) {
+                apiBase = arg.substring("--api=".length());
+            }
+        }
+        if (token == null || token.isBlank()) {
+            token = Daemon.getenv("GITHUB_TOKEN");
+        }
+        if (token == null || token.isBlank()) {
+            throw new IllegalStateException("GitHub token is not provided via --token or GITHUB_TOKEN env variable.");
+        }
+        if (apiBase == null || apiBase.isBlank()) {
+            apiBase = Daemon.getenv("BIT_GITHUB_API");
+        }
+        if (apiBase == null || apiBase.isBlank()) {
+            apiBase = DEFAULT_API;
+        }
+
+        Path configPath = Paths.get(".bit/config");
+        if (!Files.exists(configPath)) {
+            throw new IllegalStateException("No remote config found.");
+        }
+        String remoteUrl = Files.readString(configPath).trim();
+        if (!remoteUrl.startsWith("https://github.com/")) {
+            throw new IllegalStateException("Invalid remote URL in .bit/config");
+        }
+
+        String[] parts = remoteUrl.replace("https://github.com/", "").replaceAll("\\.git$", "").split("/");
+        if (parts.length != 2) {
+            throw new IllegalStateException("Remote URL format incorrect.");
+        }
+        return new GitHubRemote(parts[0], parts[1], token, apiBase.replaceAll("/+$", ""));
+    }
+
+    public String owner() {
+        return owner;
+    }
+
+    public String repo() {
+        return repo;
+    }
+
+    public String token() {
+        return token;
+    }
+
+    // URL of a path below /repos/{owner}/{repo}
+    public String repoUrl(String path) {
+        return apiBase + "/repos/" + owner + "/" + repo + path;
+    }
+}
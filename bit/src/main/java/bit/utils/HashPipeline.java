@@ -0,0 +1,151 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+// Bounded three-stage pipeline used by `bit add`:
+//
+//   walker thread --> [paths] --> N hasher threads --> [hashed] --> object writer thread
+//
+// Both queues are bounded, so a fast walker can't run ahead of the hashers and
+// memory stays flat no matter how many files are staged. Files whose stat data
+// still matches the index are dropped by the hashers without being read.
+public class HashPipeline {
+    private static final int QUEUE_PER_JOB = 64;
+    private static final Path END = Paths.get("");
+
+    public interface Walker {
+        void walk(Consumer<Path> out) throws IOException;
+    }
+
+    public interface Sink {
+        // Always called from the single writer thread
+        void accept(Path file, Index.Entry entry) throws IOException;
+    }
+
+    private record Hashed(Path file, Index.Entry entry) {}
+    private static final Hashed DONE = new Hashed(END, null);
+
+    private final int jobs;
+    private final Index index;
+
+    public HashPipeline(int jobs, Index index) {
+        this.jobs = Math.max(1, jobs);
+        this.index = index;
+    }
+
+    public static int defaultJobs() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    public void run(Walker walker, Sink sink) throws IOException {
+        BlockingQueue<Path> pending = new ArrayBlockingQueue<>(jobs * QUEUE_PER_JOB);
+        BlockingQueue<Hashed> hashed = new ArrayBlockingQueue<>(jobs * QUEUE_PER_JOB);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread[] hashers = new Thread[jobs];
+        for (int i = 0; i < jobs; i++) {
+            hashers[i] = new Thread(() -> hashLoop(pending, hashed, failure), "bit-hasher-" + i);
+            hashers[i].setDaemon(true);
+            hashers[i].start();
+        }
+        Thread writer = new Thread(() -> writeLoop(hashed, sink, failure), "bit-object-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        try {
+            walker.walk(path -> {
+                if (failure.get() != null) {
+                    throw new UncheckedIOException(new IOException("staging aborted"));
+                }
+                put(pending, path);
+            });
+        } catch (UncheckedIOException e) {
+            if (failure.get() == null) throw e.getCause();
+        } finally {
+            for (int i = 0; i < jobs; i++) put(pending, END);
+            join(hashers);
+            put(hashed, DONE);
+            join(writer);
+        }
+
+        Throwable error = failure.get();
+        if (error instanceof IOException) throw (IOException) error;
+        if (error instanceof UncheckedIOException) throw ((UncheckedIOException) error).getCause();
+        if (error instanceof RuntimeException) throw (RuntimeException) error;
+        if (error != null) throw new IOException(error);
+    }
+
+    private void hashLoop(BlockingQueue<Path> pending, BlockingQueue<Hashed> hashed, AtomicReference<Throwable> failure) {
+        while (true) {
+            Path file = take(pending);
+            if (file == END) return;
+            if (failure.get() != null) continue; // keep draining so the walker never blocks
+
+            try {
+                String path = Index.toIndexPath(file);
+                FileStat stat = FileStat.of(file);
+                Index.Entry existing = index.get(path);
+                if (existing != null && index.isUpToDate(existing, stat)) {
+                    continue; // unchanged since it was last staged
+                }
+                String id = FileHasher.hashFile(file);
+                put(hashed, new Hashed(file, new Index.Entry(path, id, stat)));
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    private void writeLoop(BlockingQueue<Hashed> hashed, Sink sink, AtomicReference<Throwable> failure) {
+        while (true) {
+            Hashed item = take(hashed);
+            if (item == DONE) return;
+            if (failure.get() != null) continue;
+
+            try {
+                sink.accept(item.file(), item.entry());
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    private static <T> void put(BlockingQueue<T> queue, T item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("interrupted while staging"));
+        }
+    }
+
+    private static <T> T take(BlockingQueue<T> queue) {
+        while (true) {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                // Pipeline threads only stop on their end marker
+            }
+        }
+    }
+
+    private static void join(Thread... threads) {
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    // Wait for the stage to drain before returning
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package bit.utils;
+
+public class Hex {
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    public static String encode(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = DIGITS[(bytes[i] >> 4) & 0xf];
+            out[i * 2 + 1] = DIGITS[bytes[i] & 0xf];
+        }
+        return new String(out);
+    }
+
+    public static byte[] decode(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Invalid hex string: " + hex);
+        }
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) ((digit(hex.charAt(i * 2)) << 4) | digit(hex.charAt(i * 2 + 1)));
+        }
+        return out;
+    }
+
+    public static boolean isObjectId(String s) {
+        if (s == null || s.length() != 40) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.digit(s.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+
+    private static int digit(char c) {
+        int d = Character.digit(c, 16);
+        if (d < 0) {
+            throw new IllegalArgumentException("Invalid hex digit: " + c);
+        }
+        return d;
+    }
+}
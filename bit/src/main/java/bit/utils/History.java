@@ -0,0 +1,204 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+// Ancestry queries over the commit history. Commits in the commit-graph are
+// answered from its files; newer ones are parsed from their objects once and
+// remembered. The graph also carries each commit's changed-path Bloom
+// filter, which lets a path-limited log skip most commits unread.
+public class History {
+    private final ObjectStore store;
+    private final CommitGraphChain graph;
+    private final Map<String, CommitGraph.Node> parsed = new HashMap<>();
+
+    public History(ObjectStore store, Path graphPath) {
+        this.store = store;
+        this.graph = CommitGraphChain.load(graphPath);
+    }
+
+    public static History open(ObjectStore store) {
+        return new History(store, CommitGraph.DEFAULT_PATH);
+    }
+
+    public List<String> parents(String id) throws IOException {
+        return node(id).parents();
+    }
+
+    public int generation(String id) throws IOException {
+        return node(id).generation();
+    }
+
+    public long time(String id) throws IOException {
+        return node(id).time();
+    }
+
+    public CommitGraph.Node node(String id) throws IOException {
+        CommitGraph.Node node = parsed.get(id);
+        if (node != null) return node;
+        node = graph.node(id);
+        if (node != null) return node;
+
+        // Parse the commit and any ancestors missing from the graph, parents
+        // first, so every generation number can be computed without recursion
+        Deque<String> stack = new ArrayDeque<>(List.of(id));
+        Map<String, Commit> pending = new HashMap<>();
+        while (!stack.isEmpty()) {
+            String current = stack.peek();
+            if (known(current)) {
+                stack.pop();
+                continue;
+            }
+            Commit commit = pending.get(current);
+            if (commit == null) {
+                if (!store.exists(current)) {
+                    // Missing object: treat it as a root rather than failing
+                    parsed.put(current, new CommitGraph.Node(current, List.of(), 1, 0));
+                    stack.pop();
+                    continue;
+                }
+                commit = Commit.read(store, current);
+                pending.put(current, commit);
+            }
+
+            boolean ready = true;
+            for (String parent : commit.parents()) {
+                if (!known(parent)) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (!ready) continue;
+
+            int generation = 1;
+            for (String parent : commit.parents()) {
+                generation = Math.max(generation, node(parent).generation() + 1);
+            }
+            parsed.put(current, new CommitGraph.Node(current, commit.parents(), generation, epochSeconds(commit.time())));
+            pending.remove(current);
+            stack.pop();
+        }
+        return parsed.get(id);
+    }
+
+    // False only if the commit certainly left `path` as its first parent had it
+    public boolean mightHaveChanged(String id, BloomFilter.Key path) {
+        return graph.mightHaveChanged(id, path);
+    }
+
+    private boolean known(String id) {
+        return parsed.containsKey(id) || graph.contains(id);
+    }
+
+    // Best common ancestor of two commits, or null if they share no history.
+    // Commits are visited in order of decreasing generation, so every child
+    // is processed before its parents and the first commit reached from both
+    // sides is a common ancestor that no other common ancestor descends from.
+    public String mergeBase(String a, String b) throws IOException {
+        if (a.equals(b)) return a;
+
+        final int fromA = 1;
+        final int fromB = 2;
+        Map<String, Integer> flags = new HashMap<>();
+        PriorityQueue<CommitGraph.Node> queue = new PriorityQueue<>(
+                Comparator.comparingInt(CommitGraph.Node::generation).reversed());
+        flags.put(a, fromA);
+        flags.put(b, fromB);
+        queue.add(node(a));
+        queue.add(node(b));
+
+        while (!queue.isEmpty()) {
+            CommitGraph.Node current = queue.poll();
+            int flag = flags.get(current.id());
+            if (flag == (fromA | fromB)) {
+                return current.id();
+            }
+            for (String parent : current.parents()) {
+                Integer previous = flags.get(parent);
+                int merged = (previous == null ? 0 : previous) | flag;
+                if (previous == null || previous != merged) {
+                    flags.put(parent, merged);
+                    if (previous == null) queue.add(node(parent));
+                }
+            }
+        }
+        return null;
+    }
+
+    // True if ancestor is reachable from id (a commit counts as its own ancestor)
+    public boolean isAncestor(String ancestor, String id) throws IOException {
+        int floor = generation(ancestor);
+        Set<String> seen = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>(List.of(id));
+        while (!queue.isEmpty()) {
+            String current = queue.poll();
+            if (current.equals(ancestor)) return true;
+            if (!seen.add(current)) continue;
+            for (String parent : parents(current)) {
+                // Nothing below the ancestor's generation can lead back to it
+                if (generation(parent) >= floor) queue.add(parent);
+            }
+        }
+        return false;
+    }
+
+    // Adds the given commits, and whatever they descend from that the
+    // commit-graph doesn't have yet, as a new layer of the graph
+    public void record(Collection<String> ids) throws IOException {
+        Map<String, CommitGraph.Node> nodes = new HashMap<>();
+        Deque<String> queue = new ArrayDeque<>(ids);
+        while (!queue.isEmpty()) {
+            String id = queue.poll();
+            if (nodes.containsKey(id) || graph.contains(id) || !store.exists(id)) continue;
+            CommitGraph.Node node = node(id);
+            nodes.put(id, node);
+            queue.addAll(node.parents());
+        }
+        graph.append(nodes.values(), filters(nodes.values()));
+    }
+
+    // A fresh graph holding exactly the commits reachable from the tips
+    public static void rebuild(ObjectStore store, Collection<String> tips, Path graphPath) throws IOException {
+        History history = new History(store, graphPath);
+        Map<String, CommitGraph.Node> nodes = new HashMap<>();
+        Deque<String> queue = new ArrayDeque<>(tips);
+        while (!queue.isEmpty()) {
+            String id = queue.poll();
+            if (nodes.containsKey(id) || !store.exists(id)) continue;
+            CommitGraph.Node node = history.node(id);
+            nodes.put(id, node);
+            queue.addAll(node.parents());
+        }
+        CommitGraphChain.replace(graphPath, nodes.values(), history.filters(nodes.values()));
+    }
+
+    // Changed-path filters for the commits: kept from the current graph where
+    // it has one, otherwise made by diffing the commit against its first parent
+    private Map<String, byte[]> filters(Collection<CommitGraph.Node> nodes) throws IOException {
+        Map<String, byte[]> filters = new HashMap<>();
+        for (CommitGraph.Node node : nodes) {
+            byte[] filter = graph.filter(node.id());
+            if (filter == null) {
+                String parentTree = node.parents().isEmpty() ? null : Commit.treeOf(store, node.parents().get(0));
+                List<String> changed = new ArrayList<>();
+                for (TreeDiff.Change change : TreeDiff.diff(store, parentTree, Commit.treeOf(store, node.id()))) {
+                    changed.add(change.path());
+                }
+                filter = BloomFilter.of(changed);
+            }
+            filters.put(node.id(), filter);
+        }
+        return filters;
+    }
+
+    private static long epochSeconds(String time) {
+        try {
+            return Instant.parse(time).getEpochSecond();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+// Compiled .bitignore rules with Git semantics:
+//   - a pattern without a slash matches the file or directory name at any depth
+//   - a leading or inner slash anchors the pattern to the repository root
+//   - a trailing slash only matches directories
+//   - "!" re-includes a path; the last matching rule wins
+//   - "*", "?", "[...]" and "**" wildcards
+//
+// Patterns are compiled once into the cheapest structure that can answer them:
+// plain names go into a hash map, plain anchored paths into a trie keyed by path
+// segment, "*.ext" style patterns into a suffix list, and only the rest become regexes.
+public class IgnoreRules {
+    public static final Path DEFAULT_PATH = Paths.get(".bitignore");
+    public static final IgnoreRules NONE = new IgnoreRules();
+
+    private static final FileCache<IgnoreRules> CACHE = new FileCache<>();
+
+    private record Rule(int order, boolean negated, boolean dirOnly) {}
+
+    private record SuffixRule(String suffix, Rule rule) {}
+
+    private record RegexRule(Pattern pattern, boolean anchored, Rule rule) {}
+
+    private static final class TrieNode {
+        final Map<String, TrieNode> children = new HashMap<>();
+        final List<Rule> rules = new ArrayList<>(1);
+    }
+
+    private final Map<String, List<Rule>> byName = new HashMap<>();
+    private final TrieNode anchored = new TrieNode();
+    private final List<SuffixRule> suffixes = new ArrayList<>();
+    private final List<RegexRule> regexes = new ArrayList<>();
+    private int ruleCount;
+
+    public static IgnoreRules load() {
+        return load(DEFAULT_PATH);
+    }
+
+    // Rules are immutable once compiled, so a cached copy is shared freely
+    public static IgnoreRules load(Path file) {
+        try {
+            return CACHE.get(file, path -> Files.exists(path) ? parse(Files.readAllLines(path)) : NONE);
+        } catch (IOException e) {
+            System.out.println("⚠️ Failed to read .bitignore: " + e.getMessage());
+            return NONE;
+        }
+    }
+
+    public static IgnoreRules parse(List<String> lines) {
+        IgnoreRules rules = new IgnoreRules();
+        for (String line : lines) {
+            rules.add(line);
+        }
+        return rules;
+    }
+
+    public boolean isEmpty() {
+        return ruleCount == 0;
+    }
+
+    // Whether the path itself matches; callers walking the tree prune ignored
+    // directories, so ancestors don't need to be checked again.
+    public boolean isIgnored(String path, boolean isDirectory) {
+        if (ruleCount == 0) return false;
+
+        int slash = path.lastIndexOf('/');
+        String name = slash >= 0 ? path.substring(slash + 1) : path;
+        Rule best = null;
+
+        best = pick(best, byName.get(name), isDirectory);
+
+        TrieNode node = anchored;
+        int start = 0;
+        while (node != null) {
+            int end = path.indexOf('/', start);
+            node = node.children.get(end < 0 ? path.substring(start) : path.substring(start, end));
+            if (end < 0) {
+                if (node != null) best = pick(best, node.rules, isDirectory);
+                break;
+            }
+            start = end + 1;
+        }
+
+        for (SuffixRule rule : suffixes) {
+            if ((best == null || rule.rule().order() > best.order()) && applies(rule.rule(), isDirectory)
+                    && name.endsWith(rule.suffix())) {
+                best = rule.rule();
+            }
+        }
+        for (RegexRule rule : regexes) {
+            if ((best == null || rule.rule().order() > best.order()) && applies(rule.rule(), isDirectory)
+                    && rule.pattern().matcher(rule.anchored() ? path : name).matches()) {
+                best = rule.rule();
+            }
+        }
+        return best != null && !best.negated();
+    }
+
+    // Like isIgnored, but also excluded when any parent directory is ignored.
+    // Used for paths that don't come from a pruned walk, e.g. command line arguments.
+    public boolean isExcluded(String path, boolean isDirectory) {
+        if (ruleCount == 0) return false;
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+            if (isIgnored(path.substring(0, slash), true)) return true;
+        }
+        return isIgnored(path, isDirectory);
+    }
+
+    private void add(String line) {
+        String pattern = stripTrailingSpaces(line);
+        if (pattern.isEmpty() || pattern.startsWith("#")) return;
+
+        boolean negated = pattern.startsWith("!");
+        if (negated) pattern = pattern.substring(1);
+        if (pattern.startsWith("\\#") || pattern.startsWith("\\!")) pattern = pattern.substring(1);
+
+        boolean dirOnly = pattern.endsWith("/");
+        if (dirOnly) pattern = pattern.substring(0, pattern.length() - 1);
+
+        boolean anchoredPattern = pattern.contains("/");
+        if (pattern.startsWith("/")) pattern = pattern.substring(1);
+        if (pattern.isEmpty()) return;
+
+        Rule rule = new Rule(ruleCount++, negated, dirOnly);
+        boolean wildcard = hasWildcard(pattern);
+
+        if (!wildcard && !anchoredPattern) {
+            byName.computeIfAbsent(pattern, k -> new ArrayList<>()).add(rule);
+        } else if (!wildcard) {
+            TrieNode node = anchored;
+            for (String segment : pattern.split("/")) {
+                node = node.children.computeIfAbsent(segment, k -> new TrieNode());
+            }
+            node.rules.add(rule);
+        } else if (!anchoredPattern && pattern.startsWith("*") && !hasWildcard(pattern.substring(1))) {
+            suffixes.add(new SuffixRule(pattern.substring(1), rule));
+        } else if (pattern.startsWith("**/") && !pattern.substring(3).contains("/")) {
+            // "**/name" is the same as an unanchored "name"
+            regexes.add(new RegexRule(Pattern.compile(toRegex(pattern.substring(3))), false, rule));
+        } else {
+            regexes.add(new RegexRule(Pattern.compile(toRegex(pattern)), anchoredPattern, rule));
+        }
+    }
+
+    private static Rule pick(Rule best, List<Rule> candidates, boolean isDirectory) {
+        if (candidates == null) return best;
+        for (Rule rule : candidates) {
+            if (applies(rule, isDirectory) && (best == null || rule.order() > best.order())) {
+                best = rule;
+            }
+        }
+        return best;
+    }
+
+    private static boolean applies(Rule rule, boolean isDirectory) {
+        return !rule.dirOnly() || isDirectory;
+    }
+
+    private static boolean hasWildcard(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '\\') return true;
+        }
+        return false;
+    }
+
+    private static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i);
+            if (glob.startsWith("**/", i) && (i == 0 || glob.charAt(i - 1) == '/')) {
+                regex.append("(?:.*/)?");
+                i += 3;
+            } else if (glob.startsWith("**", i) && i + 2 == glob.length() && (i == 0 || glob.charAt(i - 1) == '/')) {
+                regex.append(".*");
+                i += 2;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+                i++;
+            } else if (c == '?') {
+                regex.append("[^/]");
+                i++;
+            } else if (c == '[') {
+                int close = glob.indexOf(']', i + 2);
+                if (close < 0) {
+                    regex.append("\\[");
+                    i++;
+                } else {
+                    String body = glob.substring(i + 1, close);
+                    if (body.startsWith("!")) body = "^" + body.substring(1);
+                    regex.append('[').append(body.replace("\\", "\\\\")).append(']');
+                    i = close + 1;
+                }
+            } else if (c == '\\' && i + 1 < glob.length()) {
+                regex.append(Pattern.quote(String.valueOf(glob.charAt(i + 1))));
+                i += 2;
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+                i++;
+            }
+        }
+        return regex.toString();
+    }
+
+    private static String stripTrailingSpaces(String line) {
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\')) {
+            end--;
+        }
+        return line.substring(0, end);
+    }
+}
@@ -0,0 +1,450 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Binary staging index shared by every command.
+//
+// Layout (big-endian):
+//   header  : magic "BIDX", version, entry count, path table size
+//   entries : fixed 64-byte records sorted by path bytes
+//             (path offset, path length, object id, size, mtime, ctime, inode, mode)
+//   paths   : UTF-8 path bytes referenced by the entries
+//   TREE    : cache-tree extension (version 2): "TREE", byte size, then per
+//             directory whose tree id is known: path length, path, tree id
+//
+// The cache-tree remembers the tree object id of every directory that hasn't
+// changed since the last commit. Staging a path drops the ids of the
+// directories above it, so building the next commit only rewrites the trees
+// on the changed paths and reuses the rest.
+//
+// The file is read into one heap buffer on load and looked up with a binary
+// search, so commands that only need a handful of paths never decode the
+// whole index. It is deliberately not memory-mapped: Windows refuses to
+// rename a file over one that is still mapped, and Java cannot unmap it, so
+// save() would fail there.
+//
+// save() holds .bit/index.lock while it writes. If another command saved the
+// index after this one loaded it, the newer file is read back and this
+// command's own puts and removes are applied on top of it, path by path, so
+// two `bit add` runs in one working copy both keep their files.
+public class Index {
+    public static final Path DEFAULT_PATH = Paths.get(".bit/index");
+
+    private static final int MAGIC = 0x42494458; // "BIDX"
+    private static final int TREE_MAGIC = 0x54524545; // "TREE"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 64;
+    private static final int ID_LENGTH = 20;
+
+    private static final long LOCK_TIMEOUT_MILLIS = 10_000;
+
+    public record Entry(String path, String id, FileStat stat) {}
+
+    // Index file contents; save() always renames a new file in
+    private static final FileCache<ByteBuffer> CONTENTS = new FileCache<>();
+
+    private final Path file;
+    private long writtenAt; // index mtime in nanos, used to detect racily-clean entries
+    private FileStat loadedStat; // the file as it was when loaded or saved, null if there was none
+
+    private ByteBuffer data;
+    private int dataCount;
+    private int pathTableStart;
+
+    private TreeMap<String, Entry> entries; // materialized on first modification
+    private final Map<String, String> cacheTree = new HashMap<>(); // directory ("" = root) -> tree id
+
+    private final Map<String, Entry> changes = new HashMap<>(); // path -> entry put, or null if removed
+    private boolean replaced; // cleared, so every entry is this command's own
+
+    private Index(Path file) {
+        this.file = file;
+    }
+
+    public static Index load() throws IOException {
+        return load(DEFAULT_PATH);
+    }
+
+    public static Index load(Path file) throws IOException {
+        long started = System.nanoTime();
+        Index index = read(file);
+        recordIO("read", index.size(), started);
+        return index;
+    }
+
+    private static Index read(Path file) throws IOException {
+        Index index = new Index(file);
+        if (!Files.exists(file) || Files.size(file) == 0) {
+            index.entries = new TreeMap<>();
+            return index;
+        }
+
+        index.loadedStat = FileStat.of(file);
+        index.writtenAt = index.loadedStat.mtime();
+        ByteBuffer buffer = CONTENTS.get(file, Index::readBytes).duplicate();
+        if (buffer.remaining() >= HEADER_SIZE && buffer.getInt(0) == MAGIC) {
+            int version = buffer.getInt(4);
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported index version: " + version);
+            }
+            index.data = buffer;
+            index.dataCount = buffer.getInt(8);
+            index.pathTableStart = HEADER_SIZE + index.dataCount * ENTRY_SIZE;
+            index.readCacheTree(index.pathTableStart + buffer.getInt(12));
+        } else {
+            index.entries = parseLegacy(file);
+        }
+        return index;
+    }
+
+    private static ByteBuffer readBytes(Path file) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(file)).asReadOnlyBuffer();
+    }
+
+    public Entry get(String path) {
+        if (entries != null) {
+            return entries.get(path);
+        }
+        int i = find(path.getBytes(StandardCharsets.UTF_8));
+        return i >= 0 ? decode(i) : null;
+    }
+
+    public boolean contains(String path) {
+        return get(path) != null;
+    }
+
+    public int size() {
+        return entries != null ? entries.size() : dataCount;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Entries in path order.
+    public List<Entry> entries() {
+        if (entries != null) {
+            return new ArrayList<>(entries.values());
+        }
+        List<Entry> list = new ArrayList<>(dataCount);
+        for (int i = 0; i < dataCount; i++) {
+            list.add(decode(i));
+        }
+        return list;
+    }
+
+    public void put(Entry entry) {
+        Entry previous = materialize().put(entry.path(), entry);
+        if (entry.equals(previous)) return;
+        changes.put(entry.path(), entry);
+        // A stat refresh leaves the trees alone; only content or mode changes count
+        if (previous == null || !previous.id().equals(entry.id())
+                || Tree.fileMode(previous.stat().mode()) != Tree.fileMode(entry.stat().mode())) {
+            invalidateTrees(entry.path());
+        }
+    }
+
+    public Entry remove(String path) {
+        Entry removed = materialize().remove(path);
+        if (removed != null) {
+            changes.put(path, null);
+            invalidateTrees(path);
+        }
+        return removed;
+    }
+
+    public void clear() {
+        materialize().clear();
+        cacheTree.clear();
+        changes.clear();
+        replaced = true;
+    }
+
+    // Tree id of a directory ("" for the root) if nothing below it has been
+    // staged since it was computed, otherwise null
+    public String cachedTree(String dir) {
+        return cacheTree.get(dir);
+    }
+
+    // Every cached tree id, which `bit gc` must keep
+    public Collection<String> cachedTrees() {
+        return Collections.unmodifiableCollection(cacheTree.values());
+    }
+
+    public void cacheTree(String dir, String treeId) {
+        cacheTree.put(dir, treeId);
+    }
+
+    private void invalidateTrees(String path) {
+        if (cacheTree.isEmpty()) return;
+        int slash = path.lastIndexOf('/');
+        while (slash > 0) {
+            path = path.substring(0, slash);
+            cacheTree.remove(path);
+            slash = path.lastIndexOf('/');
+        }
+        cacheTree.remove("");
+    }
+
+    // True when the stat data still matches and the entry was not written in
+    // the same timestamp window as the index itself (a "racily clean" entry).
+    public boolean isUpToDate(Entry entry, FileStat current) {
+        return entry.stat().equals(current) && entry.stat().mtime() < writtenAt;
+    }
+
+    // Writes the index to a temp file and atomically renames it over the old one,
+    // so readers only ever see a complete index. Writers take turns on the lock.
+    public void save() throws IOException {
+        long started = System.nanoTime();
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        try (FileChannel lockChannel = FileChannel.open(dir.resolve(file.getFileName() + ".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = lock(lockChannel);
+            try {
+                FileStat onDisk = Files.exists(file) ? FileStat.of(file) : null;
+                if (!replaced && onDisk != null && !onDisk.equals(loadedStat)) {
+                    mergeOnto(read(file));
+                }
+                write(dir);
+            } finally {
+                lock.release();
+            }
+        }
+        changes.clear();
+        replaced = false;
+        recordIO("write", size(), started);
+    }
+
+    // Waits for the index lock, polling with a growing pause: tryLock never
+    // blocks, and it reports a lock held elsewhere in this JVM by throwing
+    private FileLock lock(FileChannel channel) throws IOException {
+        long deadline = System.currentTimeMillis() + LOCK_TIMEOUT_MILLIS;
+        long pause = 1;
+        while (true) {
+            try {
+                FileLock lock = channel.tryLock();
+                if (lock != null) return lock;
+            } catch (OverlappingFileLockException e) {
+                // another thread of this process is saving
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Timed out waiting for " + file + ".lock; another bit command is updating the index");
+            }
+            try {
+                Thread.sleep(pause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + file + ".lock");
+            }
+            pause = Math.min(pause * 2, 50);
+        }
+    }
+
+    // Replays this command's changes over an index someone else saved in the
+    // meantime; for a path both touched, this command's entry wins. A
+    // directory's tree id is kept only if both indexes still agree on it.
+    private void mergeOnto(Index latest) {
+        TreeMap<String, Entry> merged = latest.materialize();
+        for (Map.Entry<String, Entry> change : changes.entrySet()) {
+            if (change.getValue() != null) {
+                merged.put(change.getKey(), change.getValue());
+            } else {
+                merged.remove(change.getKey());
+            }
+        }
+        entries = merged;
+        data = null;
+        dataCount = 0;
+
+        Map<String, String> agreed = new HashMap<>();
+        for (Map.Entry<String, String> tree : latest.cacheTree.entrySet()) {
+            if (tree.getValue().equals(cacheTree.get(tree.getKey()))) {
+                agreed.put(tree.getKey(), tree.getValue());
+            }
+        }
+        cacheTree.clear();
+        cacheTree.putAll(agreed);
+    }
+
+    private void write(Path parent) throws IOException {
+        List<Entry> sorted = new ArrayList<>(materialize().values());
+        byte[][] paths = new byte[sorted.size()][];
+        for (int i = 0; i < sorted.size(); i++) {
+            paths[i] = sorted.get(i).path().getBytes(StandardCharsets.UTF_8);
+        }
+
+        Integer[] order = new Integer[sorted.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> compareBytes(paths[a], paths[b]));
+
+        int pathTableSize = 0;
+        for (byte[] p : paths) pathTableSize += p.length;
+
+        List<String> treeDirs = new ArrayList<>(cacheTree.keySet());
+        Collections.sort(treeDirs);
+        int treeSize = 0;
+        for (String dir : treeDirs) {
+            treeSize += 4 + dir.getBytes(StandardCharsets.UTF_8).length + ID_LENGTH;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + sorted.size() * ENTRY_SIZE + pathTableSize + 8 + treeSize);
+        out.putInt(MAGIC).putInt(VERSION).putInt(sorted.size()).putInt(pathTableSize);
+
+        int pathOffset = 0;
+        for (int i : order) {
+            Entry entry = sorted.get(i);
+            FileStat stat = entry.stat();
+            out.putInt(pathOffset).putInt(paths[i].length);
+            out.put(Hex.decode(entry.id()));
+            out.putLong(stat.size()).putLong(stat.mtime()).putLong(stat.ctime()).putLong(stat.inode());
+            out.putInt(stat.mode());
+            pathOffset += paths[i].length;
+        }
+        for (int i : order) {
+            out.put(paths[i]);
+        }
+        out.putInt(TREE_MAGIC).putInt(treeSize);
+        for (String dir : treeDirs) {
+            byte[] name = dir.getBytes(StandardCharsets.UTF_8);
+            out.putInt(name.length).put(name).put(Hex.decode(cacheTree.get(dir)));
+        }
+
+        Path temp = Files.createTempFile(parent, "index", ".tmp");
+        try {
+            Files.write(temp, out.array());
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        loadedStat = FileStat.of(file);
+        writtenAt = loadedStat.mtime();
+    }
+
+    private static void recordIO(String operation, long entries, long started) {
+        Metrics.time("index." + operation, started);
+
+        Events.IndexIO event = new Events.IndexIO();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.entries = entries;
+            event.commit();
+        }
+    }
+
+    // Normalizes a working tree path to the form stored in the index: relative,
+    // forward slashes and no leading "./".
+    public static String toIndexPath(Path path) {
+        String p = path.normalize().toString().replace("\\", "/");
+        while (p.startsWith("./")) {
+            p = p.substring(2);
+        }
+        return p;
+    }
+
+    private TreeMap<String, Entry> materialize() {
+        if (entries == null) {
+            entries = new TreeMap<>();
+            for (int i = 0; i < dataCount; i++) {
+                Entry entry = decode(i);
+                entries.put(entry.path(), entry);
+            }
+            data = null;
+            dataCount = 0;
+        }
+        return entries;
+    }
+
+    private void readCacheTree(int start) {
+        if (data.limit() < start + 8 || data.getInt(start) != TREE_MAGIC) return;
+        int pos = start + 8;
+        int end = pos + data.getInt(start + 4);
+        while (pos < end) {
+            byte[] name = new byte[data.getInt(pos)];
+            data.get(pos + 4, name);
+            byte[] id = new byte[ID_LENGTH];
+            data.get(pos + 4 + name.length, id);
+            cacheTree.put(new String(name, StandardCharsets.UTF_8), Hex.encode(id));
+            pos += 4 + name.length + ID_LENGTH;
+        }
+    }
+
+    private int find(byte[] key) {
+        int lo = 0;
+        int hi = dataCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = comparePathAt(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    private int comparePathAt(int i, byte[] key) {
+        int base = HEADER_SIZE + i * ENTRY_SIZE;
+        int offset = pathTableStart + data.getInt(base);
+        int length = data.getInt(base + 4);
+        int n = Math.min(length, key.length);
+        for (int k = 0; k < n; k++) {
+            int a = data.get(offset + k) & 0xff;
+            int b = key[k] & 0xff;
+            if (a != b) return a - b;
+        }
+        return length - key.length;
+    }
+
+    private Entry decode(int i) {
+        int base = HEADER_SIZE + i * ENTRY_SIZE;
+        byte[] path = new byte[data.getInt(base + 4)];
+        data.get(pathTableStart + data.getInt(base), path);
+
+        byte[] id = new byte[ID_LENGTH];
+        data.get(base + 8, id);
+
+        int statBase = base + 8 + ID_LENGTH;
+        FileStat stat = new FileStat(
+                data.getLong(statBase),
+                data.getLong(statBase + 8),
+                data.getLong(statBase + 16),
+                data.getLong(statBase + 24),
+                data.getInt(statBase + 32));
+        return new Entry(new String(path, StandardCharsets.UTF_8), Hex.encode(id), stat);
+    }
+
+    // Reads the old append-only "<hash> <path>" text index; later lines win.
+    private static TreeMap<String, Entry> parseLegacy(Path file) throws IOException {
+        TreeMap<String, Entry> result = new TreeMap<>();
+        for (String line : Files.readAllLines(file)) {
+            String[] parts = line.trim().split(" ", 2);
+            if (parts.length == 2 && Hex.isObjectId(parts[0])) {
+                String path = toIndexPath(Paths.get(parts[1]));
+                result.put(path, new Entry(path, parts[0], new FileStat(0, 0, 0, 0, FileStat.MODE_FILE)));
+            }
+        }
+        return result;
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) return cmp;
+        }
+        return a.length - b.length;
+    }
+}
@@ -0,0 +1,129 @@
+package bit.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters and phase timings for the command being run, printed by --stats.
+//
+// Every command dispatched by Bit gets a fresh Metrics that its own thread
+// and the threads it starts (hash pipelines, upload pools) record into, so
+// commands running side by side in the daemon never mix their numbers. Phase
+// times are summed over threads: eight hashers busy for one second report
+// eight seconds of "hash".
+//
+// The peak heap reported is the JVM's, summed over its heap pools since the
+// command began. In the daemon, commands running at the same time share it.
+//
+// The matching JDK Flight Recorder events live in Events; record them with
+// `java -XX:StartFlightRecording=filename=bit.jfr -jar bit.jar ...`.
+public class Metrics {
+    private static final InheritableThreadLocal<Metrics> CURRENT = new InheritableThreadLocal<>();
+    private static final Metrics DETACHED = new Metrics("");
+
+    private final String command;
+    private final long started = System.nanoTime();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Phase> phases = new ConcurrentHashMap<>();
+
+    private static final class Phase {
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+    }
+
+    private Metrics(String command) {
+        this.command = command;
+    }
+
+    // Starts collecting for a command on this thread and the threads it starts
+    public static Metrics begin(String command) {
+        Metrics metrics = new Metrics(command);
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+        CURRENT.set(metrics);
+        return metrics;
+    }
+
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    public static Metrics current() {
+        Metrics metrics = CURRENT.get();
+        return metrics != null ? metrics : DETACHED;
+    }
+
+    public static void count(String counter, long delta) {
+        current().counters.computeIfAbsent(counter, name -> new LongAdder()).add(delta);
+    }
+
+    // Time since `start` (a System.nanoTime() value) spent in one more run of a phase
+    public static void time(String phase, long start) {
+        Phase entry = current().phases.computeIfAbsent(phase, name -> new Phase());
+        entry.count.increment();
+        entry.nanos.add(System.nanoTime() - start);
+    }
+
+    public String report(boolean json) {
+        double wallMs = (System.nanoTime() - started) / 1e6;
+        Map<String, Phase> sortedPhases = new TreeMap<>(phases);
+        Map<String, LongAdder> sortedCounters = new TreeMap<>(counters);
+        long peakHeap = peakHeap();
+
+        StringBuilder out = new StringBuilder();
+        if (json) {
+            out.append("{\"command\":\"").append(command).append("\",\"wallMs\":").append(round(wallMs));
+            out.append(",\"peakHeapBytes\":").append(peakHeap);
+            out.append(",\"phases\":{");
+            String separator = "";
+            for (Map.Entry<String, Phase> phase : sortedPhases.entrySet()) {
+                out.append(separator).append('"').append(phase.getKey()).append("\":{\"count\":")
+                        .append(phase.getValue().count.sum()).append(",\"ms\":")
+                        .append(round(phase.getValue().nanos.sum() / 1e6)).append('}');
+                separator = ",";
+            }
+            out.append("},\"counters\":{");
+            separator = "";
+            for (Map.Entry<String, LongAdder> counter : sortedCounters.entrySet()) {
+                out.append(separator).append('"').append(counter.getKey()).append("\":").append(counter.getValue().sum());
+                separator = ",";
+            }
+            return out.append("}}").toString();
+        }
+
+        out.append(String.format("📊 %s took %.1f ms, peak heap %.1f MiB%n", command, wallMs, peakHeap / 1048576.0));
+        if (!sortedPhases.isEmpty()) {
+            out.append("   Phases (summed over threads):\n");
+            for (Map.Entry<String, Phase> phase : sortedPhases.entrySet()) {
+                out.append(String.format("     %-20s %10.1f ms  %8d×%n", phase.getKey(),
+                        phase.getValue().nanos.sum() / 1e6, phase.getValue().count.sum()));
+            }
+        }
+        if (!sortedCounters.isEmpty()) {
+            out.append("   Counters:\n");
+            for (Map.Entry<String, LongAdder> counter : sortedCounters.entrySet()) {
+                out.append(String.format("     %-20s %14d%n", counter.getKey(), counter.getValue().sum()));
+            }
+        }
+        return out.toString().stripTrailing();
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static String round(double value) {
+        return String.valueOf(Math.round(value * 1000) / 1000.0);
+    }
+}
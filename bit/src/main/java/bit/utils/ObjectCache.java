@@ -0,0 +1,128 @@
+package bit.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Least-recently-used cache of objects read from an ObjectStore, bounded by
+// an estimate of the bytes it holds rather than by entry count.
+//
+// Objects never change once written, so an entry is valid for as long as the
+// object exists. Trees and commits are kept parsed; blobs are kept as their
+// content, and blobs of at least `offHeapThreshold` bytes are copied into a
+// direct ByteBuffer so a cache full of large files doesn't weigh on the heap.
+// A value heavier than an eighth of the capacity is never cached, so one big
+// file can't flush everything else.
+public class ObjectCache {
+    // Rough per-entry cost of the map node, the key string and the value header
+    private static final long ENTRY_OVERHEAD = 160;
+
+    private record Cached(Object value, long weight) {}
+
+    private final long capacity;
+    private final long offHeapThreshold;
+    private final LinkedHashMap<String, Cached> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // offHeapThreshold <= 0 keeps every blob on the heap
+    public ObjectCache(long capacity, long offHeapThreshold) {
+        this.capacity = capacity;
+        this.offHeapThreshold = offHeapThreshold;
+    }
+
+    public static ObjectCache of(Settings settings) {
+        long capacity = settings.size("cache.size", Settings.DEFAULT_CACHE_SIZE);
+        long offHeap = settings.size("cache.offheap", 0);
+        if (capacity < 0 || offHeap < 0) {
+            throw new IllegalStateException("Invalid cache sizes in .bit/settings: sizes can't be negative");
+        }
+        return new ObjectCache(capacity, offHeap);
+    }
+
+    // The cached value for `id` if it is a `kind`, or null
+    public <T> T get(String id, Class<T> kind) {
+        Object value = lookup(id);
+        return record(kind.isInstance(value)) ? kind.cast(value) : null;
+    }
+
+    public void put(String id, Object value, long weight) {
+        long total = weight + ENTRY_OVERHEAD;
+        if (total > capacity / 8) {
+            return;
+        }
+        synchronized (this) {
+            Cached previous = entries.put(id, new Cached(value, total));
+            this.weight += total - (previous != null ? previous.weight() : 0);
+
+            Iterator<Cached> eldest = entries.values().iterator();
+            while (this.weight > capacity && eldest.hasNext()) {
+                this.weight -= eldest.next().weight();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    // Blob content, off-heap when it is large enough
+    public void putBlob(String id, byte[] data) {
+        if (offHeapThreshold > 0 && data.length >= offHeapThreshold) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+            buffer.put(data).flip();
+            put(id, buffer.asReadOnlyBuffer(), data.length);
+        } else {
+            put(id, data.clone(), data.length);
+        }
+    }
+
+    // A copy of blob content put by putBlob, or null
+    public byte[] getBlob(String id) {
+        Object value = lookup(id);
+        if (value instanceof ByteBuffer buffer && record(true)) {
+            byte[] data = new byte[buffer.remaining()];
+            buffer.duplicate().get(data);
+            return data;
+        }
+        return record(value instanceof byte[]) ? ((byte[]) value).clone() : null;
+    }
+
+    private synchronized Object lookup(String id) {
+        Cached cached = entries.get(id);
+        return cached != null ? cached.value() : null;
+    }
+
+    private boolean record(boolean hit) {
+        (hit ? hits : misses).increment();
+        Metrics.count(hit ? "cache.hits" : "cache.misses", 1);
+        return hit;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public synchronized long weight() {
+        return weight;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,673 @@
+package bit.utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.ToLongFunction;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// Content-addressed object database under .bit/objects.
+//
+// Objects are stored like Git loose objects: the id is the SHA-1 of
+// "<type> <size>\0<content>", the file lives in a two-character fan-out
+// directory (objects/ab/cdef...) and holds the zlib-compressed header and content.
+// Writes go to a temp file that is atomically renamed into place, and are
+// skipped entirely when the object already exists.
+//
+// Reads fall back to the packfiles under objects/pack written by `bit repack`,
+// so callers never need to know whether an object is loose or packed.
+//
+// Files of at least chunking.threshold bytes (see Settings) are split into
+// content-defined chunks by Chunker. Each chunk is a "chunk" object, and a
+// "manifest" object listing "<chunk id> <size>" lines is stored under the
+// file's ordinary blob id, so ids stay Git-compatible while unchanged chunks
+// are shared between versions and files. open() and read() put the chunks
+// back together and report a blob; openRaw() and readRaw() see the manifest.
+//
+// read() and readParsed() go through an ObjectCache, so a tree or blob read
+// again during a merge or history walk, or by the next command in the daemon,
+// comes from memory.
+public class ObjectStore {
+    public static final Path DEFAULT_DIR = Paths.get(".bit/objects");
+
+    public static final String BLOB = "blob";
+    public static final String COMMIT = "commit";
+    public static final String TREE = "tree";
+    public static final String CHUNK = "chunk";
+    public static final String MANIFEST = "manifest";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_ARRAY = Integer.MAX_VALUE - 8; // the largest byte[] the JVM reliably hands out
+
+    public record RawObject(String type, byte[] data) {}
+
+    // Streaming view of an object's content, positioned just after the header.
+    public static final class ObjectStream extends FilterInputStream {
+        private final String type;
+        private final long size;
+
+        ObjectStream(String type, long size, InputStream in) {
+            super(in);
+            this.type = type;
+            this.size = size;
+        }
+
+        public String type() {
+            return type;
+        }
+
+        public long size() {
+            return size;
+        }
+    }
+
+    private final Path dir;
+    private volatile List<PackFile> packs;
+    private volatile Chunking chunking;
+
+    private static final FileCache<Settings> SETTINGS = new FileCache<>();
+
+    private record Chunking(Settings settings, Chunker chunker) {}
+
+    private volatile Caching caching;
+
+    private record Caching(Settings settings, ObjectCache cache) {}
+
+    public interface Parser<T> {
+        T parse(RawObject object) throws IOException;
+    }
+
+    public ObjectStore(Path dir) {
+        this.dir = dir;
+    }
+
+    private static volatile ObjectStore shared;
+
+    public static ObjectStore open() {
+        ObjectStore store = shared;
+        return store != null ? store : new ObjectStore(DEFAULT_DIR);
+    }
+
+    // Makes open() hand out one long-lived store, so a long-running process
+    // (the daemon) keeps its packs open and their indexes loaded between commands
+    public static void share() {
+        shared = new ObjectStore(DEFAULT_DIR);
+    }
+
+    public Path dir() {
+        return dir;
+    }
+
+    public Path pathFor(String id) {
+        return dir.resolve(id.substring(0, 2)).resolve(id.substring(2));
+    }
+
+    public Path packDir() {
+        return dir.resolve("pack");
+    }
+
+    public boolean exists(String id) {
+        return Files.exists(pathFor(id)) || Files.exists(dir.resolve(id)) || findPacked(id) != null;
+    }
+
+    // Like exists(), but also marks an existing object as just written, so
+    // `bit gc` gives it the same grace period as a new one: a skipped write
+    // may be about to make an unreachable object reachable again
+    private boolean freshen(String id) {
+        FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        for (Path path : List.of(pathFor(id), dir.resolve(id))) {
+            try {
+                Files.setLastModifiedTime(path, now);
+                return true;
+            } catch (NoSuchFileException e) {
+                // Not stored loose under this name
+            } catch (IOException e) {
+                return true; // there, just not ours to touch
+            }
+        }
+        PackFile pack = findPacked(id);
+        if (pack == null) return false;
+        try {
+            Files.setLastModifiedTime(pack.path(), now);
+        } catch (IOException e) {
+            // Read-only pack; the object is still there
+        }
+        return true;
+    }
+
+    public boolean isLoose(String id) {
+        return Files.exists(pathFor(id));
+    }
+
+    // Ids of all loose objects in the fan-out directories.
+    public List<String> listLoose() throws IOException {
+        List<String> ids = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return ids;
+
+        try (DirectoryStream<Path> fanout = Files.newDirectoryStream(dir)) {
+            for (Path sub : fanout) {
+                String prefix = sub.getFileName().toString();
+                if (prefix.length() != 2 || !Files.isDirectory(sub)) continue;
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(sub)) {
+                    for (Path file : files) {
+                        String id = prefix + file.getFileName();
+                        if (Hex.isObjectId(id)) ids.add(id);
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    public void deleteLoose(String id) throws IOException {
+        Files.deleteIfExists(pathFor(id));
+    }
+
+    // Drops fan-out directories left empty after loose objects were deleted
+    public void removeEmptyFanoutDirs() throws IOException {
+        if (!Files.isDirectory(dir)) return;
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(dir)) {
+            for (Path sub : dirs) {
+                if (sub.getFileName().toString().length() != 2 || !Files.isDirectory(sub)) continue;
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(sub)) {
+                    if (!entries.iterator().hasNext()) {
+                        Files.deleteIfExists(sub);
+                    }
+                }
+            }
+        }
+    }
+
+    public List<PackFile> packs() throws IOException {
+        List<PackFile> current = packs;
+        if (current == null) {
+            synchronized (this) {
+                if (packs == null) {
+                    packs = scanPacks(List.of());
+                }
+                current = packs;
+            }
+        }
+        return current;
+    }
+
+    // Picks up packs written since the last scan, keeping the ones already open.
+    public synchronized void rescanPacks() throws IOException {
+        packs = scanPacks(packs != null ? packs : List.of());
+    }
+
+    // Closes every open pack, e.g. before repack deletes them.
+    public synchronized void closePacks() throws IOException {
+        if (packs != null) {
+            for (PackFile pack : packs) {
+                pack.close();
+            }
+            packs = null;
+        }
+    }
+
+    private List<PackFile> scanPacks(List<PackFile> open) throws IOException {
+        List<PackFile> result = new ArrayList<>();
+        Path packDir = packDir();
+        if (Files.isDirectory(packDir)) {
+            try (DirectoryStream<Path> idxFiles = Files.newDirectoryStream(packDir, "pack-*.idx")) {
+                for (Path idx : idxFiles) {
+                    PackFile existing = null;
+                    for (PackFile pack : open) {
+                        if (pack.path().equals(PackFile.packPathFor(idx))) existing = pack;
+                    }
+                    result.add(existing != null ? existing : PackFile.open(idx));
+                }
+            }
+        }
+        for (PackFile pack : open) {
+            if (!result.contains(pack)) pack.close();
+        }
+        return result;
+    }
+
+    private PackFile findPacked(String id) {
+        try {
+            for (PackFile pack : packs()) {
+                if (pack.contains(id)) return pack;
+            }
+        } catch (IOException e) {
+            // Unreadable packs behave like missing objects
+        }
+        return null;
+    }
+
+    public static byte[] header(String type, long size) {
+        return (type + " " + size + "\0").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static String hash(String type, byte[] data) {
+        MessageDigest digest = FileHasher.sha1();
+        digest.update(header(type, data.length));
+        digest.update(data);
+        return Hex.encode(digest.digest());
+    }
+
+    public String write(String type, byte[] data) throws IOException {
+        return write(type, data, 0, data.length);
+    }
+
+    public String write(String type, byte[] data, int offset, int length) throws IOException {
+        long started = System.nanoTime();
+        MessageDigest digest = FileHasher.sha1();
+        digest.update(header(type, length));
+        digest.update(data, offset, length);
+        String id = Hex.encode(digest.digest());
+        boolean skipped = freshen(id);
+        if (!skipped) {
+            writeAs(id, type, data, offset, length);
+        }
+        recordWrite(id, type, length, skipped, started);
+        return id;
+    }
+
+    private static void recordWrite(String id, String type, long size, boolean skipped, long started) {
+        Metrics.time("object.write", started);
+        Metrics.count(skipped ? "objects.skipped" : "objects.written", 1);
+        if (!skipped) {
+            Metrics.count("bytes.stored", size);
+        }
+
+        Events.ObjectWrite event = new Events.ObjectWrite();
+        if (event.shouldCommit()) {
+            event.id = id;
+            event.type = type;
+            event.size = size;
+            event.skipped = skipped;
+            event.commit();
+        }
+    }
+
+    // Stores content under an id that the caller vouches for
+    private void writeAs(String id, String type, byte[] data, int offset, int length) throws IOException {
+        Path temp = createTemp();
+        try {
+            try (OutputStream out = compressedOutput(temp)) {
+                out.write(header(type, length));
+                out.write(data, offset, length);
+            }
+            install(temp, id);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public String writeBlob(Path file) throws IOException {
+        return writeBlob(file, FileHasher.hashFile(file));
+    }
+
+    // Stores a file whose blob id is already known. The content is re-hashed
+    // while it is compressed so a file that changed after hashing is rejected
+    // instead of being stored under the wrong id.
+    public String writeBlob(Path file, String expectedId) throws IOException {
+        long started = System.nanoTime();
+        if (freshen(expectedId)) {
+            recordWrite(expectedId, BLOB, Files.size(file), true, started);
+            return expectedId;
+        }
+        if (Files.size(file) >= chunkThreshold()) {
+            return writeChunked(file, expectedId, started);
+        }
+
+        Path temp = createTemp();
+        try {
+            MessageDigest digest = FileHasher.sha1();
+            try (InputStream in = Files.newInputStream(file);
+                 OutputStream out = compressedOutput(temp)) {
+                long size = Files.size(file);
+                byte[] header = header(BLOB, size);
+                digest.update(header);
+                out.write(header);
+
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long total = 0;
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                    total += n;
+                }
+                if (total != size) {
+                    throw new IOException(file + " changed while it was being staged");
+                }
+            }
+
+            String id = Hex.encode(digest.digest());
+            if (!id.equals(expectedId)) {
+                throw new IOException(file + " changed while it was being staged");
+            }
+            install(temp, id);
+            recordWrite(id, BLOB, Files.size(file), false, started);
+            return id;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Reads the file through a buffer of chunking.max bytes: each chunk is cut,
+    // hashed into the file's blob id and stored (once, however many files
+    // share it), then the manifest is written under the blob id.
+    private String writeChunked(Path file, String expectedId, long started) throws IOException {
+        Chunker chunker = chunker();
+        long size = Files.size(file);
+        MessageDigest digest = FileHasher.sha1();
+        digest.update(header(BLOB, size));
+        StringBuilder manifest = new StringBuilder();
+
+        long total = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[chunker.maxSize()];
+            int filled = 0;
+            boolean eof = false;
+            while (true) {
+                while (!eof && filled < buffer.length) {
+                    int n = in.read(buffer, filled, buffer.length - filled);
+                    if (n == -1) {
+                        eof = true;
+                    } else {
+                        filled += n;
+                    }
+                }
+                if (filled == 0) break;
+
+                int length = chunker.cut(buffer, 0, filled);
+                digest.update(buffer, 0, length);
+                String chunk = write(CHUNK, buffer, 0, length);
+                manifest.append(chunk).append(' ').append(length).append('\n');
+                total += length;
+
+                System.arraycopy(buffer, length, buffer, 0, filled - length);
+                filled -= length;
+            }
+        }
+
+        // Chunks stored before a change was noticed are left for gc
+        if (total != size || !Hex.encode(digest.digest()).equals(expectedId)) {
+            throw new IOException(file + " changed while it was being staged");
+        }
+        byte[] data = manifest.toString().getBytes(StandardCharsets.US_ASCII);
+        writeAs(expectedId, MANIFEST, data, 0, data.length);
+        recordWrite(expectedId, MANIFEST, data.length, false, started);
+        return expectedId;
+    }
+
+    public RawObject read(String id) throws IOException {
+        ObjectCache cache = cache();
+        byte[] cached = cache.getBlob(id);
+        if (cached != null) {
+            return new RawObject(BLOB, cached);
+        }
+        RawObject object = readAll(open(id));
+        if (object.type().equals(BLOB)) {
+            cache.putBlob(id, object.data());
+        }
+        return object;
+    }
+
+    // The object as `parser` turns it into a `kind`, cached in that form.
+    // `weight` estimates the parsed value's size in bytes.
+    public <T> T readParsed(String id, Class<T> kind, Parser<T> parser, ToLongFunction<T> weight)
+            throws IOException {
+        ObjectCache cache = cache();
+        T cached = cache.get(id, kind);
+        if (cached != null) {
+            return cached;
+        }
+        T value = parser.parse(readAll(open(id)));
+        cache.put(id, value, weight.applyAsLong(value));
+        return value;
+    }
+
+    public RawObject readRaw(String id) throws IOException {
+        return readAll(openRaw(id));
+    }
+
+    // Objects too large for one array must be streamed with open()
+    private static RawObject readAll(ObjectStream stream) throws IOException {
+        try (ObjectStream in = stream) {
+            if (in.size() > MAX_ARRAY) {
+                throw new IOException("Object of " + in.size() + " bytes is too large to read into memory");
+            }
+            byte[] data = in.readNBytes((int) in.size());
+            return new RawObject(in.type(), data);
+        }
+    }
+
+    // The object's content; a chunked file is streamed back one chunk at a time
+    public ObjectStream open(String id) throws IOException {
+        ObjectStream in = openRaw(id);
+        if (!in.type().equals(MANIFEST)) {
+            return in;
+        }
+
+        List<String> chunks = new ArrayList<>();
+        long size = 0;
+        try (in) {
+            String listing = new String(in.readNBytes((int) in.size()), StandardCharsets.US_ASCII);
+            for (String line : listing.split("\n")) {
+                if (line.isEmpty()) continue;
+                int space = line.indexOf(' ');
+                chunks.add(line.substring(0, space));
+                size += Long.parseLong(line.substring(space + 1));
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt manifest: " + id);
+        }
+        return new ObjectStream(BLOB, size, new ChunkInputStream(chunks));
+    }
+
+    // The content size, a chunked file's from its manifest, without reading the content
+    public long size(String id) throws IOException {
+        try (ObjectStream in = open(id)) {
+            return in.size();
+        }
+    }
+
+    // The object's type as stored (a chunked file is a "manifest"), read from
+    // its header without inflating the content
+    public String type(String id) throws IOException {
+        if (!Files.exists(pathFor(id))) {
+            PackFile pack = findPacked(id);
+            String type = pack != null ? pack.typeOf(id) : null;
+            if (type != null) return type;
+        }
+        try (ObjectStream in = openRaw(id)) {
+            return in.type();
+        }
+    }
+
+    // Chunk ids of a chunked file, or an empty list for any other object
+    public List<String> chunksOf(String id) throws IOException {
+        List<String> chunks = new ArrayList<>();
+        RawObject object = readRaw(id);
+        if (object.type().equals(MANIFEST)) {
+            for (String line : new String(object.data(), StandardCharsets.US_ASCII).split("\n")) {
+                if (!line.isEmpty()) chunks.add(line.substring(0, line.indexOf(' ')));
+            }
+        }
+        return chunks;
+    }
+
+    // The object exactly as stored, without reassembling manifests
+    public ObjectStream openRaw(String id) throws IOException {
+        long started = System.nanoTime();
+        Path path = pathFor(id);
+        if (!Files.exists(path)) {
+            PackFile pack = findPacked(id);
+            if (pack == null) {
+                // A concurrent repack may have moved the object into a new pack
+                rescanPacks();
+                pack = findPacked(id);
+            }
+            if (pack != null) {
+                RawObject object = pack.read(id);
+                recordRead(id, object.type(), true, started);
+                return new ObjectStream(object.type(), object.data().length, new ByteArrayInputStream(object.data()));
+            }
+
+            Path legacy = dir.resolve(id);
+            if (Files.exists(legacy)) {
+                return openLegacy(legacy);
+            }
+            throw new FileNotFoundException("Object not found: " + id);
+        }
+
+        InputStream in = new InflaterInputStream(new BufferedInputStream(Files.newInputStream(path)));
+        try {
+            StringBuilder header = new StringBuilder();
+            int c;
+            while ((c = in.read()) > 0) {
+                header.append((char) c);
+            }
+            int space = header.indexOf(" ");
+            if (c != 0 || space < 0) {
+                throw new IOException("Corrupt object: " + id);
+            }
+            String type = header.substring(0, space);
+            recordRead(id, type, false, started);
+            return new ObjectStream(type, Long.parseLong(header.substring(space + 1)), in);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // Loose objects are inflated as the caller reads them, so their time is
+    // only the open; packed objects are already decompressed here
+    private static void recordRead(String id, String type, boolean packed, long started) {
+        Metrics.time("object.open", started);
+        Metrics.count(packed ? "objects.read.packed" : "objects.read.loose", 1);
+
+        Events.ObjectRead event = new Events.ObjectRead();
+        if (event.shouldCommit()) {
+            event.id = id;
+            event.type = type;
+            event.packed = packed;
+            event.commit();
+        }
+    }
+
+    // Objects written by older versions of bit were stored raw in a flat directory.
+    private ObjectStream openLegacy(Path legacy) throws IOException {
+        byte[] data = Files.readAllBytes(legacy);
+        String type = new String(data, 0, Math.min(data.length, 5), StandardCharsets.UTF_8).equals("tree:") ? COMMIT : BLOB;
+        return new ObjectStream(type, data.length, new ByteArrayInputStream(data));
+    }
+
+    // Concatenates chunk objects, opening each only when the previous one is used up
+    private final class ChunkInputStream extends InputStream {
+        private final Iterator<String> chunks;
+        private InputStream current;
+
+        ChunkInputStream(List<String> chunks) {
+            this.chunks = chunks.iterator();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (true) {
+                if (current == null) {
+                    if (!chunks.hasNext()) return -1;
+                    current = openRaw(chunks.next());
+                }
+                int n = current.read(b, off, len);
+                if (n != -1) return n;
+                current.close();
+                current = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) current.close();
+        }
+    }
+
+    // Files of at least this size are stored in chunks
+    public long chunkThreshold() throws IOException {
+        return settings().size("chunking.threshold", Settings.DEFAULT_CHUNK_THRESHOLD);
+    }
+
+    private Settings settings() throws IOException {
+        return SETTINGS.get(dir.resolveSibling("settings"), Settings::load);
+    }
+
+    public ObjectCache cache() throws IOException {
+        Settings settings = settings();
+        Caching current = caching;
+        if (current == null || current.settings() != settings) {
+            synchronized (this) {
+                current = caching;
+                if (current == null || current.settings() != settings) {
+                    try {
+                        current = new Caching(settings, ObjectCache.of(settings));
+                    } catch (IllegalStateException e) {
+                        // Reads happen in every command; report a bad setting like any other read failure
+                        throw new IOException(e.getMessage());
+                    }
+                    caching = current;
+                }
+            }
+        }
+        return current.cache();
+    }
+
+    private Chunker chunker() throws IOException {
+        Settings settings = settings();
+        Chunking current = chunking;
+        if (current == null || current.settings() != settings) {
+            current = new Chunking(settings, Chunker.of(settings));
+            chunking = current;
+        }
+        return current.chunker();
+    }
+
+    private Path createTemp() throws IOException {
+        Files.createDirectories(dir);
+        return Files.createTempFile(dir, "tmp_obj_", null);
+    }
+
+    private static OutputStream compressedOutput(Path temp) throws IOException {
+        // Git also uses the fastest zlib level for loose objects
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        return new DeflaterOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)), deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    private void install(Path temp, String id) throws IOException {
+        Path target = pathFor(id);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Another writer stored the same object first
+        }
+    }
+}
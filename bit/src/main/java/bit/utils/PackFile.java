@@ -0,0 +1,283 @@
+package bit.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.InflaterInputStream;
+
+// Read side of a packfile and its index.
+//
+// pack : "PACK", version, object count, entries..., SHA-1 trailer
+//        entry = type byte, varint inflated size, [varint distance to delta base], zlib data
+// idx  : "BPIX", version, 256-entry fan-out table of cumulative counts,
+//        sorted 20-byte object ids, 8-byte pack offsets, pack SHA-1
+//
+// Lookups binary-search only the slice of ids sharing the first byte, straight
+// out of the idx held in memory, so finding an object never opens a file per
+// object. The idx is read onto the heap rather than memory-mapped: Windows
+// won't delete a file that is still mapped, and repack and gc delete the idx
+// of every pack they replace while this process still has it open.
+public class PackFile implements Closeable {
+    static final int PACK_MAGIC = 0x5041434b; // "PACK"
+    static final int IDX_MAGIC = 0x42504958;  // "BPIX"
+    static final int VERSION = 1;
+
+    static final int TYPE_COMMIT = 1;
+    static final int TYPE_TREE = 2;
+    static final int TYPE_BLOB = 3;
+    static final int TYPE_CHUNK = 4;
+    static final int TYPE_MANIFEST = 5;
+    static final int TYPE_DELTA = 7;
+
+    static final int FANOUT_START = 8;
+    static final int IDS_START = FANOUT_START + 256 * 4;
+    static final int ID_LENGTH = 20;
+
+    private static final int BASE_CACHE_ENTRIES = 32;
+
+    private final Path packPath;
+    private volatile FileChannel channel;
+    private volatile boolean closed;
+    private final ByteBuffer idx;
+    private final int count;
+    private final int offsetsStart;
+
+    // Recently inflated delta bases, keyed by pack offset
+    private final Map<Long, ObjectStore.RawObject> baseCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ObjectStore.RawObject> eldest) {
+            return size() > BASE_CACHE_ENTRIES;
+        }
+    };
+
+    private PackFile(Path packPath, FileChannel channel, ByteBuffer idx) {
+        this.packPath = packPath;
+        this.channel = channel;
+        this.idx = idx;
+        this.count = idx.getInt(IDS_START - 4);
+        this.offsetsStart = IDS_START + count * ID_LENGTH;
+    }
+
+    public static PackFile open(Path idxPath) throws IOException {
+        ByteBuffer idx = ByteBuffer.wrap(Files.readAllBytes(idxPath)).asReadOnlyBuffer();
+        if (idx.getInt(0) != IDX_MAGIC || idx.getInt(4) != VERSION) {
+            throw new IOException("Unsupported pack index: " + idxPath);
+        }
+
+        Path packPath = packPathFor(idxPath);
+        return new PackFile(packPath, FileChannel.open(packPath, StandardOpenOption.READ), idx);
+    }
+
+    static Path packPathFor(Path idxPath) {
+        String name = idxPath.getFileName().toString();
+        return idxPath.resolveSibling(name.substring(0, name.length() - ".idx".length()) + ".pack");
+    }
+
+    public Path path() {
+        return packPath;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public boolean contains(String id) {
+        return find(Hex.decode(id)) >= 0;
+    }
+
+    public List<String> ids() {
+        List<String> ids = new ArrayList<>(count);
+        byte[] id = new byte[ID_LENGTH];
+        for (int i = 0; i < count; i++) {
+            idx.get(IDS_START + i * ID_LENGTH, id);
+            ids.add(Hex.encode(id));
+        }
+        return ids;
+    }
+
+    // Type of a packed object from the entry headers alone, following deltas
+    // back to their base without inflating anything; null when not in this pack
+    public String typeOf(String id) throws IOException {
+        int i = find(Hex.decode(id));
+        if (i < 0) return null;
+        long offset = idx.getLong(offsetsStart + i * 8);
+        while (true) {
+            ByteBuffer header = ByteBuffer.allocate(32);
+            read(header, offset);
+            header.flip();
+            int type = header.get() & 0xff;
+            readVarint(header);
+            if (type != TYPE_DELTA) return typeName(type);
+            offset -= readVarint(header);
+        }
+    }
+
+    // Bytes each object takes up in the pack file, as id -> size
+    public Map<String, Long> storedSizes() throws IOException {
+        List<String> ids = ids();
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong(i -> idx.getLong(offsetsStart + i * 8)));
+
+        Map<String, Long> sizes = new HashMap<>();
+        long end = Files.size(packPath) - ID_LENGTH; // the pack ends with its checksum
+        for (int k = count - 1; k >= 0; k--) {
+            long offset = idx.getLong(offsetsStart + order[k] * 8);
+            sizes.put(ids.get(order[k]), end - offset);
+            end = offset;
+        }
+        return sizes;
+    }
+
+    // Returns null when the object isn't in this pack.
+    public ObjectStore.RawObject read(String id) throws IOException {
+        int i = find(Hex.decode(id));
+        if (i < 0) return null;
+        return readAt(idx.getLong(offsetsStart + i * 8));
+    }
+
+    private ObjectStore.RawObject readAt(long offset) throws IOException {
+        synchronized (baseCache) {
+            ObjectStore.RawObject cached = baseCache.get(offset);
+            if (cached != null) return cached;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(32);
+        read(header, offset);
+        header.flip();
+
+        int type = header.get() & 0xff;
+        long size = readVarint(header);
+        long baseOffset = type == TYPE_DELTA ? offset - readVarint(header) : -1;
+        long dataOffset = offset + header.position();
+
+        byte[] data;
+        try (InputStream in = new InflaterInputStream(new BufferedInputStream(new ChannelInputStream(dataOffset)))) {
+            data = in.readNBytes((int) size);
+        }
+
+        ObjectStore.RawObject object;
+        if (type == TYPE_DELTA) {
+            ObjectStore.RawObject base = readAt(baseOffset);
+            object = new ObjectStore.RawObject(base.type(), Delta.apply(base.data(), data));
+            synchronized (baseCache) {
+                baseCache.put(baseOffset, base);
+            }
+        } else {
+            object = new ObjectStore.RawObject(typeName(type), data);
+        }
+        return object;
+    }
+
+    private int find(byte[] id) {
+        int first = id[0] & 0xff;
+        int lo = first == 0 ? 0 : idx.getInt(FANOUT_START + (first - 1) * 4);
+        int hi = idx.getInt(FANOUT_START + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareIdAt(mid, id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareIdAt(int i, byte[] id) {
+        int base = IDS_START + i * ID_LENGTH;
+        for (int k = 0; k < ID_LENGTH; k++) {
+            int cmp = (idx.get(base + k) & 0xff) - (id[k] & 0xff);
+            if (cmp != 0) return cmp;
+        }
+        return 0;
+    }
+
+    static int typeCode(String type) {
+        switch (type) {
+            case ObjectStore.COMMIT: return TYPE_COMMIT;
+            case ObjectStore.TREE: return TYPE_TREE;
+            case ObjectStore.BLOB: return TYPE_BLOB;
+            case ObjectStore.CHUNK: return TYPE_CHUNK;
+            case ObjectStore.MANIFEST: return TYPE_MANIFEST;
+            default: throw new IllegalArgumentException("Unknown object type: " + type);
+        }
+    }
+
+    static String typeName(int code) throws IOException {
+        switch (code) {
+            case TYPE_COMMIT: return ObjectStore.COMMIT;
+            case TYPE_TREE: return ObjectStore.TREE;
+            case TYPE_BLOB: return ObjectStore.BLOB;
+            case TYPE_CHUNK: return ObjectStore.CHUNK;
+            case TYPE_MANIFEST: return ObjectStore.MANIFEST;
+            default: throw new IOException("Unknown pack object type: " + code);
+        }
+    }
+
+    private static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = buffer.get() & 0xff;
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+
+    // A FileChannel closes itself when a thread reading it is interrupted, as
+    // the daemon does to a command whose client went away. The pack is shared,
+    // so the other readers reopen it rather than fail.
+    private int read(ByteBuffer buffer, long position) throws IOException {
+        while (true) {
+            FileChannel current = channel;
+            try {
+                return current.read(buffer, position);
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                synchronized (this) {
+                    if (closed) throw e;
+                    if (channel == current) channel = FileChannel.open(packPath, StandardOpenOption.READ);
+                }
+            }
+        }
+    }
+
+    // Positional reads keep concurrent lookups on the same pack independent.
+    private final class ChannelInputStream extends InputStream {
+        private long position;
+
+        ChannelInputStream(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = PackFile.this.read(ByteBuffer.wrap(b, off, len), position);
+            if (n > 0) position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package bit.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Writes a set of objects into a single packfile plus its idx.
+//
+// Objects are ordered the way Git orders them for delta search: by type, then
+// by a hash of the file name they were last seen under, then by size (largest
+// first). Each object is then delta-compressed against the best of the
+// previous WINDOW objects of the same type, so only the window is ever held in
+// memory, not the whole repository.
+public class PackWriter {
+    private static final int WINDOW = 10;
+    private static final int MAX_DEPTH = 50;
+    private static final int MAX_DELTA_OBJECT = 16 * 1024 * 1024;
+
+    public record Result(Path pack, Path idx, int objects, int deltas) {}
+
+    private record Candidate(String id, String type, long size, int nameHash) {}
+
+    private record WindowEntry(byte[] data, long offset, int depth) {}
+
+    private final ObjectStore store;
+    private final Map<String, String> nameHints;
+
+    // nameHints maps object ids to the path they are known under, which keeps
+    // successive versions of the same file next to each other in the window.
+    public PackWriter(ObjectStore store, Map<String, String> nameHints) {
+        this.store = store;
+        this.nameHints = nameHints;
+    }
+
+    public Result write(Collection<String> ids, Path packDir) throws IOException {
+        List<Candidate> candidates = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            try (ObjectStore.ObjectStream in = store.openRaw(id)) {
+                candidates.add(new Candidate(id, in.type(), in.size(), nameHash(nameHints.get(id))));
+            }
+        }
+        candidates.sort(Comparator.comparing(Candidate::type)
+                .thenComparingInt(Candidate::nameHash)
+                .thenComparing(Comparator.comparingLong(Candidate::size).reversed()));
+
+        Files.createDirectories(packDir);
+        Path tempPack = Files.createTempFile(packDir, "tmp_pack_", null);
+        Path tempIdx = Files.createTempFile(packDir, "tmp_idx_", null);
+
+        try {
+            TreeMap<String, Long> offsets = new TreeMap<>();
+            int deltas = 0;
+            MessageDigest packDigest = FileHasher.sha1();
+
+            try (CountingOutputStream counter = new CountingOutputStream(
+                    new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPack)), packDigest));
+                 DataOutputStream out = new DataOutputStream(counter)) {
+                out.writeInt(PackFile.PACK_MAGIC);
+                out.writeInt(PackFile.VERSION);
+                out.writeInt(candidates.size());
+
+                Deque<WindowEntry> window = new ArrayDeque<>();
+                String windowType = null;
+
+                for (Candidate candidate : candidates) {
+                    byte[] data = store.readRaw(candidate.id()).data();
+                    if (!candidate.type().equals(windowType)) {
+                        window.clear();
+                        windowType = candidate.type();
+                    }
+
+                    // Try every base in the window and keep the smallest delta
+                    byte[] bestDelta = null;
+                    WindowEntry bestBase = null;
+                    if (data.length <= MAX_DELTA_OBJECT) {
+                        for (WindowEntry base : window) {
+                            if (base.depth() >= MAX_DEPTH) continue;
+                            int limit = bestDelta != null ? bestDelta.length - 1 : data.length / 2;
+                            byte[] delta = Delta.create(base.data(), data, limit);
+                            if (delta != null) {
+                                bestDelta = delta;
+                                bestBase = base;
+                            }
+                        }
+                    }
+
+                    long offset = counter.count();
+                    offsets.put(candidate.id(), offset);
+                    ByteArrayOutputStream header = new ByteArrayOutputStream(16);
+                    if (bestDelta != null) {
+                        header.write(PackFile.TYPE_DELTA);
+                        Delta.writeVarint(header, bestDelta.length);
+                        Delta.writeVarint(header, offset - bestBase.offset());
+                        deltas++;
+                    } else {
+                        header.write(PackFile.typeCode(candidate.type()));
+                        Delta.writeVarint(header, data.length);
+                    }
+                    header.writeTo(out);
+                    writeCompressed(out, bestDelta != null ? bestDelta : data);
+
+                    if (data.length <= MAX_DELTA_OBJECT) {
+                        window.addFirst(new WindowEntry(data, offset, bestBase != null ? bestBase.depth() + 1 : 0));
+                        if (window.size() > WINDOW) window.removeLast();
+                    }
+                }
+                out.flush();
+                counter.getOut().write(packDigest.digest());
+            }
+
+            byte[] packChecksum = checksum(tempPack);
+            String packName = "pack-" + Hex.encode(packChecksum);
+            writeIdx(tempIdx, offsets, packChecksum);
+
+            // The idx goes in last, so readers never find an idx without its pack
+            Path pack = packDir.resolve(packName + ".pack");
+            Path idx = packDir.resolve(packName + ".idx");
+            Files.move(tempPack, pack, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempIdx, idx, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return new Result(pack, idx, candidates.size(), deltas);
+        } finally {
+            Files.deleteIfExists(tempPack);
+            Files.deleteIfExists(tempIdx);
+        }
+    }
+
+    private static void writeIdx(Path path, TreeMap<String, Long> offsets, byte[] packChecksum) throws IOException {
+        int count = offsets.size();
+        ByteBuffer idx = ByteBuffer.allocate(PackFile.IDS_START + count * (PackFile.ID_LENGTH + 8) + 20);
+        idx.putInt(PackFile.IDX_MAGIC).putInt(PackFile.VERSION);
+
+        int[] fanout = new int[256];
+        for (String id : offsets.keySet()) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)]++;
+        }
+        int running = 0;
+        for (int i = 0; i < 256; i++) {
+            running += fanout[i];
+            idx.putInt(running);
+        }
+        for (String id : offsets.keySet()) {
+            idx.put(Hex.decode(id));
+        }
+        for (long offset : offsets.values()) {
+            idx.putLong(offset);
+        }
+        idx.put(packChecksum);
+        Files.write(path, idx.array());
+    }
+
+    private static void writeCompressed(OutputStream out, byte[] data) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            DeflaterOutputStream deflated = new DeflaterOutputStream(new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() {
+                    // Leave the pack stream open
+                }
+            }, deflater);
+            deflated.write(data);
+            deflated.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] checksum(Path pack) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(pack.toFile(), "r")) {
+            byte[] trailer = new byte[20];
+            file.seek(file.length() - 20);
+            file.readFully(trailer);
+            return trailer;
+        }
+    }
+
+    private static int nameHash(String path) {
+        if (path == null) return 0;
+        // Like Git, weight the last characters most so files with the same
+        // extension and base name cluster together
+        int hash = 0;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '/') {
+                hash = 0;
+            } else if (!Character.isWhitespace(c)) {
+                hash = (hash >>> 2) + (c << 24);
+            }
+        }
+        return hash;
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        OutputStream getOut() {
+            return out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long count() {
+            return count;
+        }
+    }
+}
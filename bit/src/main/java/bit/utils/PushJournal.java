@@ -0,0 +1,84 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Progress of a push through the Git Data API, kept in .bit/push-journal so
+// an interrupted push picks up where it stopped instead of uploading every
+// blob again:
+//
+//   push <owner>/<repo>
+//   blob <sha>                                  a blob GitHub has confirmed
+//   commit <sha> <tree> <parent> <branch>       a commit created, not yet on the branch
+//
+// Lines are appended as each step succeeds, so a crash loses at most the
+// step in flight; a torn last line is ignored. A journal for another remote
+// is started over. The journal is deleted once the branch has moved.
+public class PushJournal {
+    public static final Path DEFAULT_PATH = Paths.get(".bit/push-journal");
+
+    private final Path path;
+    private final Set<String> blobs = new HashSet<>();
+    private final Set<String> commits = new HashSet<>(); // "<sha> <tree> <parent> <branch>"
+
+    private PushJournal(Path path) {
+        this.path = path;
+    }
+
+    public static PushJournal open(GitHubRemote remote) throws IOException {
+        return open(DEFAULT_PATH, remote.owner() + "/" + remote.repo());
+    }
+
+    public static PushJournal open(Path path, String repository) throws IOException {
+        PushJournal journal = new PushJournal(path);
+        String header = "push " + repository;
+        List<String> lines = Files.exists(path) ? Files.readAllLines(path) : List.of();
+        if (!lines.isEmpty() && lines.get(0).equals(header)) {
+            for (String line : lines.subList(1, lines.size())) {
+                String[] parts = line.split(" ");
+                if (parts.length == 2 && parts[0].equals("blob") && Hex.isObjectId(parts[1])) {
+                    journal.blobs.add(parts[1]);
+                } else if (parts.length == 5 && parts[0].equals("commit") && Hex.isObjectId(parts[1])) {
+                    journal.commits.add(line.substring("commit ".length()));
+                }
+            }
+        } else {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            Files.writeString(path, header + "\n");
+        }
+        return journal;
+    }
+
+    public synchronized boolean hasBlob(String sha) {
+        return blobs.contains(sha);
+    }
+
+    public synchronized void blobUploaded(String sha) throws IOException {
+        if (blobs.add(sha)) append("blob " + sha);
+    }
+
+    // A commit already made for this tree on top of this parent, or null
+    public synchronized String commitFor(String tree, String parent, String branch) {
+        String suffix = " " + tree + " " + (parent != null ? parent : "-") + " " + branch;
+        for (String commit : commits) {
+            if (commit.endsWith(suffix)) return commit.substring(0, commit.indexOf(' '));
+        }
+        return null;
+    }
+
+    public synchronized void commitCreated(String sha, String tree, String parent, String branch) throws IOException {
+        String entry = sha + " " + tree + " " + (parent != null ? parent : "-") + " " + branch;
+        if (commits.add(entry)) append("commit " + entry);
+    }
+
+    public void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    private void append(String line) throws IOException {
+        Files.writeString(path, line + "\n", StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+}
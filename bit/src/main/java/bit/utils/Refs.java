@@ -0,0 +1,162 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+
+// Branch refs and HEAD. A ref file holds a single commit id; HEAD holds
+// "ref: refs/heads/<branch>". Refs are replaced atomically so a reader never
+// sees a half-written id.
+//
+// Every ref update is appended to the branch's reflog in .bit/logs/<branch>:
+//   <new id> <old id> <epoch seconds> <message>
+// with an all-zero old id for the first commit on a branch.
+public class Refs {
+    public static final String DEFAULT_BRANCH = "main";
+    public static final String ZERO_ID = "0".repeat(40);
+
+    public record LogEntry(String newId, String oldId, long time, String message) {}
+
+    private final Path root;
+
+    public Refs(Path root) {
+        this.root = root;
+    }
+
+    public static Refs open() {
+        return new Refs(Paths.get(".bit"));
+    }
+
+    public Path headPath() {
+        return root.resolve("HEAD");
+    }
+
+    public Path branchPath(String branch) {
+        return root.resolve("refs/heads").resolve(branch);
+    }
+
+    public Path logPath(String branch) {
+        return root.resolve("logs").resolve(branch);
+    }
+
+    public Path mergeHeadPath() {
+        return root.resolve("MERGE_HEAD");
+    }
+
+    public String currentBranch() throws IOException {
+        Path head = headPath();
+        if (!Files.exists(head)) return DEFAULT_BRANCH;
+        String content = Files.readString(head).trim();
+        if (content.startsWith("ref: ")) content = content.substring("ref: ".length());
+        if (content.startsWith("refs/heads/")) content = content.substring("refs/heads/".length());
+        return content.isEmpty() ? DEFAULT_BRANCH : content;
+    }
+
+    public boolean branchExists(String branch) {
+        return Files.isRegularFile(branchPath(branch));
+    }
+
+    // Commit id of the branch, or null for a branch with no commits yet
+    public String resolve(String branch) throws IOException {
+        Path ref = branchPath(branch);
+        if (!Files.exists(ref)) return null;
+        String id = Files.readString(ref).trim();
+        return id.isEmpty() ? null : id;
+    }
+
+    public String head() throws IOException {
+        return resolve(currentBranch());
+    }
+
+    // Makes the branch the current one; its ref need not exist yet
+    public void setHead(String branch) throws IOException {
+        writeAtomically(headPath(), "ref: refs/heads/" + branch + "\n");
+    }
+
+    public void update(String branch, String id, String message) throws IOException {
+        String old = resolve(branch);
+        writeAtomically(branchPath(branch), id + "\n");
+
+        String line = id + " " + (old != null ? old : ZERO_ID) + " " + Instant.now().getEpochSecond() + " "
+                + message.replace('\n', ' ') + "\n";
+        Path log = logPath(branch);
+        Files.createDirectories(log.getParent());
+        Files.writeString(log, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    // Oldest entry first; an empty list if the branch has no reflog
+    public List<LogEntry> log(String branch) throws IOException {
+        Path log = logPath(branch);
+        if (!Files.exists(log)) return List.of();
+        List<LogEntry> entries = new ArrayList<>();
+        for (String line : Files.readAllLines(log)) {
+            String[] parts = line.split(" ", 4);
+            if (parts.length < 3 || !Hex.isObjectId(parts[0])) continue;
+            entries.add(new LogEntry(parts[0], parts[1], time(parts[2]), parts.length > 3 ? parts[3] : ""));
+        }
+        return entries;
+    }
+
+    private static long time(String epochSeconds) {
+        try {
+            return Long.parseLong(epochSeconds);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Drops the branch's reflog entries made before the cutoff, so `bit gc`
+    // can collect the commits only they still refer to
+    public void expireLog(String branch, Instant cutoff) throws IOException {
+        Path log = logPath(branch);
+        if (!Files.exists(log)) return;
+        StringBuilder kept = new StringBuilder();
+        for (String line : Files.readAllLines(log)) {
+            String[] parts = line.split(" ", 4);
+            if (parts.length >= 3 && Hex.isObjectId(parts[0]) && time(parts[2]) < cutoff.getEpochSecond()) continue;
+            kept.append(line).append('\n');
+        }
+        writeAtomically(log, kept.toString());
+    }
+
+    // Every branch that has a ref file
+    public List<String> branches() throws IOException {
+        Path heads = root.resolve("refs/heads");
+        if (!Files.isDirectory(heads)) return List.of();
+        List<String> branches = new ArrayList<>();
+        try (var files = Files.walk(heads)) {
+            files.filter(Files::isRegularFile)
+                 .forEach(file -> branches.add(heads.relativize(file).toString().replace('\\', '/')));
+        }
+        Collections.sort(branches);
+        return branches;
+    }
+
+    // Commit being merged in while conflicts are resolved, or null
+    public String mergeHead() throws IOException {
+        Path path = mergeHeadPath();
+        if (!Files.exists(path)) return null;
+        String id = Files.readString(path).trim();
+        return id.isEmpty() ? null : id;
+    }
+
+    public void setMergeHead(String id) throws IOException {
+        writeAtomically(mergeHeadPath(), id + "\n");
+    }
+
+    public void clearMergeHead() throws IOException {
+        Files.deleteIfExists(mergeHeadPath());
+    }
+
+    private static void writeAtomically(Path target, String content) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName() + ".", ".tmp");
+        try {
+            Files.writeString(temp, content);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
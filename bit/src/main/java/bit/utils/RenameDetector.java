@@ -0,0 +1,309 @@
+package bit.utils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Pairs files that disappeared with files that appeared, so a move shows up
+// as one rename instead of a deletion plus an unrelated addition.
+//
+// Exact renames are matched by blob id, without reading anything. The rest
+// are compared by content, but never all against all: every file gets a
+// MinHash signature of its lines (a 64-byte run without a newline counts as
+// a line, so binary files work too), and locality-sensitive hashing over
+// bands of that signature only puts files that probably share at least the
+// minimum similarity side by side. With 32 bands of 2 hashes, a pair that is
+// 50% similar shares a band with a probability above 99.9%, and a 30% one
+// about 95% of the time, so thresholds below that miss some renames.
+// Signatures are computed in parallel, each file read once, so the cost
+// grows with the number of files rather than with deleted × added.
+//
+// Similarity is the estimated share of distinct lines two files have in
+// common (their Jaccard index), as a percentage. When a file that is already
+// the source of a rename matches another new file too, that one is a copy.
+//
+// Copies of files that are still there are only found when the caller passes
+// them in (`--find-copies`, or renames.copies in .bit/settings).
+// Modified files are compared by content like deleted ones; unchanged files
+// only by blob id, since comparing their content would mean reading every
+// file in the tree.
+public class RenameDetector {
+    public static final int DEFAULT_SIMILARITY = 50;
+
+    private static final int HASHES = 64;
+    private static final int BANDS = 32;
+    private static final int ROWS = HASHES / BANDS;
+    private static final int MAX_LINE = 64;
+    private static final long MAX_INEXACT_SIZE = 32L << 20; // bigger files are only matched exactly
+    private static final String EMPTY_BLOB = "e69de29bb2d1d6434b8b29ae775ad8c2e48c5391"; // never a rename
+
+    // A file on one side. Content is read from the working tree `file` when
+    // set, else from the object store; a null id is computed from the file.
+    public record Side(String path, String id, Path file) {}
+
+    // `from` became `to`. `copy` means `from` was kept as well: it is still
+    // there, or it is the source of another rename.
+    public record Match(String from, String to, String fromId, String toId, int similarity, boolean copy) {}
+
+    private record Signature(long size, long[] minHashes) {}
+
+    private final ObjectStore store;
+    private final int minSimilarity;
+    private final boolean findCopies;
+
+    public RenameDetector(ObjectStore store, int minSimilarity, boolean findCopies) {
+        this.store = store;
+        this.minSimilarity = minSimilarity;
+        this.findCopies = findCopies;
+    }
+
+    // The similarity threshold from renames.similarity in .bit/settings, and
+    // whether to look for copies from renames.copies
+    public static RenameDetector open(ObjectStore store) throws IOException {
+        Settings settings = Settings.load();
+        return new RenameDetector(store, settings.percent("renames.similarity", DEFAULT_SIMILARITY),
+                settings.flag("renames.copies", false));
+    }
+
+    // Whether callers should pass the files that are still there as copy sources
+    public boolean findCopies() {
+        return findCopies;
+    }
+
+    // Renames among the deleted and added files of a tree diff
+    public List<Match> detect(List<TreeDiff.Change> changes) throws IOException {
+        List<Side> deleted = new ArrayList<>();
+        List<Side> added = new ArrayList<>();
+        for (TreeDiff.Change change : changes) {
+            if (change.newId() == null) deleted.add(new Side(change.path(), change.oldId(), null));
+            if (change.oldId() == null) added.add(new Side(change.path(), change.newId(), null));
+        }
+        return detect(deleted, added);
+    }
+
+    // Matches sorted by target path
+    public List<Match> detect(List<Side> deleted, List<Side> added) throws IOException {
+        return detect(deleted, added, List.of(), List.of());
+    }
+
+    // Renames, plus copies of the `modified` and `unchanged` files, which are
+    // on the old side and still there. Matches sorted by target path.
+    public List<Match> detect(List<Side> deleted, List<Side> added, List<Side> modified, List<Side> unchanged)
+            throws IOException {
+        if (added.isEmpty() || (deleted.isEmpty() && modified.isEmpty() && unchanged.isEmpty())) return List.of();
+
+        ExecutorService pool = Executors.newFixedThreadPool(HashPipeline.defaultJobs());
+        try {
+            added = withIds(pool, added);
+            List<Match> matches = new ArrayList<>();
+            Set<String> renamedFrom = new HashSet<>();
+
+            // Step 1: Same blob id, preferring a deleted source, then one with the same file name
+            Map<String, List<Side>> deletedById = byId(deleted);
+            Map<String, List<Side>> keptById = byId(modified);
+            keptById.putAll(byId(unchanged));
+            List<Side> unmatched = new ArrayList<>();
+            for (Side side : added) {
+                List<Side> sources = side.id().equals(EMPTY_BLOB) ? null : deletedById.get(side.id());
+                if (sources != null) {
+                    Side source = pickSource(sources, side.path(), renamedFrom);
+                    boolean copy = !renamedFrom.add(source.path());
+                    matches.add(new Match(source.path(), side.path(), source.id(), side.id(), 100, copy));
+                    continue;
+                }
+                sources = side.id().equals(EMPTY_BLOB) ? null : keptById.get(side.id());
+                if (sources != null) {
+                    Side source = pickSource(sources, side.path(), Set.of());
+                    matches.add(new Match(source.path(), side.path(), source.id(), side.id(), 100, true));
+                    continue;
+                }
+                unmatched.add(side);
+            }
+            List<Side> sources = new ArrayList<>();
+            for (Side side : deleted) {
+                if (!renamedFrom.contains(side.path())) sources.add(side);
+            }
+            Set<String> kept = new HashSet<>();
+            for (Side side : modified) {
+                sources.add(side);
+                kept.add(side.path());
+            }
+
+            // Step 2: Similar content, best matches first
+            if (!sources.isEmpty() && !unmatched.isEmpty() && minSimilarity < 100) {
+                matches.addAll(similar(pool, sources, unmatched, renamedFrom, kept));
+            }
+            matches.sort(Comparator.comparing(Match::to));
+            Metrics.count("renames.found", matches.size());
+            return matches;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Rename detection interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Renames with a target, keyed by the path they replace
+    public static Map<String, Match> bySource(List<Match> matches) {
+        Map<String, Match> map = new HashMap<>();
+        for (Match match : matches) {
+            if (!match.copy()) map.put(match.from(), match);
+        }
+        return map;
+    }
+
+    private static Map<String, List<Side>> byId(List<Side> sides) {
+        Map<String, List<Side>> byId = new HashMap<>();
+        for (Side side : sides) {
+            byId.computeIfAbsent(side.id(), id -> new ArrayList<>()).add(side);
+        }
+        return byId;
+    }
+
+    private static List<Side> withIds(ExecutorService pool, List<Side> sides)
+            throws InterruptedException, ExecutionException {
+        List<Future<Side>> hashed = new ArrayList<>();
+        for (Side side : sides) {
+            hashed.add(side.id() != null ? CompletableFuture.completedFuture(side)
+                    : pool.submit(() -> new Side(side.path(), FileHasher.hashFile(side.file()), side.file())));
+        }
+        List<Side> result = new ArrayList<>();
+        for (Future<Side> side : hashed) {
+            result.add(side.get());
+        }
+        return result;
+    }
+
+    private static Side pickSource(List<Side> sources, String target, Set<String> renamedFrom) {
+        String name = target.substring(target.lastIndexOf('/') + 1);
+        Side best = null;
+        for (Side source : sources) {
+            if (renamedFrom.contains(source.path())) continue;
+            if (best == null || source.path().endsWith("/" + name) || source.path().equals(name)) {
+                best = source;
+            }
+        }
+        return best != null ? best : sources.get(0);
+    }
+
+    // A match from a `kept` source is always a copy
+    private List<Match> similar(ExecutorService pool, List<Side> old, List<Side> added, Set<String> renamedFrom,
+                                Set<String> kept) throws InterruptedException, ExecutionException {
+        List<Future<Signature>> oldSignatures = new ArrayList<>();
+        for (Side side : old) oldSignatures.add(pool.submit(() -> signature(side)));
+        List<Future<Signature>> addedSignatures = new ArrayList<>();
+        for (Side side : added) addedSignatures.add(pool.submit(() -> signature(side)));
+
+        // Every band of every source signature goes into a bucket
+        Signature[] sources = new Signature[old.size()];
+        Map<Long, List<Integer>> buckets = new HashMap<>();
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = oldSignatures.get(i).get();
+            if (sources[i] == null) continue;
+            for (int band = 0; band < BANDS; band++) {
+                buckets.computeIfAbsent(bandKey(sources[i], band), key -> new ArrayList<>()).add(i);
+            }
+        }
+
+        // Only files sharing a bucket are compared
+        record Candidate(int source, int target, int similarity) {}
+        List<Candidate> candidates = new ArrayList<>();
+        long compared = 0;
+        for (int j = 0; j < added.size(); j++) {
+            Signature target = addedSignatures.get(j).get();
+            if (target == null) continue;
+            Set<Integer> seen = new HashSet<>();
+            for (int band = 0; band < BANDS; band++) {
+                for (int i : buckets.getOrDefault(bandKey(target, band), List.of())) {
+                    if (!seen.add(i)) continue;
+                    compared++;
+                    int similarity = similarity(sources[i], target);
+                    if (similarity >= minSimilarity) candidates.add(new Candidate(i, j, similarity));
+                }
+            }
+        }
+        Metrics.count("renames.compared", compared);
+
+        candidates.sort(Comparator.comparingInt(Candidate::similarity).reversed()
+                .thenComparing(candidate -> old.get(candidate.source()).path())
+                .thenComparing(candidate -> added.get(candidate.target()).path()));
+        List<Match> matches = new ArrayList<>();
+        Set<Integer> matchedTargets = new HashSet<>();
+        for (Candidate candidate : candidates) {
+            if (!matchedTargets.add(candidate.target())) continue;
+            Side from = old.get(candidate.source());
+            Side to = added.get(candidate.target());
+            boolean copy = kept.contains(from.path()) || !renamedFrom.add(from.path());
+            matches.add(new Match(from.path(), to.path(), from.id(), to.id(), candidate.similarity(), copy));
+        }
+        return matches;
+    }
+
+    private int similarity(Signature a, Signature b) {
+        // Files of very different sizes can't be similar enough; skip the estimate
+        long smaller = Math.min(a.size(), b.size());
+        long larger = Math.max(a.size(), b.size());
+        if (smaller * 100 < larger * minSimilarity) return 0;
+
+        int equal = 0;
+        for (int i = 0; i < HASHES; i++) {
+            if (a.minHashes()[i] == b.minHashes()[i]) equal++;
+        }
+        return Math.min(99, equal * 100 / HASHES); // only identical ids are 100%
+    }
+
+    private static long bandKey(Signature signature, int band) {
+        long key = band;
+        for (int i = band * ROWS; i < (band + 1) * ROWS; i++) {
+            key = mix(key * 31 + signature.minHashes()[i]);
+        }
+        return key;
+    }
+
+    // The MinHash signature of the file's lines, or null for an empty or very
+    // large file, which is told by its size before anything is read
+    private Signature signature(Side side) throws IOException {
+        long size = side.file() != null ? Files.size(side.file()) : store.size(side.id());
+        if (size == 0 || size > MAX_INEXACT_SIZE) return null;
+
+        long[] minHashes = new long[HASHES];
+        Arrays.fill(minHashes, Long.MAX_VALUE);
+        try (InputStream in = new BufferedInputStream(
+                side.file() != null ? Files.newInputStream(side.file()) : store.open(side.id()), 64 * 1024)) {
+            long line = 0xcbf29ce484222325L; // FNV-1a
+            int length = 0;
+            int b;
+            while ((b = in.read()) >= 0) {
+                line = (line ^ b) * 0x100000001b3L;
+                length++;
+                if (b == '\n' || length == MAX_LINE) {
+                    addLine(minHashes, line);
+                    line = 0xcbf29ce484222325L;
+                    length = 0;
+                }
+            }
+            if (length > 0) addLine(minHashes, line);
+        }
+        return new Signature(size, minHashes);
+    }
+
+    private static void addLine(long[] minHashes, long line) {
+        for (int i = 0; i < HASHES; i++) {
+            long hash = mix(line + i * 0x9e3779b97f4a7c15L);
+            if (hash < minHashes[i]) minHashes[i] = hash;
+        }
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+}
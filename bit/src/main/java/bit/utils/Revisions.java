@@ -0,0 +1,55 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.util.List;
+
+// Turns a revision typed on the command line into a commit id. Accepted are
+// HEAD, a branch name or a full commit id, each optionally followed by any
+// number of "~N" or "^" steps back along first parents, e.g. "main~2".
+public class Revisions {
+
+    private Revisions() {
+    }
+
+    // The commit id, or null if the revision names nothing
+    public static String resolve(Refs refs, ObjectStore store, String revision) throws IOException {
+        int suffix = firstSuffix(revision);
+        String name = revision.substring(0, suffix);
+
+        String id;
+        if (name.equals("HEAD")) {
+            id = refs.head();
+        } else if (refs.branchExists(name)) {
+            id = refs.resolve(name);
+        } else if (Hex.isObjectId(name) && store.exists(name)) {
+            id = name;
+        } else {
+            return null;
+        }
+
+        int pos = suffix;
+        while (id != null && pos < revision.length()) {
+            char step = revision.charAt(pos++);
+            int end = pos;
+            while (end < revision.length() && Character.isDigit(revision.charAt(end))) end++;
+            int count = end > pos ? Integer.parseInt(revision.substring(pos, end)) : 1;
+            if (step == '^' && end > pos && count != 1) {
+                return null; // only the first parent is supported
+            }
+            for (int i = 0; i < count && id != null; i++) {
+                List<String> parents = Commit.read(store, id).parents();
+                id = parents.isEmpty() ? null : parents.get(0);
+            }
+            pos = end;
+        }
+        return id;
+    }
+
+    private static int firstSuffix(String revision) {
+        for (int i = 0; i < revision.length(); i++) {
+            char c = revision.charAt(i);
+            if (c == '~' || c == '^') return i;
+        }
+        return revision.length();
+    }
+}
@@ -0,0 +1,133 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Properties;
+
+// Tunables from .bit/settings, a plain key=value properties file. A missing
+// file or key falls back to the default, so a fresh repository needs none.
+//
+//   chunking.threshold=8m   files at least this big are stored in chunks
+//   chunking.min=256k       smallest chunk (except a file's last one)
+//   chunking.avg=1m         target chunk size
+//   chunking.max=4m         largest chunk
+//   cache.size=64m          memory for recently read objects (see ObjectCache)
+//   cache.offheap=0         blobs at least this big are cached off-heap; 0 means never
+//   gc.grace=2w             unreachable objects younger than this survive `bit gc`
+//   gc.reflogExpire=90d     `bit gc` drops reflog entries older than this
+//   renames.similarity=50%  least similarity for a rename or copy (see RenameDetector)
+//   renames.copies=false    also look for copies of files that are still there
+public class Settings {
+    public static final Path DEFAULT_PATH = Paths.get(".bit/settings");
+
+    public static final long DEFAULT_CHUNK_THRESHOLD = 8L << 20;
+    public static final long DEFAULT_CHUNK_MIN = 256L << 10;
+    public static final long DEFAULT_CHUNK_AVG = 1L << 20;
+    public static final long DEFAULT_CHUNK_MAX = 4L << 20;
+    public static final long DEFAULT_CACHE_SIZE = 64L << 20;
+    public static final Duration DEFAULT_GC_GRACE = Duration.ofDays(14);
+    public static final Duration DEFAULT_REFLOG_EXPIRE = Duration.ofDays(90);
+
+    private final Properties properties;
+
+    private Settings(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static Settings load() throws IOException {
+        return load(DEFAULT_PATH);
+    }
+
+    public static Settings load(Path file) throws IOException {
+        Properties properties = new Properties();
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file)) {
+                properties.load(reader);
+            }
+        }
+        return new Settings(properties);
+    }
+
+    // A byte count, optionally suffixed with k, m or g
+    public long size(String key, long fallback) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isBlank()) return fallback;
+
+        String text = value.trim().toLowerCase(Locale.ROOT);
+        int shift = 0;
+        switch (text.charAt(text.length() - 1)) {
+            case 'k': shift = 10; break;
+            case 'm': shift = 20; break;
+            case 'g': shift = 30; break;
+            default: break;
+        }
+        if (shift > 0) text = text.substring(0, text.length() - 1);
+        try {
+            return Long.parseLong(text.trim()) << shift;
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("Invalid size for " + key + " in .bit/settings: " + value);
+        }
+    }
+
+    // A whole percentage from 0 to 100, with or without a % sign
+    public int percent(String key, int fallback) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isBlank()) return fallback;
+        String text = value.trim();
+        if (text.endsWith("%")) text = text.substring(0, text.length() - 1).trim();
+        try {
+            int percent = Integer.parseInt(text);
+            if (percent >= 0 && percent <= 100) return percent;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalStateException("Invalid percentage for " + key + " in .bit/settings: " + value);
+    }
+
+    // true/yes/on or false/no/off
+    public boolean flag(String key, boolean fallback) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isBlank()) return fallback;
+        switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "true": case "yes": case "on": return true;
+            case "false": case "no": case "off": return false;
+            default: throw new IllegalStateException("Invalid flag for " + key + " in .bit/settings: " + value);
+        }
+    }
+
+    // A length of time in any form parseDuration accepts
+    public Duration duration(String key, Duration fallback) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isBlank()) return fallback;
+        Duration duration = parseDuration(value);
+        if (duration == null) {
+            throw new IllegalStateException("Invalid duration for " + key + " in .bit/settings: " + value);
+        }
+        return duration;
+    }
+
+    // A count of seconds, or of minutes, hours, days or weeks with an s, m, h,
+    // d or w suffix; null if the text is none of these
+    public static Duration parseDuration(String value) {
+        String text = value.trim().toLowerCase(Locale.ROOT);
+        if (text.isEmpty()) return null;
+        long unit = 1;
+        switch (text.charAt(text.length() - 1)) {
+            case 's': unit = 1; break;
+            case 'm': unit = 60; break;
+            case 'h': unit = 3600; break;
+            case 'd': unit = 86400; break;
+            case 'w': unit = 7 * 86400; break;
+            default: text = text + "s"; break;
+        }
+        try {
+            long count = Long.parseLong(text.substring(0, text.length() - 1).trim());
+            return count < 0 ? null : Duration.ofSeconds(Math.multiplyExact(count, unit));
+        } catch (NumberFormatException | ArithmeticException e) {
+            return null;
+        }
+    }
+}
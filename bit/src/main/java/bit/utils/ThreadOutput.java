@@ -0,0 +1,62 @@
+package bit.utils;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+// Lets every thread send System.out/System.err somewhere of its own. The
+// daemon runs commands for several clients at once and each one's output has
+// to reach its own socket, while the commands keep printing to System.out
+// and System.err.
+//
+// The targets are inherited by threads a command starts (hash pipelines,
+// download pools), so their output follows the command that started them.
+// Threads without a target write to the process's real stdout/stderr.
+public class ThreadOutput extends OutputStream {
+    private static final InheritableThreadLocal<OutputStream> OUT = new InheritableThreadLocal<>();
+    private static final InheritableThreadLocal<OutputStream> ERR = new InheritableThreadLocal<>();
+
+    private final ThreadLocal<OutputStream> targets;
+    private final OutputStream fallback;
+
+    private ThreadOutput(ThreadLocal<OutputStream> targets, OutputStream fallback) {
+        this.targets = targets;
+        this.fallback = fallback;
+    }
+
+    public static void install() {
+        Charset charset = Charset.defaultCharset();
+        System.setOut(new PrintStream(new ThreadOutput(OUT, new FileOutputStream(FileDescriptor.out)), true, charset));
+        System.setErr(new PrintStream(new ThreadOutput(ERR, new FileOutputStream(FileDescriptor.err)), true, charset));
+    }
+
+    // Sends this thread's output, and that of threads it starts, to out and err
+    public static void redirect(OutputStream out, OutputStream err) {
+        OUT.set(out);
+        ERR.set(err);
+    }
+
+    public static void reset() {
+        OUT.remove();
+        ERR.remove();
+    }
+
+    private OutputStream target() {
+        OutputStream target = targets.get();
+        return target != null ? target : fallback;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        target().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        target().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        target().flush();
+    }
+}
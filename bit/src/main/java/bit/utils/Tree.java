@@ -0,0 +1,145 @@
+package bit.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// A directory snapshot in Git's binary tree format: one entry per child,
+//   "<octal mode> <name>\0<20-byte id>"
+// sorted the way Git sorts them (a directory compares as if its name ended
+// in "/"), so identical directories always hash to the same id.
+public class Tree {
+    public static final int MODE_TREE = 040000;
+
+    public record Entry(String name, int mode, String id) {
+        public boolean isTree() {
+            return mode == MODE_TREE;
+        }
+    }
+
+    private static final Comparator<Entry> GIT_ORDER = (a, b) -> compareBytes(sortKey(a), sortKey(b));
+
+    private Tree() {
+    }
+
+    public static byte[] serialize(List<Entry> entries) {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(GIT_ORDER);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(sorted.size() * 48);
+        for (Entry entry : sorted) {
+            out.writeBytes(Integer.toOctalString(entry.mode()).getBytes(StandardCharsets.US_ASCII));
+            out.write(' ');
+            out.writeBytes(entry.name().getBytes(StandardCharsets.UTF_8));
+            out.write(0);
+            out.writeBytes(Hex.decode(entry.id()));
+        }
+        return out.toByteArray();
+    }
+
+    public static List<Entry> parse(byte[] data) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        int pos = 0;
+        while (pos < data.length) {
+            int space = indexOf(data, (byte) ' ', pos);
+            int nul = indexOf(data, (byte) 0, space + 1);
+            if (space < 0 || nul < 0 || nul + 21 > data.length) {
+                throw new IOException("Corrupt tree object");
+            }
+            int mode = Integer.parseInt(new String(data, pos, space - pos, StandardCharsets.US_ASCII), 8);
+            String name = new String(data, space + 1, nul - space - 1, StandardCharsets.UTF_8);
+            String id = Hex.encode(Arrays.copyOfRange(data, nul + 1, nul + 21));
+            entries.add(new Entry(name, mode, id));
+            pos = nul + 21;
+        }
+        return entries;
+    }
+
+    // Cached by the store as a plain array, so callers get a read-only view
+    public static List<Entry> read(ObjectStore store, String id) throws IOException {
+        Entry[] entries = store.readParsed(id, Entry[].class, object -> {
+            if (!object.type().equals(ObjectStore.TREE)) {
+                throw new IOException("Not a tree: " + id);
+            }
+            return parse(object.data()).toArray(new Entry[0]);
+        }, Tree::weight);
+        return Collections.unmodifiableList(Arrays.asList(entries));
+    }
+
+    // Rough heap size of parsed entries: the record, its name and its hex id
+    private static long weight(Entry[] entries) {
+        long weight = 16L + 8L * entries.length;
+        for (Entry entry : entries) {
+            weight += 32 + 40 + 2L * entry.name().length() + 40 + 2L * 40;
+        }
+        return weight;
+    }
+
+    public static String write(ObjectStore store, List<Entry> entries) throws IOException {
+        return store.write(ObjectStore.TREE, serialize(entries));
+    }
+
+    // Every file below the tree as path -> blob id, in path order
+    public static SortedMap<String, String> flatten(ObjectStore store, String treeId) throws IOException {
+        SortedMap<String, String> files = new TreeMap<>();
+        flatten(store, treeId, "", files);
+        return files;
+    }
+
+    private static void flatten(ObjectStore store, String treeId, String prefix, Map<String, String> files)
+            throws IOException {
+        for (Entry entry : read(store, treeId)) {
+            String path = prefix + entry.name();
+            if (entry.isTree()) {
+                flatten(store, entry.id(), path + "/", files);
+            } else {
+                files.put(path, entry.id());
+            }
+        }
+    }
+
+    // Id of the file or directory at `path` below the tree, or null if there is none
+    public static String lookup(ObjectStore store, String treeId, String path) throws IOException {
+        String id = treeId;
+        boolean isTree = true;
+        for (String name : path.split("/")) {
+            if (id == null || !isTree) return null;
+            String next = null;
+            for (Entry entry : read(store, id)) {
+                if (entry.name().equals(name)) {
+                    next = entry.id();
+                    isTree = entry.isTree();
+                    break;
+                }
+            }
+            id = next;
+        }
+        return id;
+    }
+
+    // Tree mode for an index entry's stat mode
+    public static int fileMode(int statMode) {
+        return statMode == FileStat.MODE_EXECUTABLE ? FileStat.MODE_EXECUTABLE : FileStat.MODE_FILE;
+    }
+
+    private static byte[] sortKey(Entry entry) {
+        return (entry.isTree() ? entry.name() + "/" : entry.name()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(byte[] data, byte value, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == value) return i;
+        }
+        return -1;
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) return cmp;
+        }
+        return a.length - b.length;
+    }
+}
@@ -0,0 +1,127 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.util.*;
+
+// Turns the index into tree objects. Directories whose id is still in the
+// index's cache-tree are reused as they are, so a commit that touches one
+// file only writes the trees on the path from that file to the root.
+public class TreeBuilder {
+
+    // The index as nested directories
+    private static final class Dir {
+        final SortedMap<String, Dir> dirs = new TreeMap<>();
+        final SortedMap<String, Index.Entry> files = new TreeMap<>();
+
+        static Dir of(Collection<Index.Entry> entries) {
+            Dir root = new Dir();
+            for (Index.Entry entry : entries) {
+                Dir dir = root;
+                String[] parts = entry.path().split("/");
+                for (int i = 0; i < parts.length - 1; i++) {
+                    dir = dir.dirs.computeIfAbsent(parts[i], name -> new Dir());
+                }
+                dir.files.put(parts[parts.length - 1], entry);
+            }
+            return root;
+        }
+    }
+
+    private TreeBuilder() {
+    }
+
+    // Writes every missing tree for the index, records their ids in its
+    // cache-tree, and returns the root tree id. Save the index afterwards to
+    // keep the cache for the next commit.
+    public static String write(ObjectStore store, Index index) throws IOException {
+        String cached = index.cachedTree("");
+        if (cached != null && store.exists(cached)) return cached;
+        return write(store, index, Dir.of(index.entries()), "");
+    }
+
+    private static String write(ObjectStore store, Index index, Dir dir, String path) throws IOException {
+        String cached = index.cachedTree(path);
+        if (cached != null && store.exists(cached)) return cached;
+
+        List<Tree.Entry> entries = new ArrayList<>();
+        for (Map.Entry<String, Index.Entry> file : dir.files.entrySet()) {
+            Index.Entry entry = file.getValue();
+            entries.add(new Tree.Entry(file.getKey(), Tree.fileMode(entry.stat().mode()), entry.id()));
+        }
+        for (Map.Entry<String, Dir> sub : dir.dirs.entrySet()) {
+            String subPath = path.isEmpty() ? sub.getKey() : path + "/" + sub.getKey();
+            entries.add(new Tree.Entry(sub.getKey(), Tree.MODE_TREE, write(store, index, sub.getValue(), subPath)));
+        }
+
+        String id = Tree.write(store, entries);
+        index.cacheTree(path, id);
+        return id;
+    }
+
+    // Trees for a plain path -> blob id listing, e.g. an old flat commit
+    public static String write(ObjectStore store, Map<String, String> files) throws IOException {
+        List<Index.Entry> entries = new ArrayList<>();
+        FileStat stat = new FileStat(0, 0, 0, 0, FileStat.MODE_FILE);
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            entries.add(new Index.Entry(file.getKey(), file.getValue(), stat));
+        }
+        return writeUncached(store, Dir.of(entries));
+    }
+
+    private static String writeUncached(ObjectStore store, Dir dir) throws IOException {
+        List<Tree.Entry> entries = new ArrayList<>();
+        for (Map.Entry<String, Index.Entry> file : dir.files.entrySet()) {
+            entries.add(new Tree.Entry(file.getKey(), Tree.fileMode(file.getValue().stat().mode()), file.getValue().id()));
+        }
+        for (Map.Entry<String, Dir> sub : dir.dirs.entrySet()) {
+            entries.add(new Tree.Entry(sub.getKey(), Tree.MODE_TREE, writeUncached(store, sub.getValue())));
+        }
+        return Tree.write(store, entries);
+    }
+
+    // What is staged relative to a tree (null = empty). Directories whose
+    // cached id equals the tree's subtree id are skipped without reading.
+    public static List<TreeDiff.Change> diffIndex(ObjectStore store, Index index, String treeId) throws IOException {
+        List<TreeDiff.Change> changes = new ArrayList<>();
+        String cached = index.cachedTree("");
+        if (cached != null && cached.equals(treeId)) return changes;
+        diffIndex(store, index, Dir.of(index.entries()), "", treeId, changes);
+        return changes;
+    }
+
+    private static void diffIndex(ObjectStore store, Index index, Dir dir, String path, String treeId,
+                                  List<TreeDiff.Change> changes) throws IOException {
+        String cached = index.cachedTree(path);
+        if (cached != null && cached.equals(treeId)) return;
+
+        Map<String, Tree.Entry> committed = new HashMap<>();
+        if (treeId != null) {
+            for (Tree.Entry entry : Tree.read(store, treeId)) {
+                committed.put(entry.name(), entry);
+            }
+        }
+        SortedSet<String> names = new TreeSet<>(committed.keySet());
+        names.addAll(dir.files.keySet());
+        names.addAll(dir.dirs.keySet());
+
+        String prefix = path.isEmpty() ? "" : path + "/";
+        for (String name : names) {
+            Tree.Entry before = committed.get(name);
+            Index.Entry staged = dir.files.get(name);
+
+            String oldFile = before != null && !before.isTree() ? before.id() : null;
+            String newFile = staged != null ? staged.id() : null;
+            int oldMode = oldFile != null ? before.mode() : 0;
+            int newMode = staged != null ? Tree.fileMode(staged.stat().mode()) : 0;
+            if (!Objects.equals(oldFile, newFile) || oldMode != newMode) {
+                changes.add(new TreeDiff.Change(prefix + name, oldFile, newFile, oldMode, newMode));
+            }
+
+            Dir sub = dir.dirs.get(name);
+            String oldSubtree = before != null && before.isTree() ? before.id() : null;
+            if (sub != null || oldSubtree != null) {
+                diffIndex(store, index, sub != null ? sub : new Dir(), prefix + name, oldSubtree, changes);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.util.*;
+
+// Differences between two trees. Subtrees with the same id are identical, so
+// they are skipped without being read; only directories on changed paths are
+// ever opened.
+public class TreeDiff {
+
+    // oldId is null for an added file, newId is null for a deleted one; the
+    // mode of a missing side is 0. A file whose mode alone changed has equal ids.
+    public record Change(String path, String oldId, String newId, int oldMode, int newMode) {
+        public boolean modeChanged() {
+            return oldId != null && newId != null && oldMode != newMode;
+        }
+    }
+
+    private TreeDiff() {
+    }
+
+    // Either tree may be null, meaning empty
+    public static List<Change> diff(ObjectStore store, String oldTree, String newTree) throws IOException {
+        List<Change> changes = new ArrayList<>();
+        diff(store, oldTree, newTree, "", changes);
+        return changes;
+    }
+
+    // Changes keyed by path, for callers that combine several diffs
+    public static Map<String, Change> byPath(List<Change> changes) {
+        Map<String, Change> map = new HashMap<>();
+        for (Change change : changes) {
+            map.put(change.path(), change);
+        }
+        return map;
+    }
+
+    private static void diff(ObjectStore store, String oldTree, String newTree, String prefix, List<Change> changes)
+            throws IOException {
+        if (Objects.equals(oldTree, newTree)) return;
+
+        Map<String, Tree.Entry> oldEntries = entries(store, oldTree);
+        Map<String, Tree.Entry> newEntries = entries(store, newTree);
+        SortedSet<String> names = new TreeSet<>(oldEntries.keySet());
+        names.addAll(newEntries.keySet());
+
+        for (String name : names) {
+            Tree.Entry before = oldEntries.get(name);
+            Tree.Entry after = newEntries.get(name);
+            String path = prefix + name;
+
+            String oldFile = before != null && !before.isTree() ? before.id() : null;
+            String newFile = after != null && !after.isTree() ? after.id() : null;
+            int oldMode = oldFile != null ? before.mode() : 0;
+            int newMode = newFile != null ? after.mode() : 0;
+            if (!Objects.equals(oldFile, newFile) || oldMode != newMode) {
+                changes.add(new Change(path, oldFile, newFile, oldMode, newMode));
+            }
+
+            // A directory replaced by a file (or the other way round) shows up
+            // as its files being deleted (or added)
+            String oldSubtree = before != null && before.isTree() ? before.id() : null;
+            String newSubtree = after != null && after.isTree() ? after.id() : null;
+            if (oldSubtree != null || newSubtree != null) {
+                diff(store, oldSubtree, newSubtree, path + "/", changes);
+            }
+        }
+    }
+
+    private static Map<String, Tree.Entry> entries(ObjectStore store, String treeId) throws IOException {
+        Map<String, Tree.Entry> entries = new HashMap<>();
+        if (treeId != null) {
+            for (Tree.Entry entry : Tree.read(store, treeId)) {
+                entries.put(entry.name(), entry);
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,72 @@
+package bit.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Formats the hunks Diff found as a unified diff, the format `diff -u`, `git
+// diff` and `patch` share:
+//
+//   @@ -<old start>,<old count> +<new start>,<new count> @@
+//    context line
+//   -removed line
+//   +added line
+//
+// Hunks closer together than twice the context are joined into one. Lines
+// come from the Interner as Latin-1 text, so they are written back as the
+// exact bytes they were read from.
+public class UnifiedDiff {
+    public static final int DEFAULT_CONTEXT = 3;
+
+    private UnifiedDiff() {
+    }
+
+    public static void write(Diff.Interner lines, int[] base, int[] other, List<Diff.Hunk> hunks, int context,
+                             ByteArrayOutputStream out) {
+        int i = 0;
+        while (i < hunks.size()) {
+            // Take every following hunk whose context would overlap this one's
+            int j = i;
+            while (j + 1 < hunks.size() && hunks.get(j + 1).baseStart() - hunks.get(j).baseEnd() <= 2 * context) {
+                j++;
+            }
+
+            Diff.Hunk first = hunks.get(i);
+            Diff.Hunk last = hunks.get(j);
+            int baseStart = Math.max(0, first.baseStart() - context);
+            int otherStart = first.otherStart() - (first.baseStart() - baseStart);
+            int baseEnd = Math.min(base.length, last.baseEnd() + context);
+            int otherEnd = last.otherEnd() + (baseEnd - last.baseEnd());
+
+            text(out, "@@ -" + range(baseStart, baseEnd - baseStart) + " +" + range(otherStart, otherEnd - otherStart) + " @@\n");
+            int pos = baseStart;
+            for (int k = i; k <= j; k++) {
+                Diff.Hunk hunk = hunks.get(k);
+                for (; pos < hunk.baseStart(); pos++) line(out, ' ', lines.line(base[pos]));
+                for (int b = hunk.baseStart(); b < hunk.baseEnd(); b++) line(out, '-', lines.line(base[b]));
+                for (int o = hunk.otherStart(); o < hunk.otherEnd(); o++) line(out, '+', lines.line(other[o]));
+                pos = hunk.baseEnd();
+            }
+            for (; pos < baseEnd; pos++) line(out, ' ', lines.line(base[pos]));
+            i = j + 1;
+        }
+    }
+
+    // Line numbers are 1-based; an empty range names the line before it
+    private static String range(int start, int count) {
+        if (count == 1) return String.valueOf(start + 1);
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    private static void line(ByteArrayOutputStream out, char marker, String line) {
+        out.write(marker);
+        out.writeBytes(line.getBytes(StandardCharsets.ISO_8859_1));
+        if (!line.endsWith("\n")) {
+            text(out, "\n\\ No newline at end of file\n");
+        }
+    }
+
+    private static void text(ByteArrayOutputStream out, String text) {
+        out.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
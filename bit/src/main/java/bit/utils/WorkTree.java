@@ -0,0 +1,85 @@
+package bit.utils;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+// Walks the working tree the way every command should: .bit is never entered
+// and ignored directories are skipped as a whole instead of being walked and
+// filtered file by file.
+public class WorkTree {
+
+    public static void walk(Path start, IgnoreRules ignore, Consumer<Path> files) throws IOException {
+        String startPath = Index.toIndexPath(start);
+        if (isInternal(startPath) || (!startPath.isEmpty() && ignore.isExcluded(startPath, Files.isDirectory(start)))) {
+            return;
+        }
+
+        long started = System.nanoTime();
+        Events.Walk event = new Events.Walk();
+        event.begin();
+        long[] visited = {0};
+
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.equals(start)) return FileVisitResult.CONTINUE;
+                String path = Index.toIndexPath(dir);
+                if (isInternal(path) || ignore.isIgnored(path, true)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !ignore.isIgnored(Index.toIndexPath(file), false)) {
+                    visited[0]++;
+                    files.accept(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE; // deleted while walking
+            }
+        });
+
+        // Includes the time the consumer spends on each file
+        Metrics.time("walk", started);
+        Metrics.count("files.walked", visited[0]);
+        if (event.shouldCommit()) {
+            event.start = startPath;
+            event.files = visited[0];
+            event.commit();
+        }
+    }
+
+    public static boolean isInternal(String path) {
+        return path.equals(".bit") || path.startsWith(".bit/");
+    }
+
+    // An empty temp file in `dir` to be filled and moved into place as a file
+    // with the given tree mode. Files.createTempFile always makes it 0600;
+    // here rw-rw-rw- (rwxrwxrwx for an executable) is asked for at creation
+    // and the umask takes off the rest, as for any file the user creates.
+    public static Path createTemp(Path dir, String prefix, int mode) throws IOException {
+        if (!dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return Files.createTempFile(dir, prefix, ".tmp");
+        }
+        var permissions = PosixFilePermissions.asFileAttribute(
+                PosixFilePermissions.fromString(mode == FileStat.MODE_EXECUTABLE ? "rwxrwxrwx" : "rw-rw-rw-"));
+        while (true) {
+            Path temp = dir.resolve(prefix + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                return Files.createFile(temp, permissions);
+            } catch (FileAlreadyExistsException e) {
+                // Taken; pick another name
+            }
+        }
+    }
+}
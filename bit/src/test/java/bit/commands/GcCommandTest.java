@@ -0,0 +1,95 @@
+package bit.commands;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import bit.utils.CommitGraph;
+import bit.utils.CommitGraphChain;
+import bit.utils.ObjectStore;
+import bit.utils.Refs;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GcCommandTest {
+    @TempDir
+    Path dir;
+
+    private Repository repo;
+    private Refs refs;
+    private ObjectStore store;
+    private String kept;
+    private String undone;
+
+    // Two commits, the second undone, so only the reflog still refers to it
+    @BeforeEach
+    void setUp() throws Exception {
+        repo = new Repository(dir);
+        refs = new Refs(repo.path(".bit"));
+        store = new ObjectStore(repo.path(".bit/objects"));
+
+        repo.write("file.txt", "one\n");
+        repo.run("stage", "file.txt");
+        repo.run("save", "kept");
+        kept = refs.head();
+        repo.write("file.txt", "two\n");
+        repo.run("stage", "file.txt");
+        repo.run("save", "undone");
+        undone = refs.head();
+        repo.run("undo", "commit");
+        assertEquals(kept, refs.head());
+    }
+
+    // Moves every reflog entry of the branch back to the given time
+    private void backdateLog(Instant time) throws Exception {
+        Path log = refs.logPath(Refs.DEFAULT_BRANCH);
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(log)) {
+            String[] parts = line.split(" ", 4);
+            parts[2] = Long.toString(time.getEpochSecond());
+            lines.add(String.join(" ", parts));
+        }
+        Files.write(log, lines);
+    }
+
+    @Test
+    void keepsCommitsARecentReflogEntryRefersTo() throws Exception {
+        String output = repo.run("gc", "--grace=0s");
+        assertTrue(store.exists(undone), output);
+        assertEquals(3, refs.log(Refs.DEFAULT_BRANCH).size());
+    }
+
+    @Test
+    void collectsCommitsOnlyAnExpiredReflogEntryRefersTo() throws Exception {
+        backdateLog(Instant.parse("2000-01-01T00:00:00Z"));
+
+        String dryRun = repo.run("gc", "--dry-run", "--grace=0s");
+        assertTrue(dryRun.contains("Would remove"), dryRun);
+        assertTrue(store.exists(undone));
+        assertEquals(3, refs.log(Refs.DEFAULT_BRANCH).size(), "a dry run expires nothing");
+
+        String output = repo.run("gc", "--grace=0s");
+        assertTrue(output.contains("Removed"), output);
+        assertFalse(store.exists(undone));
+        assertTrue(store.exists(kept));
+        assertEquals(List.of(), refs.log(Refs.DEFAULT_BRANCH));
+
+        // The staged blob of the undone commit is still in the index
+        assertTrue(store.exists(ObjectStore.hash(ObjectStore.BLOB, "two\n".getBytes())));
+
+        CommitGraphChain graph = CommitGraphChain.load(repo.path(CommitGraph.DEFAULT_PATH.toString()));
+        assertTrue(graph.contains(kept));
+        assertFalse(graph.contains(undone));
+    }
+
+    @Test
+    void honoursTheGracePeriod() throws Exception {
+        backdateLog(Instant.parse("2000-01-01T00:00:00Z"));
+        String output = repo.run("gc");
+        assertTrue(store.exists(undone), output);
+    }
+}
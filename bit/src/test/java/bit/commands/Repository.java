@@ -0,0 +1,48 @@
+package bit.commands;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// A scratch repository that runs bit commands in a child JVM, since every
+// command works on the .bit directory below the current directory
+class Repository {
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private final Path dir;
+
+    Repository(Path dir) throws Exception {
+        this.dir = dir;
+        run("init");
+    }
+
+    Path path(String name) {
+        return dir.resolve(name);
+    }
+
+    void write(String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    // Runs `bit <args>` and returns what it printed
+    String run(String... args) throws Exception {
+        List<String> command = new ArrayList<>(List.of(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "bit.Bit"));
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).directory(dir.toFile()).redirectErrorStream(true).start();
+        process.getOutputStream().close();
+        byte[] output = process.getInputStream().readAllBytes();
+        assertTrue(process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS), "bit " + String.join(" ", args) + " hung");
+        return new String(output, StandardCharsets.UTF_8);
+    }
+}
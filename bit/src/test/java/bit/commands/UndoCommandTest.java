@@ -0,0 +1,100 @@
+package bit.commands;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import bit.utils.Index;
+import bit.utils.Refs;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UndoCommandTest {
+    @TempDir
+    Path dir;
+
+    private Repository repo;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        repo = new Repository(dir);
+        repo.write("notes", "committed\n");
+        repo.write("src/main.c", "int main() {}\n");
+        repo.run("stage", "notes", "src/main.c");
+        assertTrue(repo.run("save", "first").contains("Commit saved"));
+    }
+
+    private Index index() throws Exception {
+        return Index.load(repo.path(".bit/index"));
+    }
+
+    private List<String> staged() throws Exception {
+        return index().entries().stream().map(Index.Entry::path).toList();
+    }
+
+    @Test
+    void restoresACommittedFileInsteadOfDeletingIt() throws Exception {
+        String committed = index().get("src/main.c").id();
+        repo.write("src/main.c", "int main() { return 1; }\n");
+        repo.run("stage", "src/main.c");
+        assertNotEquals(committed, index().get("src/main.c").id());
+
+        assertTrue(repo.run("undo", "stage", "src/main.c").contains("Unstaged: src/main.c"));
+        assertEquals(committed, index().get("src/main.c").id());
+        assertEquals("int main() { return 1; }\n", Files.readString(repo.path("src/main.c")));
+    }
+
+    @Test
+    void dropsANewFile() throws Exception {
+        repo.write("added.txt", "new\n");
+        repo.run("stage", "added.txt");
+        assertTrue(repo.run("undo", "stage", "added.txt").contains("Unstaged: added.txt"));
+        assertEquals(List.of("notes", "src/main.c"), staged());
+        assertTrue(repo.run("undo", "stage", "added.txt").contains("Not staged: added.txt"));
+    }
+
+    @Test
+    void dropsAPathUnderAFileCommittedInHead() throws Exception {
+        // `notes` is a file in HEAD; a path below it can't be in HEAD's tree
+        Files.delete(repo.path("notes"));
+        repo.write("notes/today.txt", "a directory now\n");
+        repo.run("stage", "notes/today.txt");
+        assertTrue(staged().contains("notes/today.txt"));
+
+        String output = repo.run("undo", "stage", "notes/today.txt");
+        assertTrue(output.contains("Unstaged: notes/today.txt"), output);
+        assertFalse(staged().contains("notes/today.txt"));
+    }
+
+    @Test
+    void unstagesEverythingWithoutPaths() throws Exception {
+        repo.write("added.txt", "new\n");
+        repo.write("src/main.c", "changed\n");
+        repo.run("stage", "added.txt", "src/main.c");
+
+        String output = repo.run("undo", "stage");
+        assertTrue(output.contains("Unstaged: added.txt") && output.contains("Unstaged: src/main.c"), output);
+        assertEquals(List.of("notes", "src/main.c"), staged());
+        assertTrue(repo.run("undo", "stage").contains("Nothing staged."));
+    }
+
+    @Test
+    void undoCommitMovesTheBranchBackAndLogsIt() throws Exception {
+        Refs refs = new Refs(repo.path(".bit"));
+        String first = refs.head();
+        repo.write("notes", "second version\n");
+        repo.run("stage", "notes");
+        repo.run("save", "second");
+        String second = refs.head();
+        assertNotEquals(first, second);
+
+        assertTrue(repo.run("undo", "commit").contains(first));
+        assertEquals(first, refs.head());
+        List<Refs.LogEntry> log = refs.log(Refs.DEFAULT_BRANCH);
+        assertEquals(3, log.size());
+        assertEquals(second, log.get(2).oldId());
+        assertEquals(first, log.get(2).newId());
+    }
+}
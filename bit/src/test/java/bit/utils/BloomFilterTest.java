@@ -0,0 +1,68 @@
+package bit.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class BloomFilterTest {
+    private static boolean mightContain(byte[] filter, String path) {
+        return BloomFilter.mightContain(ByteBuffer.wrap(filter), 0, filter.length, BloomFilter.key(path));
+    }
+
+    @Test
+    void containsEveryFileAndTheDirectoriesAboveIt() {
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < 100; i++) files.add("src/module" + (i % 7) + "/File" + i + ".java");
+        byte[] filter = BloomFilter.of(files);
+        assertEquals(0, filter.length % 8, "whole 64-bit words");
+
+        for (String file : files) assertTrue(mightContain(filter, file), file);
+        assertTrue(mightContain(filter, "src"));
+        assertTrue(mightContain(filter, "src/module3"));
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (mightContain(filter, "docs/page" + i + ".md")) falsePositives++;
+        }
+        assertTrue(falsePositives < 300, falsePositives + " false positives in 10000");
+    }
+
+    @Test
+    void aSmallFilterStillRulesPathsOut() {
+        byte[] filter = BloomFilter.of(List.of("README.md"));
+        assertEquals(8, filter.length);
+        assertTrue(mightContain(filter, "README.md"));
+        int falsePositives = 0;
+        for (int i = 0; i < 1_000; i++) {
+            if (mightContain(filter, "file" + i)) falsePositives++;
+        }
+        assertTrue(falsePositives < 10, falsePositives + " false positives in 1000");
+    }
+
+    @Test
+    void anEmptyFilterContainsNothing() {
+        assertFalse(mightContain(BloomFilter.of(List.of()), "anything"));
+    }
+
+    @Test
+    void tooManyPathsMatchEverything() {
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i <= BloomFilter.MAX_PATHS; i++) files.add("file" + i);
+        byte[] filter = BloomFilter.of(files);
+        assertArrayEquals(BloomFilter.tooLarge(), filter);
+        assertTrue(mightContain(filter, "not/a/changed/path"));
+    }
+
+    @Test
+    void hashesMatchMurmur3() {
+        // Reference values of MurmurHash3_x86_32
+        assertEquals(0, BloomFilter.murmur3(0, new byte[0]));
+        assertEquals(0x514e28b7, BloomFilter.murmur3(1, new byte[0]));
+        byte[] fox = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x2e4ff723, BloomFilter.murmur3(0, fox));
+    }
+}
@@ -0,0 +1,70 @@
+package bit.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class Diff3Test {
+    private static final String BASE = "one\ntwo\nthree\nfour\nfive\n";
+
+    private static Diff3.Result merge(String base, String ours, String theirs) {
+        return Diff3.merge(bytes(base), bytes(ours), bytes(theirs), "ours", "theirs");
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(Diff3.Result result) {
+        return new String(result.content(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void appliesChangesToSeparateLines() {
+        Diff3.Result result = merge(BASE, "ONE\ntwo\nthree\nfour\nfive\n", "one\ntwo\nthree\nfour\nFIVE\n");
+        assertTrue(result.isClean());
+        assertEquals("ONE\ntwo\nthree\nfour\nFIVE\n", text(result));
+    }
+
+    @Test
+    void takesTheSameChangeOnce() {
+        String changed = "one\nTWO\nthree\nfour\nfive\nsix\n";
+        Diff3.Result result = merge(BASE, changed, changed);
+        assertTrue(result.isClean());
+        assertEquals(changed, text(result));
+    }
+
+    @Test
+    void keepsOneSidesDeletionAndTheOthersInsertion() {
+        Diff3.Result result = merge(BASE, "one\nthree\nfour\nfive\n", "zero\none\ntwo\nthree\nfour\nfive\n");
+        assertTrue(result.isClean());
+        assertEquals("zero\none\nthree\nfour\nfive\n", text(result));
+    }
+
+    @Test
+    void marksOverlappingChangesAsAConflict() {
+        Diff3.Result result = merge(BASE, "one\nours\nthree\nfour\nfive\n", "one\ntheirs\nthree\nfour\nfive\n");
+        assertFalse(result.isClean());
+        assertEquals(1, result.conflicts());
+        assertEquals("one\n<<<<<<< ours\nours\n=======\ntheirs\n>>>>>>> theirs\nthree\nfour\nfive\n", text(result));
+    }
+
+    @Test
+    void refusesBinaryContent() {
+        byte[] binary = {'a', 0, 'b'};
+        Diff3.Result result = Diff3.merge(bytes(BASE), binary, bytes(BASE), "ours", "theirs");
+        assertNull(result.content());
+        assertFalse(result.isClean());
+    }
+
+    @Test
+    void preservesBytesThatAreNotUtf8() {
+        byte[] base = {'a', '\n', (byte) 0xe9, '\n', 'c', '\n'};
+        byte[] ours = {'A', '\n', (byte) 0xe9, '\n', 'c', '\n'};
+        byte[] theirs = {'a', '\n', (byte) 0xe9, '\n', 'C', '\n'};
+        Diff3.Result result = Diff3.merge(base, ours, theirs, "ours", "theirs");
+        assertTrue(result.isClean());
+        assertArrayEquals(new byte[] {'A', '\n', (byte) 0xe9, '\n', 'C', '\n'}, result.content());
+    }
+}
@@ -0,0 +1,147 @@
+package bit.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HistoryTest {
+    @TempDir
+    Path dir;
+
+    private ObjectStore store;
+    private Path graphPath;
+
+    @BeforeEach
+    void setUp() {
+        store = new ObjectStore(dir.resolve("objects"));
+        graphPath = dir.resolve("commit-graph");
+    }
+
+    // A commit whose tree holds the files, each with its path as content
+    private String commit(String message, Collection<String> files, String... parents) throws Exception {
+        Map<String, String> tree = new TreeMap<>();
+        for (String file : files) {
+            tree.put(file, store.write(ObjectStore.BLOB, file.getBytes(StandardCharsets.UTF_8)));
+        }
+        return Commit.create(List.of(parents), TreeBuilder.write(store, tree), message).write(store);
+    }
+
+    private String commit(String message, String... parents) throws Exception {
+        return commit(message, List.of(message + ".txt"), parents);
+    }
+
+    @Test
+    void findsTheMergeBaseOfForkedBranches() throws Exception {
+        //   root - a1 - a2          (a)
+        //       \
+        //        b1 - b2 - merge    (b, merges a1)
+        String root = commit("root");
+        String a1 = commit("a1", root);
+        String a2 = commit("a2", a1);
+        String b1 = commit("b1", root);
+        String b2 = commit("b2", b1);
+        String merge = commit("merge", b2, a1);
+
+        History history = new History(store, graphPath);
+        assertEquals(root, history.mergeBase(a2, b2));
+        assertEquals(a1, history.mergeBase(a2, merge));
+        assertEquals(a1, history.mergeBase(merge, a2));
+        assertEquals(a2, history.mergeBase(a2, a2));
+        assertEquals(b1, history.mergeBase(b1, merge));
+
+        assertTrue(history.isAncestor(root, merge));
+        assertTrue(history.isAncestor(a1, merge));
+        assertFalse(history.isAncestor(a2, merge));
+        assertTrue(history.isAncestor(merge, merge));
+        assertEquals(4, history.generation(merge));
+    }
+
+    @Test
+    void returnsNullForUnrelatedHistories() throws Exception {
+        String one = commit("one");
+        String other = commit("other");
+        assertNull(new History(store, graphPath).mergeBase(commit("two", one), other));
+    }
+
+    @Test
+    void keepsTheGraphLayersLogarithmic() throws Exception {
+        List<String> commits = new ArrayList<>();
+        String tip = commit("c0");
+        commits.add(tip);
+        new History(store, graphPath).record(List.of(tip));
+        for (int i = 1; i < 40; i++) {
+            tip = commit("c" + i, tip);
+            commits.add(tip);
+            new History(store, graphPath).record(List.of(tip));
+        }
+
+        Path layerDir = dir.resolve("commit-graph.d");
+        List<String> chain = Files.readAllLines(layerDir.resolve("chain"));
+        assertTrue(chain.size() <= 6, chain.size() + " layers");
+        try (Stream<Path> files = Files.list(layerDir)) {
+            assertEquals(new TreeSet<>(chain), new TreeSet<>(files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(".graph")).toList()), "stale layers were deleted");
+        }
+
+        // Every commit is answered from the graph, even with its object gone
+        CommitGraphChain graph = CommitGraphChain.load(graphPath);
+        for (int i = 0; i < commits.size(); i++) {
+            CommitGraph.Node node = graph.node(commits.get(i));
+            assertNotNull(node, "commit " + i);
+            assertEquals(i + 1, node.generation());
+            assertEquals(i == 0 ? List.of() : List.of(commits.get(i - 1)), node.parents());
+        }
+        for (String id : commits) store.deleteLoose(id);
+        History history = new History(store, graphPath);
+        assertEquals(commits.get(10), history.mergeBase(commits.get(10), tip));
+        assertTrue(history.isAncestor(commits.get(0), tip));
+    }
+
+    @Test
+    void aLayerNamesParentsInTheFileBelow() throws Exception {
+        String root = commit("root");
+        String second = commit("second", root);
+        String third = commit("third", second);
+        String child = commit("child", third);
+        History.rebuild(store, List.of(third), graphPath);
+        new History(store, graphPath).record(List.of(child));
+
+        Path chain = dir.resolve("commit-graph.d/chain");
+        assertEquals(1, Files.readAllLines(chain).size());
+        assertEquals(3, CommitGraph.load(graphPath).count());
+        CommitGraph.Node node = CommitGraphChain.load(graphPath).node(child);
+        assertEquals(List.of(third), node.parents());
+        assertEquals(4, node.generation());
+
+        // A rebuild folds the layers back into the base file
+        History.rebuild(store, List.of(child), graphPath);
+        assertEquals(List.of(), Files.readAllLines(chain));
+        assertEquals(4, CommitGraph.load(graphPath).count());
+    }
+
+    @Test
+    void recordsChangedPathsForEachCommit() throws Exception {
+        String root = commit("root", List.of("docs/readme.txt", "src/main.c"));
+        String change = commit("change", List.of("docs/readme.txt", "src/main.c", "src/util/strings.c"), root);
+        new History(store, graphPath).record(List.of(change));
+
+        History history = new History(store, graphPath);
+        assertTrue(history.mightHaveChanged(change, BloomFilter.key("src/util/strings.c")));
+        assertTrue(history.mightHaveChanged(change, BloomFilter.key("src/util")));
+        assertTrue(history.mightHaveChanged(change, BloomFilter.key("src")));
+        assertFalse(history.mightHaveChanged(change, BloomFilter.key("docs/readme.txt")));
+        assertFalse(history.mightHaveChanged(change, BloomFilter.key("docs")));
+        assertTrue(history.mightHaveChanged(root, BloomFilter.key("docs/readme.txt")));
+
+        // Commits outside the graph can't be ruled out
+        String later = commit("later", List.of("docs/readme.txt"), change);
+        assertTrue(history.mightHaveChanged(later, BloomFilter.key("src/main.c")));
+    }
+}
@@ -0,0 +1,79 @@
+package bit.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IndexTest {
+    private static final String ID_A = "a".repeat(40);
+    private static final String ID_B = "b".repeat(40);
+    private static final String ID_C = "c".repeat(40);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsEntriesAndCachedTrees() throws Exception {
+        Path file = dir.resolve("index");
+        Index index = Index.load(file);
+        assertTrue(index.isEmpty());
+
+        FileStat executable = new FileStat(12, 1_000, 2_000, 42, FileStat.MODE_EXECUTABLE);
+        index.put(new Index.Entry("src/b.txt", ID_B, new FileStat(3, 10, 20, 7, FileStat.MODE_FILE)));
+        index.put(new Index.Entry("a.sh", ID_A, executable));
+        index.put(new Index.Entry("src/ünï.txt", ID_C, new FileStat(0, 0, 0, 0, FileStat.MODE_FILE)));
+        index.cacheTree("", ID_C);
+        index.cacheTree("src", ID_B);
+        index.save();
+        assertEquals("BIDX", new String(Files.readAllBytes(file), 0, 4, StandardCharsets.US_ASCII));
+
+        Index loaded = Index.load(file);
+        assertEquals(index.entries(), loaded.entries());
+        assertEquals(List.of("a.sh", "src/b.txt", "src/ünï.txt"),
+                loaded.entries().stream().map(Index.Entry::path).toList());
+        assertEquals(executable, loaded.get("a.sh").stat());
+        assertNull(loaded.get("src"));
+        assertEquals(ID_C, loaded.cachedTree(""));
+        assertEquals(ID_B, loaded.cachedTree("src"));
+    }
+
+    @Test
+    void stagingDropsTheCachedTreesAboveThePath() throws Exception {
+        Path file = dir.resolve("index");
+        Index index = Index.load(file);
+        index.cacheTree("", ID_A);
+        index.cacheTree("src", ID_B);
+        index.cacheTree("docs", ID_C);
+        index.put(new Index.Entry("src/main.c", ID_A, new FileStat(1, 1, 1, 1, FileStat.MODE_FILE)));
+        index.save();
+
+        Index loaded = Index.load(file);
+        assertNull(loaded.cachedTree(""));
+        assertNull(loaded.cachedTree("src"));
+        assertEquals(ID_C, loaded.cachedTree("docs"));
+    }
+
+    @Test
+    void concurrentSavesKeepBothChanges() throws Exception {
+        Path file = dir.resolve("index");
+        Index base = Index.load(file);
+        base.put(new Index.Entry("shared", ID_A, new FileStat(1, 1, 1, 1, FileStat.MODE_FILE)));
+        base.save();
+
+        Index first = Index.load(file);
+        Index second = Index.load(file);
+        first.put(new Index.Entry("one", ID_B, new FileStat(1, 1, 1, 1, FileStat.MODE_FILE)));
+        second.put(new Index.Entry("two", ID_C, new FileStat(1, 1, 1, 1, FileStat.MODE_FILE)));
+        second.remove("shared");
+        first.save();
+        second.save();
+
+        Index loaded = Index.load(file);
+        assertEquals(List.of("one", "two"), loaded.entries().stream().map(Index.Entry::path).toList());
+    }
+}
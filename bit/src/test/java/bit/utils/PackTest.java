@@ -0,0 +1,87 @@
+package bit.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PackTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void deltaRoundTrips() throws Exception {
+        Random random = new Random(1);
+        byte[] base = new byte[64 * 1024];
+        random.nextBytes(base);
+        byte[] target = Arrays.copyOf(base, base.length + 100);
+        Arrays.fill(target, 10_000, 10_500, (byte) 0);
+        System.arraycopy(base, 0, target, base.length, 100);
+
+        byte[] delta = Delta.create(base, target, target.length);
+        assertNotNull(delta);
+        assertTrue(delta.length < 2_000, "delta of " + delta.length + " bytes");
+        assertArrayEquals(target, Delta.apply(base, delta));
+    }
+
+    @Test
+    void deltaIsDroppedWhenItWouldNotBeSmaller() {
+        Random random = new Random(2);
+        byte[] base = new byte[4096];
+        byte[] target = new byte[4096];
+        random.nextBytes(base);
+        random.nextBytes(target);
+        assertNull(Delta.create(base, target, target.length / 2));
+        assertNull(Delta.create(new byte[8], target, target.length));
+    }
+
+    @Test
+    void packedObjectsReadBackThroughDeltaChains() throws Exception {
+        ObjectStore store = new ObjectStore(dir.resolve("objects"));
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        Map<String, String> nameHints = new HashMap<>();
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; line < 400; line++) {
+            text.append("line ").append(line).append(" of a file that changes a little in every version\n");
+        }
+        for (int version = 0; version < 8; version++) {
+            text.insert(version * 1_000, "version " + version + " inserted this line\n");
+            byte[] data = text.toString().getBytes(StandardCharsets.UTF_8);
+            String id = store.write(ObjectStore.BLOB, data);
+            contents.put(id, data);
+            nameHints.put(id, "notes.txt");
+        }
+        byte[] other = "an unrelated small file\n".getBytes(StandardCharsets.UTF_8);
+        contents.put(store.write(ObjectStore.BLOB, other), other);
+
+        PackWriter.Result result = new PackWriter(store, nameHints).write(contents.keySet(), store.packDir());
+        assertEquals(contents.size(), result.objects());
+        assertTrue(result.deltas() >= 6, result.deltas() + " deltas");
+        assertTrue(Files.size(result.pack()) < 3 * text.length(), "pack of " + Files.size(result.pack()) + " bytes");
+
+        try (PackFile pack = PackFile.open(result.idx())) {
+            assertEquals(contents.size(), pack.count());
+            assertEquals(new TreeSet<>(contents.keySet()), new TreeSet<>(pack.ids()));
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                ObjectStore.RawObject object = pack.read(entry.getKey());
+                assertEquals(ObjectStore.BLOB, object.type());
+                assertArrayEquals(entry.getValue(), object.data());
+                assertEquals(ObjectStore.BLOB, pack.typeOf(entry.getKey()));
+            }
+            assertFalse(pack.contains("0".repeat(40)));
+        }
+
+        // Once the loose copies are gone the store reads the pack
+        for (String id : contents.keySet()) store.deleteLoose(id);
+        ObjectStore reopened = new ObjectStore(dir.resolve("objects"));
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            assertFalse(reopened.isLoose(entry.getKey()));
+            assertArrayEquals(entry.getValue(), reopened.read(entry.getKey()).data());
+        }
+        reopened.closePacks();
+    }
+}
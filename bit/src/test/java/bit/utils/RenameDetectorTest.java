@@ -0,0 +1,123 @@
+package bit.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RenameDetectorTest {
+    @TempDir
+    Path dir;
+
+    private ObjectStore store;
+    private RenameDetector detector;
+
+    @BeforeEach
+    void setUp() {
+        store = new ObjectStore(dir.resolve("objects"));
+        detector = new RenameDetector(store, RenameDetector.DEFAULT_SIMILARITY, true);
+    }
+
+    // Lines [from, to) of a made-up file, plus any extra lines
+    private static String lines(int from, int to, String... extra) {
+        StringBuilder text = new StringBuilder();
+        for (int i = from; i < to; i++) text.append("shared line number ").append(i).append('\n');
+        for (String line : extra) text.append(line).append('\n');
+        return text.toString();
+    }
+
+    private RenameDetector.Side stored(String path, String content) throws Exception {
+        return new RenameDetector.Side(path, store.write(ObjectStore.BLOB, content.getBytes(StandardCharsets.UTF_8)),
+                null);
+    }
+
+    private RenameDetector.Side onDisk(String path, String content) throws Exception {
+        Path file = dir.resolve(path);
+        Files.writeString(file, content);
+        return new RenameDetector.Side(path, null, file);
+    }
+
+    @Test
+    void matchesExactRenamesById() throws Exception {
+        List<RenameDetector.Match> matches = detector.detect(
+                List.of(stored("old.txt", lines(0, 20))), List.of(stored("new.txt", lines(0, 20))));
+        assertEquals(1, matches.size());
+        RenameDetector.Match match = matches.get(0);
+        assertEquals("old.txt", match.from());
+        assertEquals("new.txt", match.to());
+        assertEquals(100, match.similarity());
+        assertFalse(match.copy());
+    }
+
+    @Test
+    void matchesEditedRenamesAgainstWorkingTreeFiles() throws Exception {
+        String old = lines(0, 100);
+        String edited = lines(0, 90, "new line a", "new line b", "new line c");
+        List<RenameDetector.Match> matches = detector.detect(
+                List.of(stored("Old.java", old), stored("unrelated.txt", "something else entirely\n")),
+                List.of(onDisk("New.java", edited)));
+        assertEquals(1, matches.size());
+        assertEquals("Old.java", matches.get(0).from());
+        assertEquals("New.java", matches.get(0).to());
+        assertTrue(matches.get(0).similarity() >= 70 && matches.get(0).similarity() < 100,
+                matches.get(0).similarity() + "%");
+    }
+
+    @Test
+    void findsRenamesJustAboveTheThreshold() throws Exception {
+        // 75 of the 125 distinct lines in common: 60% similar
+        List<RenameDetector.Match> matches = detector.detect(
+                List.of(stored("before.txt", lines(0, 100))),
+                List.of(stored("after.txt", lines(25, 100, lines(1000, 1025).split("\n")))));
+        assertEquals(List.of("after.txt"), matches.stream().map(RenameDetector.Match::to).toList());
+    }
+
+    @Test
+    void ignoresFilesBelowTheThreshold() throws Exception {
+        List<RenameDetector.Match> matches = detector.detect(
+                List.of(stored("before.txt", lines(0, 100))),
+                List.of(stored("after.txt", lines(80, 100, lines(1000, 1080).split("\n")))));
+        assertEquals(List.of(), matches);
+    }
+
+    @Test
+    void reportsASecondTargetOfTheSameSourceAsACopy() throws Exception {
+        List<RenameDetector.Match> matches = detector.detect(
+                List.of(stored("a.txt", lines(0, 30))),
+                List.of(stored("b.txt", lines(0, 30)), stored("c.txt", lines(0, 30))));
+        assertEquals(2, matches.size());
+        assertEquals(1, matches.stream().filter(RenameDetector.Match::copy).count());
+        assertTrue(matches.stream().allMatch(match -> match.from().equals("a.txt")));
+    }
+
+    @Test
+    void findsCopiesOfFilesThatAreStillThere() throws Exception {
+        RenameDetector.Side modified = stored("lib/Modified.java", lines(0, 100));
+        RenameDetector.Side unchanged = stored("lib/Unchanged.java", lines(200, 240));
+        List<RenameDetector.Match> matches = detector.detect(List.of(),
+                List.of(stored("copy/Edited.java", lines(0, 95, "an extra line")),
+                        stored("copy/Unchanged.java", lines(200, 240))),
+                List.of(modified), List.of(unchanged));
+
+        assertEquals(2, matches.size());
+        RenameDetector.Match edited = matches.get(0);
+        assertEquals("lib/Modified.java", edited.from());
+        assertEquals("copy/Edited.java", edited.to());
+        assertTrue(edited.copy());
+        RenameDetector.Match exact = matches.get(1);
+        assertEquals("lib/Unchanged.java", exact.from());
+        assertEquals(100, exact.similarity());
+        assertTrue(exact.copy());
+        assertTrue(RenameDetector.bySource(matches).isEmpty(), "copies don't replace their source");
+    }
+
+    @Test
+    void neverPairsEmptyFiles() throws Exception {
+        assertEquals(List.of(), detector.detect(List.of(stored("empty", "")), List.of(stored("other", ""))));
+    }
+}